@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.compositionservice;
+
+import com.ethercis.compositionservice.I_CompositionService.CompositionFormat;
+import com.ethercis.dao.access.handler.CanonicalHandler;
+import com.ethercis.dao.access.handler.FlatJsonHandler;
+import com.ethercis.dao.access.handler.I_CanonicalHandler;
+import com.ethercis.dao.access.handler.I_FlatJsonHandler;
+import com.ethercis.dao.access.handler.PvCompoHandler;
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+import com.ethercis.ehr.json.FlatJsonUtil;
+import com.ethercis.servicemanager.common.I_StreamedResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.*;
+
+/**
+ * Batch commit of compositions<p>
+ * The request body is a stream of compositions, one JSON object per line (NDJSON):
+ * <pre>
+ * {"ehrId":"...", "templateId":"...", "format":"FLAT", "link":"...", "composition":{...}}
+ * </pre>
+ * ehrId, templateId, format and link are optional and default to the query parameters, an XML composition is
+ * passed as a JSON string. The audit context and the composition handlers are resolved once for the whole batch.<p>
+ * Compositions are committed in chunks on a dedicated connection, one transaction per chunk. A composition failing
+ * is rolled back to its savepoint and reported, the rest of its chunk is committed. The result of each line is
+ * streamed back as a JSON line once its chunk is committed, followed by a summary line.
+ */
+class CompositionBatch implements I_StreamedResponse {
+
+    static final String CONTENT_TYPE = "application/x-ndjson;charset=UTF-8";
+
+    private static Logger log = LogManager.getLogger(CompositionBatch.class);
+
+    /**
+     * stores a composition with a given format and template
+     */
+    interface Committer {
+        UUID store(UUID ehrId, JsonElement composition) throws Exception;
+    }
+
+    private final CompositionService service;
+    private final I_DomainAccess domainAccess;
+    private final Connection connection;
+    private final Reader content;
+    private final int chunkSize;
+
+    //defaults from the query
+    private final UUID ehrId;
+    private final String templateId;
+    private final CompositionFormat format;
+    private final String link;
+
+    //audit context, resolved once
+    private final UUID committerUuid;
+    private final UUID systemUuid;
+    private final String description;
+    private final String sessionKey;
+
+    private final Map<String, Committer> committers = new HashMap<>();
+    private final Set<UUID> chunkEhrIds = new HashSet<>(); //EHRs modified by the current chunk
+    private final JsonParser parser = new JsonParser();
+    private final Gson gson = new Gson();
+
+    private int created = 0;
+    private int failed = 0;
+    private boolean released = false;
+
+    /**
+     * @param service the composition service (uid encoding and linking)
+     * @param domainAccess a domain access bound to connection
+     * @param connection the connection dedicated to the batch, closed at the end of the batch
+     * @param content the request body
+     * @param chunkSize number of compositions per transaction
+     * @param sessionKey the session of the request, the writes are recorded for it once committed
+     */
+    CompositionBatch(CompositionService service, I_DomainAccess domainAccess, Connection connection, Reader content, int chunkSize,
+                     UUID ehrId, String templateId, CompositionFormat format, String link,
+                     UUID committerUuid, UUID systemUuid, String description, String sessionKey) {
+        this.service = service;
+        this.domainAccess = domainAccess;
+        this.connection = connection;
+        this.content = content;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.ehrId = ehrId;
+        this.templateId = templateId;
+        this.format = format;
+        this.link = link;
+        this.committerUuid = committerUuid;
+        this.systemUuid = systemUuid;
+        this.description = description;
+        this.sessionKey = sessionKey;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+
+        try (BufferedReader lines = new BufferedReader(content)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty())
+                    continue;
+                chunk.add(store(lineNumber, line));
+                if (chunk.size() >= chunkSize) {
+                    commit(chunk, writer);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty())
+                commit(chunk, writer);
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("action", "SUMMARY");
+            summary.put("created", created);
+            summary.put("failed", failed);
+            write(writer, summary);
+        } finally {
+            close();
+            writer.flush();
+        }
+    }
+
+    /**
+     * store a composition in the current transaction
+     * @param lineNumber
+     * @param line the JSON line
+     * @return the result of the line
+     */
+    private Map<String, Object> store(int lineNumber, String line) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("line", lineNumber);
+
+        Savepoint savepoint = null;
+        try {
+            savepoint = connection.setSavepoint();
+
+            JsonObject item = parser.parse(line).getAsJsonObject();
+            UUID itemEhrId = item.has(I_CompositionService.EHR_ID) ? UUID.fromString(item.get(I_CompositionService.EHR_ID).getAsString()) : ehrId;
+            String itemTemplateId = item.has(I_CompositionService.TEMPLATE_ID) ? item.get(I_CompositionService.TEMPLATE_ID).getAsString() : templateId;
+            CompositionFormat itemFormat = item.has(I_CompositionService.FORMAT) ? CompositionFormat.valueOf(item.get(I_CompositionService.FORMAT).getAsString()) : format;
+            String itemLink = item.has(I_CompositionService.LINK_ID) ? item.get(I_CompositionService.LINK_ID).getAsString() : link;
+
+            if (itemEhrId == null)
+                throw new IllegalArgumentException("No Ehr Id found in line nor in query");
+            if (!item.has("composition"))
+                throw new IllegalArgumentException("Content cannot be empty for a new composition");
+
+            UUID compositionId = committer(itemFormat, itemTemplateId).store(itemEhrId, item.get("composition"));
+            service.linkComposition(domainAccess, itemLink != null ? UUID.fromString(itemLink) : null, compositionId);
+
+            connection.releaseSavepoint(savepoint);
+            chunkEhrIds.add(itemEhrId);
+            result.put("action", "CREATE");
+            result.put(I_CompositionService.COMPOSITION_UID, service.encodeUuid(compositionId, 1));
+        } catch (Exception e) {
+            if (savepoint != null) {
+                try {
+                    connection.rollback(savepoint);
+                } catch (SQLException rollbackException) {
+                    log.warn("Could not rollback composition at line " + lineNumber + ":" + rollbackException);
+                }
+            }
+            result.put("action", "FAILED");
+            result.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * commit the current transaction and send the results of its chunk
+     * @param chunk the results of the chunk
+     * @param writer
+     * @throws IOException
+     */
+    private void commit(List<Map<String, Object>> chunk, Writer writer) throws IOException {
+        try {
+            connection.commit();
+            service.batchCommitted(chunkEhrIds, sessionKey);
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                log.warn("Could not rollback chunk:" + rollbackException);
+            }
+            for (Map<String, Object> result : chunk) {
+                if ("CREATE".equals(result.get("action"))) {
+                    result.put("action", "FAILED");
+                    result.remove(I_CompositionService.COMPOSITION_UID);
+                    result.put("error", "Chunk commit failed:" + e.getMessage());
+                }
+            }
+        }
+        chunkEhrIds.clear();
+
+        for (Map<String, Object> result : chunk) {
+            if ("CREATE".equals(result.get("action")))
+                created++;
+            else
+                failed++;
+            write(writer, result);
+        }
+        writer.flush();
+    }
+
+    private void write(Writer writer, Map<String, Object> result) throws IOException {
+        writer.write(gson.toJson(result));
+        writer.write('\n');
+    }
+
+    /**
+     * get the committer for a format and a template, handlers are created once per batch
+     * @param format
+     * @param templateId
+     * @return
+     * @throws Exception
+     */
+    Committer committer(CompositionFormat format, String templateId) throws Exception {
+        String key = format + "|" + templateId;
+        Committer committer = committers.get(key);
+        if (committer != null)
+            return committer;
+
+        switch (format) {
+            case XML:
+                I_CanonicalHandler canonicalHandler = new CanonicalHandler(domainAccess, templateId);
+                committer = (ehrId, composition) -> canonicalHandler.storeComposition(ehrId, composition.getAsString(), committerUuid, systemUuid, description);
+                break;
+
+            case ECISFLAT:
+                if (templateId == null || templateId.length() == 0)
+                    throw new IllegalArgumentException("Template Id must be specified");
+                PvCompoHandler pvCompoHandler = new PvCompoHandler(domainAccess, templateId, null);
+                committer = (ehrId, composition) -> pvCompoHandler.storeComposition(ehrId, FlatJsonUtil.inputStream2Map(new StringReader(composition.toString())), committerUuid, systemUuid, description);
+                break;
+
+            case FLAT:
+                if (templateId == null || templateId.length() == 0)
+                    throw new IllegalArgumentException("Template Id must be specified");
+                I_FlatJsonHandler flatJsonHandler = new FlatJsonHandler(domainAccess, templateId);
+                committer = (ehrId, composition) -> flatJsonHandler.store(ehrId, composition.toString(), committerUuid, systemUuid, description);
+                break;
+
+            default:
+                throw new IllegalArgumentException("This format is not supported:" + format);
+        }
+
+        committers.put(key, committer);
+        return committer;
+    }
+
+    /**
+     * rollback any uncommitted work (f.ex. client disconnected or batch never written) and give back the connection
+     */
+    @Override
+    public synchronized void close() {
+        if (released)
+            return;
+        released = true;
+        try {
+            content.close();
+        } catch (IOException e) {
+            log.warn("Could not close batch content:" + e);
+        }
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Could not reset batch connection:" + e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Could not close batch connection:" + e);
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ package com.ethercis.compositionservice;
 import com.ethercis.dao.access.handler.*;
 import com.ethercis.dao.access.interfaces.I_CompoXrefAccess;
 import com.ethercis.dao.access.interfaces.I_CompositionAccess;
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
 import com.ethercis.dao.access.interfaces.I_EntryAccess;
 import com.ethercis.dao.access.jooq.CompoXRefAccess;
 import com.ethercis.ehr.building.I_ContentBuilder;
@@ -38,6 +39,7 @@ import com.ethercis.servicemanager.cluster.I_Info;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.MetaBuilder;
+import com.ethercis.servicemanager.common.RequestBody;
 import com.ethercis.servicemanager.common.def.Constants;
 import com.ethercis.servicemanager.common.def.MethodName;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
@@ -55,7 +57,8 @@ import org.dom4j.Element;
 import org.jooq.exception.DataAccessException;
 import org.openehr.rm.composition.Composition;
 
-import java.io.StringReader;
+import java.sql.Connection;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -66,6 +69,7 @@ import java.util.UUID;
  * DELETE ../composition?uid=...[&committerName=....][&committerId=...]
  * POST ../composition?[templateId=...][&ehrId=...][&format=...][&committerName=...][&committerId=...] (body contains the serialized composition)
  * PUT ../composition?uid=...[templateId=...][&ehrId=...][&format=...][&committerName=...][&committerId=...] (body contains the serialized composition)
+ * POST ../composition/batch?[templateId=...][&ehrId=...][&format=...][&committerName=...][&committerId=...] (body contains one composition per line, see CompositionBatch)
  * ETHERCIS Project VirtualEhr
  * Created by Christian Chevalley on 7/3/2015.
  */
@@ -85,6 +89,7 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
     private I_SystemService systemService;
     private boolean useNamespaceInCompositionId = false;
     private boolean supportCompositionXRef = false; //if set to false, will not try to link compositions
+    private int batchChunkSize = 100; //number of compositions committed per transaction in a batch
 
     @Override
     public void doInit(RunTimeSingleton global, ServiceInfo serviceInfo) throws ServiceManagerException {
@@ -93,6 +98,7 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         //get the knowledge cache for composition handlers
         useNamespaceInCompositionId = global.getProperty().get("composition.uid.namespace", true);
         supportCompositionXRef = global.getProperty().get("composition.xref", false);
+        batchChunkSize = global.getProperty().get("composition.batch.chunk_size", 100);
 //        knowledgeCache = getRegisteredService(getGlobal(), "CacheKnowledgeService", "1.0");
 
         if (supportCompositionXRef)
@@ -138,24 +144,22 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
     })
     public Object create(I_SessionClientProperties props) throws Exception {
         queryProlog(props);
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
         String templateId = props.getClientProperty(I_CompositionService.TEMPLATE_ID, (String) null);
         String linkUidStr = props.getClientProperty(I_CompositionService.LINK_ID, (String) null);
         UUID linkUid = (linkUidStr != null) ? UUID.fromString(linkUidStr) : null;
         UUID ehrId = retrieveEhrId(sessionId, props);
 
-        UUID committerUuid = auditSetter.getCommitterUuid();
-        UUID systemUuid = auditSetter.getSystemUuid();
+        UUID committerUuid = getAuditSetter().getCommitterUuid();
+        UUID systemUuid = getAuditSetter().getSystemUuid();
 
         I_CompositionService.CompositionFormat format = I_CompositionService.CompositionFormat.valueOf(props.getClientProperty(I_CompositionService.FORMAT, "XML"));
 
         if ((format == CompositionFormat.FLAT || format == CompositionFormat.ECISFLAT) && (templateId == null || templateId.length() == 0))
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Template Id must be specified");
 
-        //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
-
-        if (content == null)
+        //get body stuff, the content is read according to the format
+        if (!RequestBody.hasContent(props))
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Content cannot be empty for a new composition");
 
         Integer contentLength = (Integer) props.getClientProperty(Constants.REQUEST_CONTENT_LENGTH, (Integer) 0);
@@ -170,27 +174,29 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         switch (format) {
             case XML:
                 I_CanonicalHandler canonicalHandler = new CanonicalHandler(getDataAccess(), templateId);
-                compositionId = canonicalHandler.storeComposition(ehrId, content, committerUuid, systemUuid, auditSetter.getDescription());
+                compositionId = canonicalHandler.storeComposition(ehrId, RequestBody.contentAsString(props), committerUuid, systemUuid, getAuditSetter().getDescription());
 
                 linkComposition(linkUid, compositionId);
+                notifyEhrChanged(ehrId);
                 //create an XML response
                 Document document = DocumentHelper.createDocument();
                 Element root = document.addElement("compositionCreateRestResponseData");
                 root.addElement("action").addText("CREATE");
                 root.addElement("compositionUid").addText(encodeUuid(compositionId, 1));
                 root.addElement("meta").addElement("href").addText(Constants.URI_TAG + "?" + encodeURI(null, compositionId, 1, null));
-                global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_XML);
+                props.getResponseDescriptor().setReturnType(MethodName.RETURN_XML);
                 return document;
 
 
             case ECISFLAT:
                 PvCompoHandler pvCompoHandler = new PvCompoHandler(this.getDataAccess(), templateId, null);
-                Map<String, Object> kvPairs = FlatJsonUtil.inputStream2Map(new StringReader(new String(content.getBytes())));
-                compositionId = pvCompoHandler.storeComposition(ehrId, kvPairs, committerUuid, systemUuid, auditSetter.getDescription());
+                Map<String, Object> kvPairs = FlatJsonUtil.inputStream2Map(RequestBody.contentAsReader(props));
+                compositionId = pvCompoHandler.storeComposition(ehrId, kvPairs, committerUuid, systemUuid, getAuditSetter().getDescription());
                 linkComposition(linkUid, compositionId);
+                notifyEhrChanged(ehrId);
 
                 //create json response
-                global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                 Map<String, Object> retmap = new HashMap<>();
                 retmap.put("action", "CREATE");
                 retmap.put(COMPOSITION_UID, encodeUuid(compositionId, 1));
@@ -200,11 +206,12 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
 
             case FLAT:
                 I_FlatJsonHandler flatJsonHandler = new FlatJsonHandler(getDataAccess(), templateId);
-                compositionId = flatJsonHandler.store(ehrId, content, committerUuid, systemUuid, auditSetter.getDescription());
+                compositionId = flatJsonHandler.store(ehrId, RequestBody.contentAsString(props), committerUuid, systemUuid, getAuditSetter().getDescription());
                 linkComposition(linkUid, compositionId);
+                notifyEhrChanged(ehrId);
 
                 //create json response
-                global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                 retmap = new HashMap<>();
                 retmap.put("action", "CREATE");
                 retmap.put(COMPOSITION_UID, encodeUuid(compositionId, 1));
@@ -218,6 +225,50 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         }
     }
 
+    /**
+     * commit a stream of compositions (NDJSON), the audit context is resolved once for the whole batch
+     * and the compositions are committed in chunks of composition.batch.chunk_size.<p>
+     * The result of each composition is streamed back once committed, see {@link CompositionBatch}
+     * @param props
+     * @return the streamed batch
+     * @throws Exception
+     */
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "create", path = "vehr/composition/batch", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "POST", method = "post", path = "rest/v1/composition/batch", responseType = ResponseType.Json)
+    })
+    public Object batch(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+        String sessionId = getAuditSetter().getSessionId();
+        String templateId = props.getClientProperty(I_CompositionService.TEMPLATE_ID, (String) null);
+        String linkUid = props.getClientProperty(I_CompositionService.LINK_ID, (String) null);
+        //the ehr id may also be given per composition
+        String ehrIdEncoded = props.getClientProperty(I_CompositionService.EHR_ID, (String) null);
+        UUID ehrId = ehrIdEncoded != null ? UUID.fromString(ehrIdEncoded) : getSessionEhrId(sessionId);
+
+        I_CompositionService.CompositionFormat format = I_CompositionService.CompositionFormat.valueOf(props.getClientProperty(I_CompositionService.FORMAT, "XML"));
+
+        if (!RequestBody.hasContent(props))
+            throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Content cannot be empty for a composition batch");
+
+        //the batch gets its own connection, the transactions are committed per chunk
+        I_DomainAccess domainAccess = getDataAccess();
+        Connection connection = domainAccess.getConnection();
+        I_DomainAccess batchAccess;
+        try {
+            batchAccess = I_DomainAccess.getInstance(domainAccess.getDataAccess());
+            batchAccess.getContext().configuration().set(connection);
+            connection.setAutoCommit(false);
+        } catch (Exception e) {
+            connection.close();
+            throw new ServiceManagerException(getGlobal(), SysErrorCode.RESOURCE_UNAVAILABLE, ME, "Could not open batch session:" + e);
+        }
+
+        return new CompositionBatch(this, batchAccess, connection, RequestBody.contentAsReader(props), batchChunkSize,
+                ehrId, templateId, format, linkUid,
+                getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription(), sessionKey());
+    }
+
     @QuerySetting(dialect = {
             @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "create", path = "vehr/composition", responseType = ResponseType.String),
             @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "GET", method = "get", path = "rest/v1/composition", responseType = ResponseType.String)
@@ -246,16 +297,17 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         Object retObj = null;
 
         //retrieve the composition
+        I_DomainAccess domainAccess = getReadDataAccess();
         I_CompositionAccess compositionAccess = null;
 
         if (version > 0)
-            compositionAccess = I_CompositionAccess.retrieveCompositionVersion(getDataAccess(), uid, version);
+            compositionAccess = I_CompositionAccess.retrieveCompositionVersion(domainAccess, uid, version);
         else {
             try {
-                compositionAccess = I_CompositionAccess.retrieveInstance2(getDataAccess(), uid);
-                if (compositionAccess == null && I_CompositionAccess.hasPreviousVersion(getDataAccess(), uid)) { //try to identify a previous version
+                compositionAccess = I_CompositionAccess.retrieveInstance2(domainAccess, uid);
+                if (compositionAccess == null && I_CompositionAccess.hasPreviousVersion(domainAccess, uid)) { //try to identify a previous version
                     //TODO: add life_cycle state to versions and return the first non deleted version id... right now it's always 1
-                    global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_NO_CONTENT);
+                    props.getResponseDescriptor().setReturnType(MethodName.RETURN_NO_CONTENT);
                     //build the relative part of the link to the existing last version
                     Map<String, Object> retMap = new HashMap<>();
                     retMap.put("Link", Constants.URI_TAG + "?" + encodeURI(null, uid, 2, format));
@@ -273,14 +325,22 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         if (compositionAccess == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Request did not give any result");
 
+        if (version > 0) {
+            //a composition version is immutable, no need to serialize it if the client holds it already. The check is
+            //done once retrieved, the retrieval enforces the access rights of the session (DB security role)
+            props.getResponseDescriptor().setETag(compositionId + "/" + format);
+            if (props.getResponseDescriptor().isNotModified())
+                return null;
+        }
+
         for (I_EntryAccess entryAccess : compositionAccess.getContent()) {
             switch (format) {
                 case XML:
-                    global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_XML);
+                    props.getResponseDescriptor().setReturnType(MethodName.RETURN_XML);
                     retObj = new String(I_ContentBuilder.exportCanonicalXML(entryAccess.getComposition()));
                     break;
                 case ECISFLAT:
-                    global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                    props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                     Map<String, Object> retmap = new HashMap<>();
                     retmap.put("format", CompositionFormat.ECISFLAT.toString());
                     retmap.put("templateId", entryAccess.getTemplateId());
@@ -292,7 +352,7 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
 
                 case FLAT:
                     I_FlatJsonCompositionConverter flatJsonCompositionConverter = FlatJsonCompositionConverter.getInstance(getDataAccess().getKnowledgeManager());
-                    global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                    props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                     retmap = new HashMap<>();
                     retmap.put("format", CompositionFormat.FLAT.toString());
                     retmap.put("templateId", entryAccess.getTemplateId());
@@ -303,7 +363,7 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
                     break;
 
                 case RAW:
-                    global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                    props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                     Composition composition = entryAccess.getComposition();
                     I_CompositionSerializer compositionSerializer = I_CompositionSerializer.getInstance(CompositionSerializer.WalkerOutputMode.RAW);
                     retmap = new HashMap<>();
@@ -330,7 +390,7 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
     })
     public Object update(I_SessionClientProperties props) throws Exception {
         queryProlog(props);
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
         String templateId = props.getClientProperty(I_CompositionService.TEMPLATE_ID, (String) null);
         String uidStr = props.getClientProperty(I_CompositionService.UID, (String) null);
         if (uidStr == null || uidStr.length() == 0)
@@ -347,10 +407,8 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
 
         I_CompositionService.CompositionFormat format = I_CompositionService.CompositionFormat.valueOf(props.getClientProperty(I_CompositionService.FORMAT, CompositionFormat.ECISFLAT.toString()));
 
-        //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
-
-        if (content == null)
+        //get body stuff, the content is read according to the format
+        if (!RequestBody.hasContent(props))
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Content cannot be empty for updating a composition");
 
 //        Integer contentLength = (Integer)props.getClientProperty(Constants.REQUEST_CONTENT_LENGTH, (Integer)0);
@@ -361,11 +419,12 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
 //        String contentType = props.getClientProperty(Constants.REQUEST_CONTENT_TYPE, "");
 
         Boolean result;
+        UUID ehrId = null; //not identified for XML updates
 
         switch (format) {
             case XML:
                 CanonicalHandler canonicalHandler = new CanonicalHandler(getDataAccess(), templateId);
-                result = canonicalHandler.update(getDataAccess(), compositionId, content, auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+                result = canonicalHandler.update(getDataAccess(), compositionId, RequestBody.contentAsString(props), getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
                 break;
 
             case ECISFLAT:
@@ -377,11 +436,12 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
                 PvCompoHandler pvCompoHandler = new PvCompoHandler(this.getDataAccess(), compositionAccess, "*", null); //template id is not required
                 Map<String, Object> kvPairs;
                 try {
-                    kvPairs = FlatJsonUtil.inputStream2Map(new StringReader(new String(content.getBytes())));
+                    kvPairs = FlatJsonUtil.inputStream2Map(RequestBody.contentAsReader(props));
                 } catch (Exception e) {
                     throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Error interpreting JSON in content:" + e);
                 }
-                result = pvCompoHandler.updateComposition(kvPairs, auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+                result = pvCompoHandler.updateComposition(kvPairs, getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
+                ehrId = compositionAccess.getEhrid();
                 break;
 
             case FLAT:
@@ -391,7 +451,8 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
 
                 //get the template id
                 I_FlatJsonHandler flatJsonHandler = new FlatJsonHandler(getDataAccess(), compositionAccess, null, null);
-                result = flatJsonHandler.update(getDataAccess(), compositionId, new String(content.getBytes()), auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+                result = flatJsonHandler.update(getDataAccess(), compositionId, RequestBody.contentAsString(props), getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
+                ehrId = compositionAccess.getEhrid();
                 break;
 
             default:
@@ -403,6 +464,8 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         if (!result)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Update failed on composition:" + compositionId);
 
+        notifyEhrChanged(ehrId);
+
         Map<String, Object> retmap = new HashMap<>();
         retmap.put("action", result ? "UPDATED" : "FAILED");
         //get the composition uid with the right version number
@@ -424,18 +487,20 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "A valid composition id must be supplied");
 
         UUID compositionId = getCompositionUid(uidStr);
-        auditSetter.handleProperties(getDataAccess(), props);
-        String sessionId = auditSetter.getSessionId();
+        getAuditSetter().handleProperties(getDataAccess(), props);
+        String sessionId = getAuditSetter().getSessionId();
 
         I_CompositionAccess compositionAccess = I_CompositionAccess.retrieveInstance(getDataAccess(), compositionId);
         if (compositionAccess == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.RESOURCE_NOT_FOUND, ME, "Could not find composition:" + compositionId);
 
-        Integer result = compositionAccess.delete(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+        Integer result = compositionAccess.delete(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
 
         if (result <= 0)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Delete failed on composition:" + compositionAccess.getId());
 
+        notifyEhrChanged(compositionAccess.getEhrid());
+
         Map<String, Object> retmap = new HashMap<>();
         retmap.put("action", result > 0 ? "DELETED" : "FAILED");
         retmap.put(COMPOSITION_UID, encodeUuid(compositionId, 1));
@@ -444,7 +509,17 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
         return retmap;
     }
 
-    private String encodeUuid(UUID uuid, int version) {
+    /**
+     * notify the EHRs modified by a batch chunk once it is committed
+     * @param ehrIds
+     * @param sessionKey the session of the batch request, the chunk is committed after the invocation
+     */
+    void batchCommitted(Collection<UUID> ehrIds, String sessionKey) {
+        for (UUID ehrId : ehrIds)
+            notifyEhrChanged(ehrId, sessionKey);
+    }
+
+    String encodeUuid(UUID uuid, int version) {
         if (useNamespaceInCompositionId)
             return uuid + "::" + getDataAccess().getServerNodeId() + "::" + version;
         else
@@ -490,11 +565,15 @@ public class CompositionService extends ServiceDataCluster implements I_Composit
     }
 
     private void linkComposition(UUID master, UUID child) {
+        linkComposition(getDataAccess(), master, child);
+    }
+
+    void linkComposition(I_DomainAccess domainAccess, UUID master, UUID child) {
         if (!supportCompositionXRef)
             return;
         if (master == null || child == null)
             return;
-        I_CompoXrefAccess compoXrefAccess = new CompoXRefAccess(getDataAccess());
+        I_CompoXrefAccess compoXrefAccess = new CompoXRefAccess(domainAccess);
         compoXrefAccess.setLink(master, child);
     }
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.compositionservice;
+
+import com.ethercis.compositionservice.I_CompositionService.CompositionFormat;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public class CompositionBatchTest extends TestCase {
+
+    private static final UUID EHR_ID = new UUID(0, 1);
+
+    private final List<String> calls = new ArrayList<>();
+    private final List<UUID> committedEhrs = new ArrayList<>();
+    private boolean failCommit = false;
+    private int savepoints = 0;
+
+    private Connection newFakeConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setSavepoint":
+                    String name = "sp" + (++savepoints);
+                    calls.add("setSavepoint " + name);
+                    return newSavepoint(name);
+                case "releaseSavepoint":
+                    calls.add("releaseSavepoint " + ((Savepoint) args[0]).getSavepointName());
+                    return null;
+                case "rollback":
+                    calls.add(args == null ? "rollback" : "rollback " + ((Savepoint) args[0]).getSavepointName());
+                    return null;
+                case "commit":
+                    calls.add("commit");
+                    if (failCommit)
+                        throw new SQLException("could not serialize access");
+                    return null;
+                case "setAutoCommit":
+                    calls.add("setAutoCommit " + args[0]);
+                    return null;
+                case "close":
+                    calls.add("close");
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Savepoint newSavepoint(String name) {
+        return (Savepoint) Proxy.newProxyInstance(Savepoint.class.getClassLoader(), new Class<?>[]{Savepoint.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getSavepointName"))
+                return name;
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * a batch storing the compositions holding "ok":true, any other composition fails
+     */
+    private CompositionBatch newBatch(String content, int chunkSize) {
+        CompositionService service = new CompositionService() {
+            @Override
+            void batchCommitted(Collection<UUID> ehrIds, String sessionKey) {
+                committedEhrs.addAll(ehrIds);
+            }
+        };
+        return new CompositionBatch(service, null, newFakeConnection(), new StringReader(content), chunkSize,
+                EHR_ID, "template", CompositionFormat.FLAT, null, null, null, null, "session") {
+            @Override
+            Committer committer(CompositionFormat format, String templateId) {
+                return (ehrId, composition) -> {
+                    if (!composition.getAsJsonObject().has("ok"))
+                        throw new IllegalArgumentException("Invalid composition");
+                    return new UUID(1, savepoints);
+                };
+            }
+        };
+    }
+
+    private List<JsonObject> write(CompositionBatch batch) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        List<JsonObject> results = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"))
+            results.add(new JsonParser().parse(line).getAsJsonObject());
+        return results;
+    }
+
+    private static String action(JsonElement result) {
+        return result.getAsJsonObject().get("action").getAsString();
+    }
+
+    public void testFailingLineRolledBackToSavepoint() throws Exception {
+        String content = "{\"composition\":{\"ok\":true}}\n" +
+                "{\"composition\":{}}\n" +
+                "\n" +
+                "{\"composition\":{\"ok\":true}}\n" +
+                "not json\n";
+
+        List<JsonObject> results = write(newBatch(content, 2));
+
+        assertEquals("[setSavepoint sp1, releaseSavepoint sp1, setSavepoint sp2, rollback sp2, commit, " +
+                "setSavepoint sp3, releaseSavepoint sp3, setSavepoint sp4, rollback sp4, commit, " +
+                "rollback, setAutoCommit true, close]", calls.toString());
+
+        assertEquals(5, results.size());
+        assertEquals("CREATE", action(results.get(0)));
+        assertEquals(1, results.get(0).get("line").getAsInt());
+        assertEquals("FAILED", action(results.get(1)));
+        assertEquals("Invalid composition", results.get(1).get("error").getAsString());
+        assertEquals("CREATE", action(results.get(2)));
+        assertEquals(4, results.get(2).get("line").getAsInt()); //blank line skipped
+        assertEquals("FAILED", action(results.get(3)));
+        assertEquals("SUMMARY", action(results.get(4)));
+        assertEquals(2, results.get(4).get("created").getAsInt());
+        assertEquals(2, results.get(4).get("failed").getAsInt());
+
+        assertEquals(2, committedEhrs.size());
+        assertEquals(EHR_ID, committedEhrs.get(0));
+    }
+
+    public void testChunkCommitFailure() throws Exception {
+        failCommit = true;
+        String content = "{\"composition\":{\"ok\":true}}\n" +
+                "{\"composition\":{}}\n";
+
+        List<JsonObject> results = write(newBatch(content, 10));
+
+        assertEquals("[setSavepoint sp1, releaseSavepoint sp1, setSavepoint sp2, rollback sp2, commit, rollback, " +
+                "rollback, setAutoCommit true, close]", calls.toString());
+
+        assertEquals("FAILED", action(results.get(0)));
+        assertFalse(results.get(0).has(I_CompositionService.COMPOSITION_UID));
+        assertTrue(results.get(0).get("error").getAsString().startsWith("Chunk commit failed"));
+        assertEquals("FAILED", action(results.get(1)));
+        assertEquals(0, results.get(2).get("created").getAsInt());
+        assertEquals(2, results.get(2).get("failed").getAsInt());
+        assertTrue(committedEhrs.isEmpty());
+    }
+
+    public void testClosedWhenNotWritten() {
+        CompositionBatch batch = newBatch("{\"composition\":{\"ok\":true}}\n", 10);
+        batch.close();
+        batch.close();
+        assertEquals("[rollback, setAutoCommit true, close]", calls.toString());
+    }
+}
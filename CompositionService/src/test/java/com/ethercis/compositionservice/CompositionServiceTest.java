@@ -18,6 +18,7 @@
 
 package com.ethercis.compositionservice;
 
+import com.ethercis.persistence.InvocationContext;
 import com.ethercis.servicemanager.cluster.ClusterInfo;
 import com.ethercis.servicemanager.common.SessionClientProperties;
 import com.ethercis.servicemanager.service.test.TestServiceBase;
@@ -53,9 +54,12 @@ public class CompositionServiceTest extends TestServiceBase {
         sessionClientProperties.addClientProperty("x-bypass-credential", "true");
         sessionClientProperties.addClientProperty("x-client-ip", "localhost");
 
-        Object retval = compositionService.retrieve(sessionClientProperties);
+        //invoked outside the dispatcher
+        try (InvocationContext ignored = InvocationContext.open()) {
+            Object retval = compositionService.retrieve(sessionClientProperties);
 
-        assertNotNull(retval);
+            assertNotNull(retval);
+        }
 
     }
 }
\ No newline at end of file
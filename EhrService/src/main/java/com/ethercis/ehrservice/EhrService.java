@@ -32,6 +32,7 @@ import com.ethercis.servicemanager.cluster.I_Info;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.MetaBuilder;
+import com.ethercis.servicemanager.common.RequestBody;
 import com.ethercis.servicemanager.common.def.Constants;
 import com.ethercis.servicemanager.common.def.MethodName;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
@@ -94,7 +95,9 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Specified party has already an EHR set (partyId=" + partyId + ")");
 
         I_EhrAccess ehrAccess = I_EhrAccess.getInstance(getDataAccess(), partyId, systemId, null, null);
-        return ehrAccess.commit(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+        UUID ehrId = ehrAccess.commit(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
+        notifyEhrChanged(ehrId); //read-your-writes: the new EHR is not yet on the replicas
+        return ehrId;
     }
 
     @Override
@@ -122,7 +125,9 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
             other_details.put(CompositionSerializer.TAG_OTHER_DETAILS.substring(1), otherDetails);
             ehrAccess.setOtherDetails(other_details, null);
         }
-        return ehrAccess.commit(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+        UUID ehrId = ehrAccess.commit(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
+        notifyEhrChanged(ehrId); //read-your-writes: the new EHR is not yet on the replicas
+        return ehrId;
     }
 
     @Override
@@ -154,7 +159,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
         queryProlog(props);
         String subjectId = props.getClientProperty(I_EhrService.SUBJECTID_PARAMETER, (String) null);
         String nameSpace = props.getClientProperty(I_EhrService.SUBJECTNAMESPACE_PARAMETER, (String) null);
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
         I_CompositionService.CompositionFormat format = I_CompositionService.CompositionFormat.valueOf(props.getClientProperty(I_CompositionService.FORMAT, "XML"));
 
 
@@ -176,13 +181,14 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
         GsonBuilder gsonBuilder = EncodeUtil.getGsonBuilderInstance();
         Gson gson = gsonBuilder.setPrettyPrinting().create();
 
-        I_EhrAccess ehrAccess = I_EhrAccess.retrieveInstance(getDataAccess(), ehrUuid);
+        I_DomainAccess domainAccess = getReadDataAccess();
+        I_EhrAccess ehrAccess = I_EhrAccess.retrieveInstance(domainAccess, ehrUuid);
         if (ehrAccess == null) {
             throw new ServiceManagerException(getGlobal(), SysErrorCode.RESOURCE_NOT_FOUND, ME, "Invalid or null ehrId");
         }
 
-        Map<String, Object> subjectIds = I_EhrAccess.fetchSubjectIdentifiers(getDataAccess(), ehrUuid);
-        I_SystemAccess systemAccess = I_SystemAccess.retrieveInstance(getDataAccess(), ehrAccess.getSystemId());
+        Map<String, Object> subjectIds = I_EhrAccess.fetchSubjectIdentifiers(domainAccess, ehrUuid);
+        I_SystemAccess systemAccess = I_SystemAccess.retrieveInstance(domainAccess, ehrAccess.getSystemId());
 
         HashMap statusMap = new HashMap() {{
             put(SUBJECT_IDS, subjectIds);
@@ -235,7 +241,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
         I_CompositionService.CompositionFormat format = I_CompositionService.CompositionFormat.valueOf(props.getClientProperty(I_CompositionService.FORMAT, "XML"));
 
 
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
 
         if (ehrUuid == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Invalid or null ehrId");
@@ -257,7 +263,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
         String systemSettings = props.getClientProperty(SYSTEM_SETTINGS, (String) null);
 
         //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        String content = RequestBody.contentAsString(props);
 
         Object otherDetails = null;
         String otherDetailsTemplateId = null;
@@ -270,7 +276,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
             otherDetailsTemplateId = (String) atributes.getOrDefault(OTHER_DETAILS_TEMPLATE_ID, null);
         }
 
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
 
         if (subjectIdCode == null || subjectNameSpace == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Invalid or missing user id or namespace in query");
@@ -320,14 +326,14 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
     })
     public Object updateStatus(I_SessionClientProperties props) throws Exception {
         queryProlog(props);
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
         UUID ehrId = UUID.fromString(props.getClientProperty(I_EhrService.EHRID_PARAMETER, (String) null));
 
         if (ehrId == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "No valid ehr Id parameter found in query");
 
         //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        String content = RequestBody.contentAsString(props);
 
         if (content == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Content cannot be empty for updating ehr status");
@@ -351,7 +357,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
                 //do other_details stuff
                 Locatable itemStructure = I_ContentBuilder.parseOtherDetailsXml(new ByteArrayInputStream(otherDetailsXml.getBytes()));
                 ehrAccess.setOtherDetails(itemStructure, otherDetailsTemplateId);
-                ehrAccess.update(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, auditSetter.getDescription(), true);
+                ehrAccess.update(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, getAuditSetter().getDescription(), true);
             } else if (format.equals(I_CompositionService.CompositionFormat.RAW)) {
                 Gson json = new GsonBuilder().create();
                 Map<String, Object> attributes = json.fromJson(content, Map.class);
@@ -361,7 +367,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
                 String otherDetailsTemplateId = (String) attributes.getOrDefault(OTHER_DETAILS_TEMPLATE_ID, null);
                 //do other_details stuff
                 ehrAccess.setOtherDetails(serialized, otherDetailsTemplateId);
-                ehrAccess.update(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, auditSetter.getDescription(), true);
+                ehrAccess.update(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, getAuditSetter().getDescription(), true);
 
             } else {
                 throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "format for other_details is not supported:" + format);
@@ -403,8 +409,9 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
 
                 }
             }
-            ehrAccess.update(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, auditSetter.getDescription());
+            ehrAccess.update(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), null, I_ConceptAccess.ContributionChangeType.modification, getAuditSetter().getDescription());
         }
+        notifyEhrChanged(ehrId);
 
         Map<String, Object> retmap = new HashMap<>();
         retmap.put(I_EhrService.EHRID_PARAMETER, ehrId.toString());
@@ -451,13 +458,14 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
         Integer result = 0;
 
         try {
-            result = ehrAccess.delete(auditSetter.getCommitterUuid(), auditSetter.getSystemUuid(), auditSetter.getDescription());
+            result = ehrAccess.delete(getAuditSetter().getCommitterUuid(), getAuditSetter().getSystemUuid(), getAuditSetter().getDescription());
 
         } catch (Exception e) {
             throw new ServiceManagerException(getGlobal(), SysErrorCode.RESOURCE_UNAVAILABLE, ME, "Problem accessing DB" + e.getMessage());
         }
 
         if (result > 0) {
+            notifyEhrChanged(ehrUuid);
             Map<String, Object> retmap = new HashMap<>();
             retmap.put(I_EhrService.EHRID_PARAMETER, ehrId.toString());
             retmap.put("action", "DELETE");
@@ -466,7 +474,7 @@ public class EhrService extends ServiceDataCluster implements I_EhrService, EhrS
             return retmap;
         }
         else {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_NO_CONTENT);
+            props.getResponseDescriptor().setReturnType(MethodName.RETURN_NO_CONTENT);
             //build the relative part of the link to the existing last version
             Map<String, Object> retMap = new HashMap<>();
             retMap.put("Reason", "Delete ehrId failed");
@@ -32,6 +32,7 @@ import com.ethercis.servicemanager.cluster.ClusterInfo;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.MetaBuilder;
+import com.ethercis.servicemanager.common.RequestBody;
 import com.ethercis.servicemanager.common.def.Constants;
 import com.ethercis.servicemanager.common.def.MethodName;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
@@ -143,7 +144,7 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
         try {
             Map retmap = this.getKnowledgeCache().listOperationalTemplates();
             if (retmap.size() == 0){
-                global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, ""+MethodName.RETURN_NO_CONTENT);
+                props.getResponseDescriptor().setReturnType(MethodName.RETURN_NO_CONTENT);
                 //build the relative part of the link to the existing last version
                 Map<String, Object> retMap = new HashMap<>();
                 retMap.put("Reason", "No templates");
@@ -201,14 +202,14 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
 
                 switch (format) {
                     case "XML":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, ""+MethodName.RETURN_XML);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_XML);
                         byte[] exportXml = contentBuilder.exportCanonicalXML((Composition) generated, true, true);
                         if (exportXml == null)
                             throw new ServiceManagerException(global, SysErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "Could not export an example for template Id:" + templateId);
                         retObj = new String (exportXml);
                         break;
                     case "ECISFLAT":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, ""+MethodName.RETURN_STRING);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_STRING);
                         Map<String, String> testRetMap = new EcisFlattener(true).render((Composition) generated);
                         GsonBuilder builder = new GsonBuilder();
                         Gson gson = builder.setPrettyPrinting().disableHtmlEscaping().create();
@@ -216,7 +217,7 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
                         retObj = jsonString;
                         break;
                     case "EXPANDED":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, ""+MethodName.RETURN_STRING);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_STRING);
                         testRetMap = new EcisFlattener(true).render((Composition) generated);
                         builder = new GsonBuilder();
                         gson = builder.setPrettyPrinting().disableHtmlEscaping().create();
@@ -224,7 +225,7 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
                         retObj = jsonString;
                         break;
                     case "FLAT":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, ""+MethodName.RETURN_STRING);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_STRING);
                         I_FlatJsonCompositionConverter flatJsonCompositionConverter = FlatJsonCompositionConverter.getInstance(cache);
                         Map<String, Object> retMap = flatJsonCompositionConverter.fromComposition(templateId, (Composition)generated, true);
                         jsonString = JsonUtil.toJsonString(retMap);
@@ -234,14 +235,14 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
             } else if (generated instanceof Locatable) {
                 switch (format) {
                     case "XML":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_XML);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_XML);
                         byte[] exportXml = contentBuilder.exportCanonicalXML((Locatable) generated, true, true);
                         if (exportXml == null)
                             throw new ServiceManagerException(global, SysErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "Could not export an example for template Id:" + templateId);
                         retObj = new String(exportXml);
                         break;
                     case "ECISFLAT":
-                        global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_JSON);
+                        props.getResponseDescriptor().setReturnType(MethodName.RETURN_JSON);
                         Map<String, String> testRetMap = new EcisFlattener(true).render((Locatable) generated);
 
                         GsonBuilder builder = new GsonBuilder();
@@ -277,6 +278,13 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
         try {
             OPERATIONALTEMPLATE operationaltemplate = (OPERATIONALTEMPLATE) this.getKnowledgeCache().retrieveTemplate(templateId);
 
+            //a template is immutable for a given uid
+            if (operationaltemplate.getUid() != null && operationaltemplate.getUid().getValue() != null) {
+                props.getResponseDescriptor().setETag("webtemplate/" + operationaltemplate.getUid().getValue());
+                if (props.getResponseDescriptor().isNotModified())
+                    return null;
+            }
+
             retObj = new OptVisitor().traverse(operationaltemplate);
 
         } catch (Exception e){
@@ -295,7 +303,7 @@ public class CacheKnowledgeService extends ClusterInfo implements I_CacheKnowled
     public Object create(I_SessionClientProperties props) throws Exception {
 
         //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        String content = RequestBody.contentAsString(props);
 
         String templateId;
         try {
@@ -74,7 +74,9 @@ public class PartyIdentifiedService extends ServiceDataCluster implements I_Part
 
     @Override
     public Integer deleteParty(UUID id){
-        return I_PartyIdentifiedAccess.deleteInstance(getDataAccess(), id);
+        Integer deleted = I_PartyIdentifiedAccess.deleteInstance(getDataAccess(), id);
+        notifyPartyDeleted(id);
+        return deleted;
     }
 
     @QuerySetting(dialect = {
@@ -85,7 +87,9 @@ public class PartyIdentifiedService extends ServiceDataCluster implements I_Part
     public Integer delete(I_SessionClientProperties props) throws ServiceManagerException {
         queryProlog(props);
         UUID uuid = UUID.fromString(props.getClientProperty("id", ""));
-        return I_PartyIdentifiedAccess.deleteInstance(getDataAccess(), uuid);
+        Integer deleted = I_PartyIdentifiedAccess.deleteInstance(getDataAccess(), uuid);
+        notifyPartyDeleted(uuid);
+        return deleted;
     }
 
     @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parallel execution of AQL queries over a cohort of EHRs<p>
+ * A query restricted to an explicit list of EHRs (e/ehr_id/value matches {'...', '...'}) is split into partitions,
+ * each partition being the same query on a subset of the list. The partitions are performed concurrently, each on
+ * its own pooled connection, and their rows are concatenated in partition order.<p>
+ * Only queries whose result is the union of the results of the partitions are split: queries with OR, NOT or
+ * inequalities (see {@link QueryResultCache#referencedEhrs(String)}), ORDER BY, TOP, LIMIT, OFFSET, DISTINCT or
+ * aggregate functions are performed as a whole.
+ */
+class AqlFanOut {
+
+    /**
+     * perform an AQL query
+     */
+    interface Engine {
+        Map<String, Object> query(String aql) throws Exception;
+    }
+
+    private static final Pattern EHR_LIST = Pattern.compile("ehr_id/value\\s*matches\\s*\\{([^}]*)\\}", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UUID_LITERAL = Pattern.compile("'[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}'");
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    //clauses whose result cannot be obtained by concatenating the results of the partitions
+    private static final Pattern NOT_PARTITIONABLE = Pattern.compile("\\b(order\\s+by|top|limit|offset|distinct|count|min|max|avg|sum)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final int threads;
+    private final int minEhrs;
+    private final ExecutorService executor;
+    private final LongAdder fannedOut = new LongAdder();
+
+    /**
+     * @param threads number of partitions performed concurrently, less than 2 disables the fan out
+     * @param minEhrs minimum number of EHRs per partition
+     */
+    AqlFanOut(int threads, int minEhrs) {
+        this.threads = threads;
+        this.minEhrs = Math.max(1, minEhrs);
+        if (threads > 1) {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "QueryFanOut-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else
+            this.executor = null;
+    }
+
+    boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * split a query on its list of EHRs
+     * @param aql the normalized and bound expression
+     * @param maxPartitions
+     * @param minEhrs minimum number of EHRs per partition
+     * @return the expression of each partition, null if the query cannot or need not be split
+     */
+    static List<String> partition(String aql, int maxPartitions, int minEhrs) {
+        if (QueryResultCache.referencedEhrs(aql) == null)
+            return null;
+        if (NOT_PARTITIONABLE.matcher(LITERAL.matcher(aql).replaceAll("''")).find())
+            return null;
+
+        Matcher list = EHR_LIST.matcher(aql);
+        if (!list.find())
+            return null;
+        int start = list.start(1);
+        int end = list.end(1);
+        if (list.find()) //several lists, the partitions would not be disjoint
+            return null;
+
+        //a repeated id would be queried in two partitions and its rows returned twice
+        Set<String> distinctIds = new LinkedHashSet<>();
+        Matcher literal = UUID_LITERAL.matcher(aql.substring(start, end));
+        while (literal.find())
+            distinctIds.add(literal.group());
+        List<String> ehrIds = new ArrayList<>(distinctIds);
+
+        int partitions = Math.min(maxPartitions, ehrIds.size() / minEhrs);
+        if (partitions < 2)
+            return null;
+
+        //EHRs are dealt round robin so that the partitions have the same size
+        List<StringJoiner> chunks = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++)
+            chunks.add(new StringJoiner(", "));
+        for (int i = 0; i < ehrIds.size(); i++)
+            chunks.get(i % partitions).add(ehrIds.get(i));
+
+        List<String> queries = new ArrayList<>(partitions);
+        for (StringJoiner chunk : chunks)
+            queries.add(aql.substring(0, start) + chunk + aql.substring(end));
+        return queries;
+    }
+
+    /**
+     * perform a query, split on its EHRs if possible
+     * @param aql the normalized and bound expression
+     * @param engine
+     * @return the result, the rows of the partitions are concatenated
+     * @throws Exception the first exception thrown by a partition, the others are cancelled
+     */
+    Map<String, Object> query(String aql, Engine engine) throws Exception {
+        List<String> partitions = isEnabled() ? partition(aql, threads, minEhrs) : null;
+        if (partitions == null)
+            return engine.query(aql);
+
+        fannedOut.increment();
+        List<Future<Map<String, Object>>> futures = new ArrayList<>(partitions.size());
+        try {
+            for (String partition : partitions)
+                futures.add(executor.submit(() -> engine.query(partition)));
+
+            Map<String, Object> merged = null;
+            List<Object> rows = new ArrayList<>();
+            for (Future<Map<String, Object>> future : futures) {
+                Map<String, Object> result = future.get();
+                if (merged == null)
+                    merged = new HashMap<>(result);
+                Object resultSet = result.get("resultSet");
+                if (resultSet instanceof List)
+                    rows.addAll((List<?>) resultSet);
+            }
+            merged.put("resultSet", rows);
+            if (merged.containsKey("executedAQL"))
+                merged.put("executedAQL", aql);
+            return merged;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            for (Future<Map<String, Object>> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    long getFannedOut() {
+        return fannedOut.sum();
+    }
+
+    void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of AQL translations keyed on the normalized query text<p>
+ * Two queries differing only by their layout (spaces, line breaks, trailing semicolon) share the same entry, string
+ * literals are kept as is. The cache must be invalidated when the knowledge cache is reloaded since the translation
+ * depends on the templates.<p>
+ * The query engine translates AQL text only, query parameters are substituted before the lookup: an entry holds the
+ * translation of a bound query, not of its template.
+ */
+class AqlPlanCache {
+
+    /**
+     * translate an AQL expression
+     */
+    interface Compiler {
+        Map<String, Object> compile(String aql) throws Exception;
+    }
+
+    private final int maxSize;
+    private final Map<String, Map<String, Object>> plans;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of plans, 0 disables the cache
+     */
+    AqlPlanCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.plans = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * normalize an AQL expression: white spaces outside literals are collapsed, the expression is trimmed and a
+     * trailing semicolon is removed
+     * @param aql
+     * @return the normalized expression
+     */
+    static String normalize(String aql) {
+        StringBuilder sb = new StringBuilder(aql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < aql.length(); i++) {
+            char c = aql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote)
+                    quote = 0;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (c == '\'' || c == '"')
+                quote = c;
+            sb.append(c);
+        }
+        int length = sb.length();
+        if (length > 0 && sb.charAt(length - 1) == ';')
+            sb.setLength(length - 1);
+        return sb.toString().trim();
+    }
+
+    /**
+     * get the plan of a normalized expression, compile it if not cached
+     * @param normalizedAql the expression returned by {@link #normalize(String)}
+     * @param compiler the translation if the plan is not cached
+     * @return the plan (unmodifiable)
+     * @throws Exception thrown by the compiler
+     */
+    Map<String, Object> get(String normalizedAql, Compiler compiler) throws Exception {
+        if (maxSize <= 0) {
+            misses.increment();
+            return compiler.compile(normalizedAql);
+        }
+
+        Map<String, Object> plan;
+        synchronized (plans) {
+            plan = plans.get(normalizedAql);
+        }
+        if (plan != null) {
+            hits.increment();
+            return plan;
+        }
+
+        //translated outside the lock, a concurrent translation of the same expression gives the same plan
+        misses.increment();
+        plan = Collections.unmodifiableMap(compiler.compile(normalizedAql));
+        synchronized (plans) {
+            plans.put(normalizedAql, plan);
+        }
+        return plan;
+    }
+
+    void invalidate() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+}
@@ -23,4 +23,10 @@ package com.ethercis.query;
  */
 public interface I_QueryService {
     String EXPLAIN = "explain";
+    String STREAM = "stream"; //stream the result: json or ndjson
+    String FETCH = "fetch"; //page size, the remaining rows are kept in a cursor
+    String CONTINUATION = "continuation"; //token identifying an open cursor
+    String JOB_ID = "jobId"; //asynchronous query job
+    String WAIT = "wait"; //long poll of a job status in seconds
+    String OFFSET = "offset"; //first row of a job result page
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.I_Timeout;
+import com.ethercis.servicemanager.common.TimeStamp;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
+import org.jooq.Field;
+import org.jooq.Record;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Open query result paged by the client<p>
+ * A SQL query keeps its JDBC cursor open on a dedicated connection, the rows are read from the database page by
+ * page. An AQL result is built by the query engine, its rows are handed over page by page and released once sent.
+ * The cursor is closed when its last row is read, when the client closes it or when it is not used during the
+ * registry timeout.
+ */
+class QueryCursor implements I_Timeout {
+
+    private static Logger log = LogManager.getLogger(QueryCursor.class);
+    private static final Gson gson = new Gson();
+
+    private final String id;
+    private final UUID owner;
+    private QueryCursorRegistry registry;
+    private TimeStamp timerKey;
+    private boolean closed = false;
+
+    //SQL query
+    private final Connection connection;
+    private final Cursor<Record> cursor;
+    private final Field<?>[] fields;
+    private final String[] columnTypes;
+
+    //AQL result
+    private final ListIterator<Object> rows;
+
+    private QueryCursor(UUID owner, Connection connection, Cursor<Record> cursor, String[] columnTypes, ListIterator<Object> rows) {
+        this.id = UUID.randomUUID().toString();
+        this.owner = owner;
+        this.connection = connection;
+        this.cursor = cursor;
+        this.fields = cursor == null ? null : cursor.fields();
+        this.columnTypes = columnTypes;
+        this.rows = rows;
+    }
+
+    /**
+     * a cursor reading a SQL query result from the database
+     * @param owner the committer owning the cursor
+     * @param connection the connection dedicated to the cursor, closed with the cursor
+     * @param cursor an open cursor, fetched with a fetch size in a transaction
+     * @throws SQLException
+     */
+    static QueryCursor ofQuery(UUID owner, Connection connection, Cursor<Record> cursor) throws SQLException {
+        return new QueryCursor(owner, connection, cursor, QueryResultStream.columnTypes(cursor), null);
+    }
+
+    /**
+     * a cursor on the rows of a result built by the query engine
+     * @param owner the committer owning the cursor
+     * @param rows the result rows, released as they are fetched
+     */
+    static QueryCursor ofRows(UUID owner, List<Object> rows) {
+        return new QueryCursor(owner, null, null, null, rows.listIterator());
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isOwner(UUID committer) {
+        return owner == null || owner.equals(committer);
+    }
+
+    synchronized void register(QueryCursorRegistry registry, long timeout) {
+        this.registry = registry;
+        this.timerKey = registry.getTimer().addTimeoutListener(this, timeout, null);
+    }
+
+    /**
+     * restart the inactivity timer
+     * @param timeout
+     */
+    synchronized void touch(long timeout) {
+        if (closed || registry == null)
+            return;
+        registry.getTimer().removeTimeoutListener(timerKey);
+        timerKey = registry.getTimer().addTimeoutListener(this, timeout, null);
+    }
+
+    /**
+     * read the next rows
+     * @param size the maximum number of rows
+     * @return the rows, empty if the cursor is exhausted or closed
+     */
+    synchronized List<Object> fetch(int size) {
+        List<Object> page = new ArrayList<>(Math.min(size, 1024));
+        if (closed)
+            return page;
+
+        if (cursor != null) {
+            while (page.size() < size && cursor.hasNext())
+                page.add(toMap(cursor.fetchOne()));
+        } else {
+            while (page.size() < size && rows.hasNext()) {
+                page.add(rows.next());
+                rows.set(null);
+            }
+        }
+        return page;
+    }
+
+    synchronized boolean hasMore() {
+        if (closed)
+            return false;
+        return cursor != null ? cursor.hasNext() : rows.hasNext();
+    }
+
+    /**
+     * close the cursor and give back its connection, the cursor is removed from its registry
+     */
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        if (registry != null) {
+            registry.getTimer().removeTimeoutListener(timerKey);
+            registry.remove(id);
+        }
+
+        if (cursor != null) {
+            try {
+                cursor.close();
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (Exception e) {
+                log.warn("Could not reset cursor connection:" + e);
+            } finally {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("Could not close cursor connection:" + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * the cursor has not been used during the registry timeout
+     * @param userData
+     */
+    @Override
+    public void timeout(Object userData) {
+        log.debug("Query cursor expired:" + id);
+        synchronized (this) {
+            timerKey = null;
+        }
+        close();
+    }
+
+    private Map<String, Object> toMap(Record record) {
+        return toMap(fields, columnTypes, record);
+    }
+
+    /**
+     * convert a record into a result row, json columns are parsed
+     * @param fields the fields of the record
+     * @param columnTypes the database type names of the fields
+     * @param record
+     * @return the row
+     */
+    static Map<String, Object> toMap(Field<?>[] fields, String[] columnTypes, Record record) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            Object value = record.getValue(i);
+            if (value != null && !(value instanceof Number) && !(value instanceof Boolean)) {
+                if (QueryResultStream.isJson(columnTypes[i]))
+                    value = gson.fromJson(value.toString(), Object.class);
+                else
+                    value = value.toString();
+            }
+            row.put(fields[i].getName(), value);
+        }
+        return row;
+    }
+}
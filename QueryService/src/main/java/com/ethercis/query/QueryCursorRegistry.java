@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.Timeout;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded registry of the query cursors open by the clients<p>
+ * A cursor is identified by a random continuation token. It expires if it is not used within the timeout, and
+ * no more than maxCursors can be open at a time (each SQL cursor holds a database connection).
+ */
+class QueryCursorRegistry {
+
+    private final Map<String, QueryCursor> cursors = new ConcurrentHashMap<>();
+    private final Timeout timer = new Timeout("QueryCursorTimer");
+    private final int maxCursors;
+    private final long timeout;
+
+    /**
+     * @param maxCursors maximum number of open cursors
+     * @param timeout inactivity timeout in milliseconds
+     */
+    QueryCursorRegistry(int maxCursors, long timeout) {
+        this.maxCursors = maxCursors;
+        this.timeout = timeout;
+    }
+
+    Timeout getTimer() {
+        return timer;
+    }
+
+    /**
+     * register an open cursor
+     * @param cursor
+     * @return the continuation token
+     * @throws IllegalStateException if the maximum number of cursors is reached
+     */
+    synchronized String register(QueryCursor cursor) {
+        if (cursors.size() >= maxCursors)
+            throw new IllegalStateException("Too many open query cursors (" + maxCursors + "), please retry later");
+        cursors.put(cursor.getId(), cursor);
+        cursor.register(this, timeout);
+        return cursor.getId();
+    }
+
+    /**
+     * get a cursor and restart its inactivity timer
+     * @param continuation the continuation token
+     * @return the cursor or null if unknown or expired
+     */
+    QueryCursor get(String continuation) {
+        QueryCursor cursor = cursors.get(continuation);
+        if (cursor != null)
+            cursor.touch(timeout);
+        return cursor;
+    }
+
+    void remove(String continuation) {
+        cursors.remove(continuation);
+    }
+
+    int size() {
+        return cursors.size();
+    }
+
+    /**
+     * close all cursors and stop the timer
+     */
+    void shutdown() {
+        for (QueryCursor cursor : new ArrayList<>(cursors.values()))
+            cursor.close();
+        timer.shutdown();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.I_Timeout;
+import com.ethercis.servicemanager.common.TimeStamp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A query performed in the background, its result is spooled to a file<p>
+ * A job is queued, then running and finally completed, failed or cancelled. Once finished it is kept until its time
+ * to live expires, the spool file is then deleted.
+ */
+class QueryJob implements Runnable, I_Timeout {
+
+    enum State {QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED}
+
+    /**
+     * the query performed by the job, rows are appended to the spool
+     */
+    interface Work {
+        void run(QuerySpool spool) throws Exception;
+    }
+
+    private static Logger log = LogManager.getLogger(QueryJob.class);
+
+    private final String id = UUID.randomUUID().toString();
+    private final UUID owner;
+    private final String type;
+    private final Work work;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final long submittedAt = System.currentTimeMillis();
+
+    private QueryJobManager manager;
+    private State state = State.QUEUED;
+    private Thread runner;
+    private QuerySpool spool;
+    private String error;
+    private long startedAt;
+    private long finishedAt;
+    private TimeStamp timerKey;
+    private AutoCloseable resource; //released once the job is finished
+
+    /**
+     * @param owner the committer submitting the job
+     * @param type aql or sql
+     * @param work
+     */
+    QueryJob(UUID owner, String type, Work work) {
+        this.owner = owner;
+        this.type = type;
+        this.work = work;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isOwner(UUID committer) {
+        return owner == null || owner.equals(committer);
+    }
+
+    /**
+     * keep a resource used by the work (f.ex. a connection) until the job is finished
+     * @param resource
+     * @return this
+     */
+    synchronized QueryJob retain(AutoCloseable resource) {
+        this.resource = resource;
+        return this;
+    }
+
+    /**
+     * release the retained resource, if any
+     */
+    void release() {
+        AutoCloseable retained;
+        synchronized (this) {
+            retained = resource;
+            resource = null;
+        }
+        if (retained == null)
+            return;
+        try {
+            retained.close();
+        } catch (Exception e) {
+            log.warn("Could not release resource of query job " + id + ":" + e);
+        }
+    }
+
+    synchronized void setManager(QueryJobManager manager) {
+        this.manager = manager;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized boolean isFinished() {
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    /**
+     * @return the spool of a completed job, null otherwise
+     */
+    synchronized QuerySpool getSpool() {
+        return state == State.COMPLETED ? spool : null;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (state != State.QUEUED) //cancelled while queued
+                return;
+            state = State.RUNNING;
+            startedAt = System.currentTimeMillis();
+            runner = Thread.currentThread();
+        }
+
+        State outcome;
+        String failure = null;
+        try {
+            spool = manager.newSpool(id);
+            work.run(spool);
+            spool.complete();
+            outcome = State.COMPLETED;
+        } catch (Exception e) {
+            outcome = State.FAILED;
+            failure = e.getMessage() != null ? e.getMessage() : e.toString();
+            log.debug("Query job " + id + " failed:" + failure);
+        }
+
+        synchronized (this) {
+            runner = null;
+            if (state == State.CANCELLED || Thread.interrupted())
+                outcome = State.CANCELLED;
+            if (outcome != State.COMPLETED && spool != null)
+                spool.delete();
+            state = outcome;
+            error = outcome == State.FAILED ? failure : null;
+        }
+        finish();
+    }
+
+    /**
+     * cancel a queued or running job, a running job stops at the next row spooled
+     * @return true if the job was not finished
+     */
+    boolean cancel() {
+        boolean queued;
+        synchronized (this) {
+            if (isFinished())
+                return false;
+            queued = state == State.QUEUED;
+            state = State.CANCELLED;
+            if (runner != null)
+                runner.interrupt();
+        }
+        if (queued)
+            finish();
+        return true;
+    }
+
+    private void finish() {
+        synchronized (this) {
+            finishedAt = System.currentTimeMillis();
+        }
+        release();
+        finished.countDown();
+        manager.finished(this);
+    }
+
+    /**
+     * wait until the job is finished
+     * @param timeout in milliseconds
+     * @return true if the job is finished
+     * @throws InterruptedException
+     */
+    boolean await(long timeout) throws InterruptedException {
+        return finished.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void setTimerKey(TimeStamp timerKey) {
+        this.timerKey = timerKey;
+    }
+
+    synchronized TimeStamp getTimerKey() {
+        return timerKey;
+    }
+
+    /**
+     * delete the spooled result
+     */
+    synchronized void discard() {
+        if (spool != null)
+            spool.delete();
+    }
+
+    /**
+     * the time to live of a finished job expired
+     * @param userData
+     */
+    @Override
+    public void timeout(Object userData) {
+        log.debug("Query job expired:" + id);
+        synchronized (this) {
+            timerKey = null;
+        }
+        manager.remove(id);
+    }
+
+    /**
+     * @return the status of the job
+     */
+    synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", id);
+        status.put("type", type);
+        status.put("state", state.toString());
+        status.put("submitted", Instant.ofEpochMilli(submittedAt).toString());
+        if (startedAt > 0)
+            status.put("started", Instant.ofEpochMilli(startedAt).toString());
+        if (finishedAt > 0)
+            status.put("finished", Instant.ofEpochMilli(finishedAt).toString());
+        if (state == State.COMPLETED)
+            status.put("rows", spool.getRows());
+        if (error != null)
+            status.put("error", error);
+        return status;
+    }
+}
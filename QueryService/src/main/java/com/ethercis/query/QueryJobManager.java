@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.Timeout;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor and registry of the query jobs<p>
+ * Jobs run on a bounded pool of threads with a bounded queue, a job exceeding the capacity is rejected. No more than
+ * maxJobs jobs (queued, running or finished) are kept at a time. A finished job is removed and its spool file deleted
+ * when its time to live expires.
+ */
+class QueryJobManager {
+
+    private static Logger log = LogManager.getLogger(QueryJobManager.class);
+
+    private final Map<String, QueryJob> jobs = new ConcurrentHashMap<>();
+    private final Timeout timer = new Timeout("QueryJobTimer");
+    private final ThreadPoolExecutor executor;
+    private final Path spoolDirectory;
+    private final int maxJobs;
+    private final long ttl;
+
+    /**
+     * @param threads number of jobs running concurrently
+     * @param queueSize number of jobs waiting for a thread
+     * @param maxJobs maximum number of jobs kept
+     * @param spoolDirectory directory of the spool files, created if needed
+     * @param ttl time to live of a finished job in milliseconds
+     * @throws IOException if the spool directory cannot be created
+     */
+    QueryJobManager(int threads, int queueSize, int maxJobs, Path spoolDirectory, long ttl) throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "QueryJob-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.maxJobs = maxJobs;
+        this.spoolDirectory = Files.createDirectories(spoolDirectory);
+        this.ttl = ttl;
+    }
+
+    /**
+     * queue a job
+     * @param job
+     * @return the job id
+     * @throws RejectedExecutionException if too many jobs are queued or kept
+     */
+    String submit(QueryJob job) throws RejectedExecutionException {
+        job.setManager(this);
+        synchronized (jobs) {
+            if (jobs.size() >= maxJobs)
+                throw new RejectedExecutionException("Too many query jobs (" + maxJobs + "), please retry later");
+            jobs.put(job.getId(), job);
+        }
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new RejectedExecutionException("Query job queue is full, please retry later");
+        }
+        return job.getId();
+    }
+
+    /**
+     * @param id
+     * @return the job or null if unknown or expired
+     */
+    QueryJob get(String id) {
+        return jobs.get(id);
+    }
+
+    QuerySpool newSpool(String id) throws IOException {
+        return new QuerySpool(spoolDirectory.resolve(id + ".ndjson"));
+    }
+
+    /**
+     * a job is finished, start its time to live
+     * @param job
+     */
+    void finished(QueryJob job) {
+        if (jobs.containsKey(job.getId()))
+            job.setTimerKey(timer.addTimeoutListener(job, ttl, null));
+    }
+
+    /**
+     * remove a finished job and delete its result
+     * @param id
+     */
+    void remove(String id) {
+        QueryJob job = jobs.remove(id);
+        if (job == null)
+            return;
+        if (job.getTimerKey() != null)
+            timer.removeTimeoutListener(job.getTimerKey());
+        job.discard();
+    }
+
+    int size() {
+        return jobs.size();
+    }
+
+    int getRunning() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * cancel the jobs, delete their results and stop the executor
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        for (QueryJob job : new ArrayList<>(jobs.values())) {
+            job.cancel();
+            remove(job.getId());
+        }
+        timer.shutdown();
+        log.info("Query jobs stopped");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.I_StreamedResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A page of the spooled result of a query job<p>
+ * The rows are copied from the spool file as they were serialized by the job, in json they are wrapped in the
+ * usual result object with the offset of the next page if more rows are available:
+ * <pre>
+ * {"jobId":"...","offset":0,"rows":1234,"resultSet":[...],"next":100}
+ * </pre>
+ * in ndjson only the rows of the page are written, one per line.
+ */
+class QueryJobPage implements I_StreamedResponse {
+
+    private static final byte[] COMMA = {','};
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final String jobId;
+    private final QuerySpool spool;
+    private final long offset;
+    private final int size;
+    private final boolean ndjson;
+
+    /**
+     * @param jobId
+     * @param spool the spool of a completed job
+     * @param offset index of the first row of the page
+     * @param size maximum number of rows of the page
+     * @param encoding json or ndjson
+     */
+    QueryJobPage(String jobId, QuerySpool spool, long offset, int size, String encoding) {
+        this.jobId = jobId;
+        this.spool = spool;
+        this.offset = offset;
+        this.size = size;
+        this.ndjson = QueryResultStream.NDJSON.equals(encoding);
+    }
+
+    @Override
+    public String getContentType() {
+        return ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8";
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (ndjson) {
+            if (spool.writePage(offset, size, outputStream, NEWLINE) > 0)
+                outputStream.write(NEWLINE);
+            outputStream.flush();
+            return;
+        }
+
+        write(outputStream, "{\"jobId\":\"" + jobId + "\",\"offset\":" + offset + ",\"rows\":" + spool.getRows() + ",\"resultSet\":[");
+        int written = spool.writePage(offset, size, outputStream, COMMA);
+        write(outputStream, "]");
+        if (offset + written < spool.getRows())
+            write(outputStream, ",\"next\":" + (offset + written));
+        write(outputStream, "}");
+        outputStream.flush();
+    }
+
+    private static void write(OutputStream outputStream, String text) throws IOException {
+        outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.def.Constants;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Limits applied to a query<p>
+ * <ul>
+ *     <li>timeout: statement timeout in seconds, the statement is cancelled by the database when exceeded</li>
+ *     <li>max_rows: maximum number of rows of a result</li>
+ *     <li>max_cost: maximum total cost estimated by the database planner (EXPLAIN), checked before the query runs</li>
+ * </ul>
+ * Each limit is configured as server.query.limit.&lt;limit&gt; and can be overridden for a route
+ * (server.query.limit.route.&lt;route&gt;.&lt;limit&gt;, route is post or get) and for a principal
+ * (server.query.limit.principal.&lt;principal&gt;.&lt;limit&gt;), the principal setting taking precedence.
+ * A limit set to 0 is not enforced.
+ */
+class QueryLimits {
+
+    static final QueryLimits NONE = new QueryLimits(0, 0, 0);
+
+    private static final Pattern TOTAL_COST = Pattern.compile("\"Total Cost\"\\s*:\\s*([0-9.eE+-]+)");
+    private static final Pattern STATEMENT = Pattern.compile("^\\s*(select|with)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final int timeout;
+    private final int maxRows;
+    private final double maxCost;
+
+    QueryLimits(int timeout, int maxRows, double maxCost) {
+        this.timeout = timeout;
+        this.maxRows = maxRows;
+        this.maxCost = maxCost;
+    }
+
+    /**
+     * resolve the limits of a query
+     * @param properties the configuration lookup (key, default)
+     * @param route the query route (post or get)
+     * @param principal the user performing the query, null if unknown
+     * @return the limits
+     */
+    static QueryLimits resolve(BiFunction<String, String, String> properties, String route, String principal) {
+        return new QueryLimits(
+                Integer.parseInt(resolve(properties, route, principal, "timeout")),
+                Integer.parseInt(resolve(properties, route, principal, "max_rows")),
+                Double.parseDouble(resolve(properties, route, principal, "max_cost")));
+    }
+
+    private static String resolve(BiFunction<String, String, String> properties, String route, String principal, String limit) {
+        String value = properties.apply(Constants.QUERY_LIMIT_PREFIX + limit, "0");
+        value = properties.apply(Constants.QUERY_LIMIT_PREFIX + "route." + route + "." + limit, value);
+        if (principal != null)
+            value = properties.apply(Constants.QUERY_LIMIT_PREFIX + "principal." + principal + "." + limit, value);
+        return value;
+    }
+
+    int getTimeout() {
+        return timeout;
+    }
+
+    int getMaxRows() {
+        return maxRows;
+    }
+
+    double getMaxCost() {
+        return maxCost;
+    }
+
+    /**
+     * @param rows the number of rows of a result
+     * @return true if the result exceeds the maximum number of rows
+     */
+    boolean exceedsRows(int rows) {
+        return maxRows > 0 && rows > maxRows;
+    }
+
+    /**
+     * @param cost the estimated cost of a query
+     * @return true if the cost exceeds the maximum cost
+     */
+    boolean exceedsCost(double cost) {
+        return maxCost > 0 && cost > maxCost;
+    }
+
+    /**
+     * collect the SQL statements of an AQL translation (as returned by explainAqlJson)
+     * @param plan
+     * @return the statements found in the plan
+     */
+    static List<String> statements(Object plan) {
+        List<String> statements = new ArrayList<>();
+        collect(plan, statements);
+        return statements;
+    }
+
+    private static void collect(Object node, List<String> statements) {
+        if (node instanceof String) {
+            if (STATEMENT.matcher((String) node).find())
+                statements.add((String) node);
+        } else if (node instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+                //skip the AQL expression itself
+                if (!String.valueOf(entry.getKey()).toLowerCase().contains("aql"))
+                    collect(entry.getValue(), statements);
+            }
+        } else if (node instanceof Iterable) {
+            for (Object value : (Iterable<?>) node)
+                collect(value, statements);
+        }
+    }
+
+    /**
+     * @param e an exception thrown while performing a query
+     * @return true if the statement has been cancelled by the database (PostgreSQL query_canceled)
+     */
+    static boolean isCancelled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && "57014".equals(((SQLException) cause).getSQLState()))
+                return true;
+            if (cause.getMessage() != null && cause.getMessage().contains("canceling statement due to statement timeout"))
+                return true;
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+    /**
+     * get the estimated total cost of the top node of a plan
+     * @param explain the output of EXPLAIN (FORMAT JSON)
+     * @return the cost or -1 if not found
+     */
+    static double totalCost(String explain) {
+        Matcher matcher = TOTAL_COST.matcher(explain);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.util.*;
+
+/**
+ * Query posted in a request body<p>
+ * The body is a JSON object holding the query and optionally its parameters:
+ * <pre>
+ * {"aql": "select ... from EHR e[ehr_id/value = $ehrId] ...", "query_parameters": {"ehrId": "..."}}
+ * </pre>
+ * A parameter is referenced in the AQL as $name, a value is a string, a number, a boolean or an array of those
+ * (f.ex. for matches {$codes}). SQL parameters are positional, they are bound to the '?' placeholders of a prepared
+ * statement:
+ * <pre>
+ * {"sql": "select id from ehr.ehr where date_created &gt; ?::timestamp", "query_parameters": ["2017-01-01"]}
+ * </pre>
+ * Bodies which are not valid JSON (f.ex. unescaped quotes in a SQL expression) are still accepted without
+ * parameters, see {@link QueryService#extractQuery(String)}.
+ */
+class QueryRequest {
+
+    static final String QUERY_PARAMETERS = "query_parameters";
+
+    private final String type;
+    private final String query;
+    private final Map<String, Object> parameters;
+    private final List<Object> bindValues;
+
+    private QueryRequest(String type, String query, Map<String, Object> parameters, List<Object> bindValues) {
+        this.type = type;
+        this.query = query;
+        this.parameters = parameters;
+        this.bindValues = bindValues;
+    }
+
+    /**
+     * parse a request body
+     * @param content
+     * @return the query request
+     * @throws IllegalArgumentException if no query is found or the parameters are invalid
+     */
+    static QueryRequest parse(String content) {
+        JsonObject body = null;
+        try {
+            JsonElement element = new JsonParser().parse(content);
+            if (element.isJsonObject())
+                body = element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            //pseudo json, see below
+        }
+
+        if (body != null) {
+            for (Map.Entry<String, JsonElement> entry : body.entrySet()) {
+                String key = entry.getKey().toLowerCase();
+                if (key.equals(QueryService.AQL) && entry.getValue().isJsonPrimitive())
+                    return new QueryRequest(key, entry.getValue().getAsString(), parameters(body.get(QUERY_PARAMETERS)), Collections.emptyList());
+                if (key.equals(QueryService.SQL) && entry.getValue().isJsonPrimitive())
+                    return new QueryRequest(key, entry.getValue().getAsString(), Collections.<String, Object>emptyMap(), bindValues(body.get(QUERY_PARAMETERS)));
+            }
+        }
+
+        Map.Entry<String, String> extracted = QueryService.extractQuery(content).entrySet().iterator().next();
+        return new QueryRequest(extracted.getKey(), extracted.getValue(), Collections.<String, Object>emptyMap(), Collections.emptyList());
+    }
+
+    private static List<Object> bindValues(JsonElement element) {
+        if (element == null || element.isJsonNull())
+            return Collections.emptyList();
+        if (!element.isJsonArray())
+            throw new IllegalArgumentException(QUERY_PARAMETERS + " should be an array of values bound to the '?' of the sql expression");
+
+        List<Object> values = new ArrayList<>();
+        int position = 1;
+        for (JsonElement item : element.getAsJsonArray()) {
+            if (item.isJsonNull())
+                values.add(null);
+            else if (item.isJsonPrimitive())
+                values.add(value(String.valueOf(position), item));
+            else
+                throw new IllegalArgumentException("Invalid value for sql query parameter:" + position);
+            position++;
+        }
+        return values;
+    }
+
+    private static Map<String, Object> parameters(JsonElement element) {
+        if (element == null || element.isJsonNull())
+            return Collections.emptyMap();
+        if (!element.isJsonObject())
+            throw new IllegalArgumentException(QUERY_PARAMETERS + " should be an object");
+
+        Map<String, Object> parameters = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet())
+            parameters.put(entry.getKey(), value(entry.getKey(), entry.getValue()));
+        return parameters;
+    }
+
+    private static Object value(String name, JsonElement element) {
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            List<Object> values = new ArrayList<>(array.size());
+            for (JsonElement item : array) {
+                if (!item.isJsonPrimitive())
+                    throw new IllegalArgumentException("Invalid value in query parameter:" + name);
+                values.add(value(name, item));
+            }
+            return values;
+        }
+        if (!element.isJsonPrimitive())
+            throw new IllegalArgumentException("Invalid value for query parameter:" + name);
+
+        JsonPrimitive primitive = element.getAsJsonPrimitive();
+        if (primitive.isNumber())
+            return primitive.getAsNumber(); //keeps the number as written
+        if (primitive.isBoolean())
+            return primitive.getAsBoolean();
+        return primitive.getAsString();
+    }
+
+    /**
+     * @return aql or sql
+     */
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return the query as written, parameters are not substituted
+     */
+    String getQuery() {
+        return query;
+    }
+
+    Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the values bound to a sql expression, in order
+     */
+    Object[] getBindValues() {
+        return bindValues.toArray();
+    }
+
+    boolean hasParameters() {
+        return !parameters.isEmpty() || !bindValues.isEmpty();
+    }
+
+    /**
+     * substitute the parameters referenced in an AQL expression by literals
+     * @param aql the expression, parameters are referenced as $name outside literals
+     * @param parameters the parameter values
+     * @return the expression with its parameters substituted
+     * @throws IllegalArgumentException if a referenced parameter is not supplied
+     */
+    static String bindAql(String aql, Map<String, Object> parameters) {
+        if (aql.indexOf('$') < 0)
+            return aql;
+
+        StringBuilder sb = new StringBuilder(aql.length() + 64);
+        char quote = 0;
+        int i = 0;
+        while (i < aql.length()) {
+            char c = aql.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && i + 1 < aql.length()) { //escaped char in literal
+                    sb.append(c).append(aql.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                if (c == quote)
+                    quote = 0;
+                sb.append(c);
+                i++;
+                continue;
+            }
+            if (c == '\'' || c == '"')
+                quote = c;
+
+            if (c == '$' && i + 1 < aql.length() && Character.isJavaIdentifierStart(aql.charAt(i + 1))) {
+                int end = i + 2;
+                while (end < aql.length() && Character.isJavaIdentifierPart(aql.charAt(end)))
+                    end++;
+                String name = aql.substring(i + 1, end);
+                if (!parameters.containsKey(name))
+                    throw new IllegalArgumentException("Missing query parameter:" + name);
+                sb.append(literal(name, parameters.get(name)));
+                i = end;
+                continue;
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * quote a parameter value as an AQL literal, values containing a quote or a backslash are rejected: they cannot
+     * be escaped in a way both the parameter scanner and the AQL engine read as a single literal
+     * @param name the parameter name
+     * @param value the parameter value
+     * @return the literal
+     * @throws IllegalArgumentException if the value is null or contains a quote or a backslash
+     */
+    private static String literal(String name, Object value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null value for query parameter:" + name);
+        if (value instanceof Number || value instanceof Boolean)
+            return value.toString();
+        if (value instanceof List) {
+            StringJoiner joiner = new StringJoiner(",");
+            for (Object item : (List<?>) value)
+                joiner.add(literal(name, item));
+            return joiner.toString();
+        }
+        String text = value.toString();
+        if (text.indexOf('\'') >= 0 || text.indexOf('\\') >= 0)
+            throw new IllegalArgumentException("Quote or backslash not allowed in query parameter:" + name);
+        return "'" + text + "'";
+    }
+}
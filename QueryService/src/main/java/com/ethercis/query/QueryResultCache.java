@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded LRU cache of AQL query results with a time to live<p>
+ * An entry is keyed on the normalized AQL expression with its bound parameters (see {@link QueryRequest#bindAql}).
+ * Each entry records the EHRs its query is restricted to, a write on an EHR only drops the entries referencing this
+ * EHR and the entries whose scope could not be identified (population queries). An entry is never stored if an
+ * invalidation occurred while its query was running.
+ */
+class QueryResultCache {
+
+    private static final String UUID_REGEX = "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}";
+    private static final Pattern EHR_PREDICATE = Pattern.compile("ehr_id/value\\s*(?:=\\s*'(" + UUID_REGEX + ")'|matches\\s*\\{([^}]*)\\})", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UUID_LITERAL = Pattern.compile("'(" + UUID_REGEX + ")'");
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    //operators widening a query beyond the EHRs of its predicates
+    private static final Pattern WIDENING = Pattern.compile("\\b(or|not)\\b|!=|<>", Pattern.CASE_INSENSITIVE);
+
+    private static class Entry {
+        private final Map<String, Object> result;
+        private final Set<UUID> ehrIds; //null if the query is not restricted to identified EHRs
+        private final long expires;
+
+        private Entry(Map<String, Object> result, Set<UUID> ehrIds, long expires) {
+            this.result = result;
+            this.ehrIds = ehrIds;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxSize;
+    private final int maxRows;
+    private final long ttl;
+    private final Map<String, Entry> entries;
+    private final Map<UUID, Set<String>> keysByEhr = new HashMap<>();
+    private final Set<String> unscopedKeys = new HashSet<>();
+    private long generation = 0; //incremented on each invalidation
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of results, 0 disables the cache
+     * @param maxRows results with more rows are not cached
+     * @param ttl time to live of a result in milliseconds
+     */
+    QueryResultCache(final int maxSize, int maxRows, long ttl) {
+        this.maxSize = maxSize;
+        this.maxRows = maxRows;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxSize)
+                    return false;
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * identify the EHRs an AQL expression is restricted to, from its predicates on ehr_id/value
+     * (f.ex. e/ehr_id/value = '...' or e/ehr_id/value matches {'...', '...'})
+     * @param aql the bound expression
+     * @return the EHR ids or null if the query may return data from any EHR
+     */
+    static Set<UUID> referencedEhrs(String aql) {
+        if (WIDENING.matcher(LITERAL.matcher(aql).replaceAll("''")).find())
+            return null;
+
+        Set<UUID> ehrIds = new HashSet<>();
+        Matcher predicate = EHR_PREDICATE.matcher(aql);
+        while (predicate.find()) {
+            if (predicate.group(1) != null)
+                ehrIds.add(UUID.fromString(predicate.group(1)));
+            else {
+                Matcher literal = UUID_LITERAL.matcher(predicate.group(2));
+                while (literal.find())
+                    ehrIds.add(UUID.fromString(literal.group(1)));
+            }
+        }
+        return ehrIds.isEmpty() ? null : ehrIds;
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #put} once the query has been performed
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * get a cached result
+     * @param key
+     * @return a copy of the result or null if not cached or expired
+     */
+    synchronized Map<String, Object> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires <= now()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new HashMap<>(entry.result);
+    }
+
+    /**
+     * cache a result
+     * @param key
+     * @param result
+     * @param ehrIds the EHRs referenced by the query, null if not identified
+     * @param generation the generation returned by {@link #generation()} before the query was performed, the result
+     *                   is dropped if an invalidation occurred since
+     */
+    synchronized void put(String key, Map<String, Object> result, Set<UUID> ehrIds, long generation) {
+        if (maxSize <= 0 || generation != this.generation)
+            return;
+        Object resultSet = result.get("resultSet");
+        if (resultSet instanceof List && ((List) resultSet).size() > maxRows)
+            return;
+
+        remove(key);
+        entries.put(key, new Entry(new HashMap<>(result), ehrIds, now() + ttl));
+        if (ehrIds == null)
+            unscopedKeys.add(key);
+        else
+            for (UUID ehrId : ehrIds)
+                keysByEhr.computeIfAbsent(ehrId, id -> new HashSet<>()).add(key);
+    }
+
+    /**
+     * drop the results referencing an EHR and the results not restricted to identified EHRs
+     * @param ehrId the modified EHR, null to drop all the results
+     */
+    synchronized void invalidate(UUID ehrId) {
+        generation++;
+        invalidations.increment();
+        if (ehrId == null) {
+            entries.clear();
+            keysByEhr.clear();
+            unscopedKeys.clear();
+            return;
+        }
+
+        Set<String> keys = keysByEhr.remove(ehrId);
+        if (keys != null)
+            for (String key : new ArrayList<>(keys))
+                remove(key);
+        for (String key : new ArrayList<>(unscopedKeys))
+            remove(key);
+    }
+
+    void invalidate() {
+        invalidate(null);
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            unindex(key, entry);
+    }
+
+    private void unindex(String key, Entry entry) {
+        if (entry.ehrIds == null) {
+            unscopedKeys.remove(key);
+            return;
+        }
+        for (UUID ehrId : entry.ehrIds) {
+            Set<String> keys = keysByEhr.get(ehrId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    keysByEhr.remove(ehrId);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getInvalidations() {
+        return invalidations.sum();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import com.ethercis.servicemanager.common.I_StreamedResponse;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Query result written to the client while it is read<p>
+ * Two encodings are supported:
+ * <ul>
+ *     <li>json: the usual result object, the rows of the resultSet array are written one by one</li>
+ *     <li>ndjson: one JSON object per row and per line, no envelope</li>
+ * </ul>
+ * A SQL query is read from a JDBC cursor on a dedicated connection with a fetch size, hence the memory used does
+ * not depend on the size of the result. An AQL result is built by the query engine, its rows are released as soon
+ * as they are written so that the result is not held twice during the serialization.<p>
+ * An empty result is returned as an empty resultSet, the HTTP status is sent before the first row is known.
+ */
+class QueryResultStream implements I_StreamedResponse {
+
+    static final String JSON = "json";
+    static final String NDJSON = "ndjson";
+
+    private static final String RESULT_SET = "resultSet";
+
+    private static Logger log = LogManager.getLogger(QueryResultStream.class);
+
+    private final boolean ndjson;
+    private final Gson gson = new Gson();
+
+    //SQL query
+    private final Connection connection;
+    private final ResultQuery<Record> query;
+    private final int fetchSize;
+    private final QueryLimits limits;
+
+    //AQL result
+    private final Map<String, Object> result;
+
+    private boolean released = false;
+
+    private QueryResultStream(boolean ndjson, Connection connection, ResultQuery<Record> query, int fetchSize, QueryLimits limits, Map<String, Object> result) {
+        this.ndjson = ndjson;
+        this.connection = connection;
+        this.query = query;
+        this.fetchSize = fetchSize;
+        this.limits = limits;
+        this.result = result;
+    }
+
+    /**
+     * stream a SQL query from a cursor
+     * @param encoding json or ndjson
+     * @param connection a connection dedicated to the query, auto commit is disabled to fetch by chunk and the
+     *                   connection is closed once the result is sent
+     * @param query the query, built from a DSL context bound to connection
+     * @param fetchSize number of rows fetched per round trip
+     * @param limits statement timeout and maximum number of rows streamed
+     * @return the streamed result
+     * @throws SQLException
+     */
+    static QueryResultStream ofQuery(String encoding, Connection connection, ResultQuery<Record> query, int fetchSize, QueryLimits limits) throws SQLException {
+        //a cursor is used only within a transaction (f.ex. PostgreSQL fetches the whole result otherwise)
+        connection.setAutoCommit(false);
+        return new QueryResultStream(NDJSON.equals(encoding), connection, query, fetchSize, limits, null);
+    }
+
+    /**
+     * stream a result built by the query engine
+     * @param encoding json or ndjson
+     * @param result the result map with its resultSet
+     * @return the streamed result
+     */
+    static QueryResultStream ofResult(String encoding, Map<String, Object> result) {
+        return new QueryResultStream(NDJSON.equals(encoding), null, null, 0, QueryLimits.NONE, result);
+    }
+
+    /**
+     * @param encoding a stream parameter value
+     * @return true if the encoding is supported
+     */
+    static boolean isEncoding(String encoding) {
+        return JSON.equals(encoding) || NDJSON.equals(encoding);
+    }
+
+    @Override
+    public String getContentType() {
+        return ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8";
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setLenient(true); //ndjson: several top level values
+
+        try {
+            if (!ndjson) {
+                jsonWriter.beginObject();
+                if (result != null) {
+                    for (Map.Entry<String, Object> entry : result.entrySet()) {
+                        if (RESULT_SET.equals(entry.getKey()))
+                            continue;
+                        jsonWriter.name(entry.getKey());
+                        writeValue(jsonWriter, entry.getValue());
+                    }
+                }
+                jsonWriter.name(RESULT_SET).beginArray();
+            }
+
+            if (connection != null)
+                writeCursor(jsonWriter, writer);
+            else
+                writeRows(jsonWriter, writer);
+
+            if (!ndjson)
+                jsonWriter.endArray().endObject();
+            jsonWriter.flush();
+        } finally {
+            close();
+        }
+    }
+
+    private void writeCursor(JsonWriter jsonWriter, Writer writer) throws IOException {
+        try (Cursor<Record> cursor = query.fetchSize(fetchSize).queryTimeout(limits.getTimeout()).maxRows(limits.getMaxRows()).fetchLazy()) {
+            Field<?>[] fields = cursor.fields();
+            String[] columnTypes = columnTypes(cursor);
+            while (cursor.hasNext()) {
+                Record record = cursor.fetchOne();
+                jsonWriter.beginObject();
+                for (int i = 0; i < fields.length; i++) {
+                    jsonWriter.name(fields[i].getName());
+                    writeColumn(jsonWriter, columnTypes[i], record.getValue(i));
+                }
+                jsonWriter.endObject();
+                endRow(writer);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not read query columns:" + e);
+        }
+    }
+
+    private void writeRows(JsonWriter jsonWriter, Writer writer) throws IOException {
+        Object rows = result.get(RESULT_SET);
+        if (!(rows instanceof List))
+            return;
+        //rows are dropped once written, the list is not reused
+        for (ListIterator<Object> iterator = ((List<Object>) rows).listIterator(); iterator.hasNext(); ) {
+            writeValue(jsonWriter, iterator.next());
+            endRow(writer);
+            iterator.set(null);
+        }
+    }
+
+    private void endRow(Writer writer) throws IOException {
+        if (ndjson) {
+            writer.write('\n');
+        }
+    }
+
+    private void writeValue(JsonWriter jsonWriter, Object value) throws IOException {
+        if (value == null)
+            jsonWriter.nullValue();
+        else
+            gson.toJson(value, value.getClass(), jsonWriter);
+    }
+
+    /**
+     * write a column value, json columns are written as is
+     */
+    private void writeColumn(JsonWriter jsonWriter, String columnType, Object value) throws IOException {
+        if (value == null)
+            jsonWriter.nullValue();
+        else if (value instanceof Number)
+            jsonWriter.value((Number) value);
+        else if (value instanceof Boolean)
+            jsonWriter.value((Boolean) value);
+        else if (isJson(columnType))
+            jsonWriter.jsonValue(value.toString());
+        else
+            jsonWriter.value(value.toString());
+    }
+
+    /**
+     * the database type names of the columns of a cursor, jOOQ does not type the json columns of a plain SQL query
+     * @param cursor
+     * @return the type names, in column order
+     * @throws SQLException
+     */
+    static String[] columnTypes(Cursor<Record> cursor) throws SQLException {
+        ResultSetMetaData metaData = cursor.resultSet().getMetaData();
+        String[] columnTypes = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columnTypes.length; i++)
+            columnTypes[i] = metaData.getColumnTypeName(i + 1);
+        return columnTypes;
+    }
+
+    /**
+     * check if a column holds a JSON document, only json and jsonb columns do: any other text is a string even if
+     * it looks like JSON
+     * @param columnType the database type name of the column
+     */
+    static boolean isJson(String columnType) {
+        return "json".equalsIgnoreCase(columnType) || "jsonb".equalsIgnoreCase(columnType);
+    }
+
+    /**
+     * close the read only transaction and give back the connection, also when the result is never written
+     */
+    @Override
+    public synchronized void close() {
+        if (connection == null || released)
+            return;
+        released = true;
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Could not reset query connection:" + e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Could not close query connection:" + e);
+            }
+        }
+    }
+}
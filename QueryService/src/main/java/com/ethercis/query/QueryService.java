@@ -19,13 +19,18 @@
 package com.ethercis.query;
 
 import com.ethercis.compositionservice.I_CompositionService;
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
 import com.ethercis.dao.access.interfaces.I_EntryAccess;
 import com.ethercis.logonservice.session.I_SessionManager;
+import com.ethercis.persistence.I_EhrChangeListener;
+import com.ethercis.persistence.I_KnowledgeReloadListener;
 import com.ethercis.persistence.ServiceDataCluster;
 import com.ethercis.servicemanager.annotation.*;
 import com.ethercis.servicemanager.cluster.I_Info;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
+import com.ethercis.servicemanager.common.MetaBuilder;
+import com.ethercis.servicemanager.common.RequestBody;
 import com.ethercis.servicemanager.common.def.Constants;
 import com.ethercis.servicemanager.common.def.MethodName;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
@@ -34,13 +39,29 @@ import com.ethercis.servicemanager.jmx.AnnotatedMBean;
 import com.ethercis.servicemanager.runlevel.I_ServiceRunMode;
 import com.ethercis.servicemanager.service.ServiceInfo;
 import com.ethercis.systemservice.I_SystemService;
+import com.google.gson.Gson;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DataSourceConnectionProvider;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,18 +81,27 @@ import java.util.regex.Pattern;
         @RunLevelAction(onStartupRunlevel = 9, sequence = 4, action = "LOAD"),
         @RunLevelAction(onShutdownRunlevel = 9, sequence = 4, action = "STOP")})
 
-public class QueryService extends ServiceDataCluster implements QueryServiceMBean {
+public class QueryService extends ServiceDataCluster implements QueryServiceMBean, I_KnowledgeReloadListener, I_EhrChangeListener {
 
     public static final String AQL = "aql";
     public static final String SQL = "sql";
+    private static final Object[] NO_BIND_VALUES = new Object[0];
     final private String ME = "QueryService";
     final private String Version = "1.0";
     private Logger log = LogManager.getLogger(QueryService.class);
+    private final Gson gson = new Gson();
 //    private I_CacheKnowledgeService knowledgeCache;
     private I_SystemService systemService;
     private boolean useNamespaceInCompositionId = false;
     private boolean supportCompositionXRef = false; //if set to false, will not try to link compositions
     private boolean allowSQL = false; //if set, sql queries are allowed on this service. Parameter: 'server.query.sql_enabled'
+    private int fetchSize = 1000; //rows fetched per round trip when streaming a result. Parameter: 'server.query.fetch_size'
+    private QueryCursorRegistry cursorRegistry; //cursors of paged queries. Parameters: 'server.query.cursor.max', 'server.query.cursor.timeout' (seconds)
+    private AqlPlanCache planCache; //AQL translations, invalidated on knowledge reload. Parameter: 'server.query.aql_cache.size'
+    private AqlFanOut fanOut; //concurrent partitions of cohort queries. Parameters: 'server.query.fanout.threads', 'server.query.fanout.min_ehrs'
+    private QueryResultCache resultCache; //AQL results, invalidated on EHR changes. Parameters: 'server.query.result_cache.size', 'server.query.result_cache.ttl' (seconds), 'server.query.result_cache.max_rows'
+    private QueryJobManager jobManager; //asynchronous queries spooled to files. Parameters: 'server.query.job.threads', 'server.query.job.queue_size', 'server.query.job.max_jobs', 'server.query.job.spool_dir', 'server.query.job.ttl' (seconds)
+    private long jobMaxWait = 60; //maximum long poll of a job status in seconds. Parameter: 'server.query.job.max_wait'
 
     @Override
     public void doInit(RunTimeSingleton global, ServiceInfo serviceInfo) throws ServiceManagerException {
@@ -91,6 +121,26 @@ public class QueryService extends ServiceDataCluster implements QueryServiceMBea
 //        putObject(I_Info.JMX_PREFIX + ME, this);
         AnnotatedMBean.RegisterMBean(this.getClass().getCanonicalName(), QueryServiceMBean.class, this);
         allowSQL = Boolean.parseBoolean(get(Constants.SQL_ENABLED, "false"));
+        fetchSize = Integer.parseInt(get(Constants.QUERY_FETCH_SIZE, "1000"));
+        cursorRegistry = new QueryCursorRegistry(Integer.parseInt(get(Constants.QUERY_CURSOR_MAX, "64")), Long.parseLong(get(Constants.QUERY_CURSOR_TIMEOUT, "300")) * 1000);
+        planCache = new AqlPlanCache(Integer.parseInt(get(Constants.QUERY_AQL_CACHE_SIZE, "256")));
+        resultCache = new QueryResultCache(Integer.parseInt(get(Constants.QUERY_RESULT_CACHE_SIZE, "0")), Integer.parseInt(get(Constants.QUERY_RESULT_CACHE_MAX_ROWS, "1000")), Long.parseLong(get(Constants.QUERY_RESULT_CACHE_TTL, "60")) * 1000);
+        fanOut = new AqlFanOut(Integer.parseInt(get(Constants.QUERY_FANOUT_THREADS, "0")), Integer.parseInt(get(Constants.QUERY_FANOUT_MIN_EHRS, "100")));
+        try {
+            jobManager = new QueryJobManager(Integer.parseInt(get(Constants.QUERY_JOB_THREADS, "2")),
+                    Integer.parseInt(get(Constants.QUERY_JOB_QUEUE_SIZE, "16")),
+                    Integer.parseInt(get(Constants.QUERY_JOB_MAX_JOBS, "100")),
+                    Paths.get(get(Constants.QUERY_JOB_SPOOL_DIR, Paths.get(System.getProperty("java.io.tmpdir"), "ethercis-query-jobs").toString())),
+                    Long.parseLong(get(Constants.QUERY_JOB_TTL, "3600")) * 1000);
+        } catch (IOException e) {
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_CONFIGURATION, ME, "Could not create query job spool directory:" + e);
+        }
+        jobMaxWait = Long.parseLong(get(Constants.QUERY_JOB_MAX_WAIT, "60"));
+        if (getResourceService() != null) {
+            getResourceService().addKnowledgeReloadListener(this);
+            if (resultCache.isEnabled())
+                getResourceService().addEhrChangeListener(this);
+        }
 
         log.info("QueryService service started...");
     }
@@ -124,8 +174,459 @@ public class QueryService extends ServiceDataCluster implements QueryServiceMBea
         return allowSQL;
     }
 
+    @Override
+    public int getOpenCursors() {
+        return cursorRegistry.size();
+    }
+
+    @Override
+    public long getAqlCacheHits() {
+        return planCache.getHits();
+    }
+
+    @Override
+    public long getAqlCacheMisses() {
+        return planCache.getMisses();
+    }
+
+    @Override
+    public int getAqlCacheSize() {
+        return planCache.size();
+    }
+
+    @Override
+    public void invalidateAqlCache() {
+        planCache.invalidate();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return resultCache.getHits();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return resultCache.getMisses();
+    }
+
+    @Override
+    public long getResultCacheInvalidations() {
+        return resultCache.getInvalidations();
+    }
+
+    @Override
+    public int getResultCacheSize() {
+        return resultCache.size();
+    }
+
+    @Override
+    public void invalidateResultCache() {
+        resultCache.invalidate();
+    }
+
+    @Override
+    public long getFannedOutQueries() {
+        return fanOut.getFannedOut();
+    }
+
+    @Override
+    public int getQueryJobs() {
+        return jobManager.size();
+    }
+
+    @Override
+    public int getRunningQueryJobs() {
+        return jobManager.getRunning();
+    }
+
+    @Override
+    public void knowledgeReloaded() {
+        log.info("Knowledge cache reloaded, AQL cache invalidated");
+        planCache.invalidate();
+        resultCache.invalidate();
+    }
+
+    @Override
+    public void ehrChanged(UUID ehrId) {
+        resultCache.invalidate(ehrId);
+    }
+
+    @Override
+    public void shutdown() throws ServiceManagerException {
+        if (getResourceService() != null) {
+            getResourceService().removeKnowledgeReloadListener(this);
+            getResourceService().removeEhrChangeListener(this);
+        }
+        if (cursorRegistry != null)
+            cursorRegistry.shutdown();
+        if (fanOut != null)
+            fanOut.shutdown();
+        if (jobManager != null)
+            jobManager.shutdown();
+        super.shutdown();
+    }
+
     private enum QueryMode {SQL, AQL, UNDEF}
 
+    /**
+     * get the requested streaming encoding
+     * @param props
+     * @return json, ndjson or null if the result is not streamed
+     * @throws ServiceManagerException if the encoding is not supported
+     */
+    private String streamEncoding(I_SessionClientProperties props) throws ServiceManagerException {
+        String encoding = props.getClientProperty(I_QueryService.STREAM, (String) null);
+        if (encoding == null)
+            return null;
+        encoding = encoding.toLowerCase();
+        if (!QueryResultStream.isEncoding(encoding))
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "Unsupported stream encoding:" + encoding + ", should be 'json' or 'ndjson'");
+        return encoding;
+    }
+
+    /**
+     * get the requested page size
+     * @param props
+     * @return the page size or null if the result is not paged
+     * @throws ServiceManagerException if the size is not a positive integer
+     */
+    private Integer fetchParameter(I_SessionClientProperties props) throws ServiceManagerException {
+        String fetch = props.getClientProperty(I_QueryService.FETCH, (String) null);
+        if (fetch == null)
+            return null;
+        try {
+            int size = Integer.parseInt(fetch);
+            if (size > 0)
+                return size;
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "Invalid fetch size:" + fetch);
+    }
+
+    /**
+     * open a cursor on a SQL query and return its first page
+     * @param props
+     * @param fetch page size, also used as JDBC fetch size
+     * @param queryString
+     * @param bindValues values of the '?' placeholders
+     * @param limits statement timeout and maximum number of rows of the cursor
+     * @return the first page with a continuation token if more rows are available
+     * @throws ServiceManagerException
+     */
+    private Object openQueryCursor(I_SessionClientProperties props, int fetch, String queryString, Object[] bindValues, QueryLimits limits) throws ServiceManagerException {
+        I_DomainAccess domainAccess = getReadDataAccess();
+        checkCost(domainAccess, limits, Collections.singletonList(queryString), bindValues);
+        Connection connection = domainAccess.getConnection();
+        QueryCursor cursor;
+        try {
+            //a cursor is used only within a transaction
+            connection.setAutoCommit(false);
+            DSLContext context = DSL.using(connection, domainAccess.getContext().configuration().dialect());
+            cursor = QueryCursor.ofQuery(getAuditSetter().getCommitterUuid(), connection, prepare(context, queryString, bindValues).fetchSize(fetch).queryTimeout(limits.getTimeout()).maxRows(limits.getMaxRows()).fetchLazy());
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeException) {
+                log.warn("Could not close query connection:" + closeException);
+            }
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_UNAVAILABLE, ME, "Could not open query cursor:" + e);
+        }
+        return firstPage(props, cursor, new HashMap<>(), fetch);
+    }
+
+    /**
+     * return the first page of a result, the cursor is registered if more rows are available
+     * @param props
+     * @param cursor
+     * @param result the result to return, its resultSet is replaced by the page
+     * @param fetch page size
+     * @return the result
+     * @throws ServiceManagerException if too many cursors are open
+     */
+    private Object firstPage(I_SessionClientProperties props, QueryCursor cursor, Map<String, Object> result, int fetch) throws ServiceManagerException {
+        List<Object> page = cursor.fetch(fetch);
+        if (page.isEmpty()) {
+            cursor.close();
+            return noContent(props);
+        }
+
+        result.put("resultSet", page);
+        result.put(I_QueryService.FETCH, fetch);
+        if (cursor.hasMore()) {
+            try {
+                result.put(I_QueryService.CONTINUATION, cursorRegistry.register(cursor));
+            } catch (IllegalStateException e) {
+                cursor.close();
+                throw new ServiceManagerException(global, SysErrorCode.RESOURCE_EXHAUST, ME, e.getMessage());
+            }
+        } else
+            cursor.close();
+
+        return result;
+    }
+
+    /**
+     * get the next page of an open cursor
+     * @param props
+     * @param continuation the continuation token returned with the previous page
+     * @return the page, with the continuation token if more rows are available
+     * @throws ServiceManagerException if the cursor is unknown or expired
+     */
+    private Object nextPage(I_SessionClientProperties props, String continuation) throws ServiceManagerException {
+        QueryCursor cursor = openCursor(continuation);
+        Integer fetch = fetchParameter(props);
+        if (fetch == null)
+            fetch = fetchSize;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("resultSet", cursor.fetch(fetch));
+        result.put(I_QueryService.FETCH, fetch);
+        if (cursor.hasMore())
+            result.put(I_QueryService.CONTINUATION, continuation);
+        else
+            cursor.close();
+        return result;
+    }
+
+    private QueryCursor openCursor(String continuation) throws ServiceManagerException {
+        QueryCursor cursor = cursorRegistry.get(continuation);
+        if (cursor == null || !cursor.isOwner(getAuditSetter().getCommitterUuid()))
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_NOT_FOUND, ME, "Unknown or expired continuation:" + continuation);
+        return cursor;
+    }
+
+    private Map<String, Object> noContent(I_SessionClientProperties props) {
+        props.getResponseDescriptor().setReturnType(MethodName.RETURN_NO_CONTENT);
+        //build the relative part of the link to the existing last version
+        Map<String, Object> retMap = new HashMap<>();
+        retMap.put("Reason", "Query resultset is empty");
+        return retMap;
+    }
+
+    /**
+     * stream a SQL query from a cursor on a dedicated connection
+     * @param encoding json or ndjson
+     * @param queryString
+     * @param bindValues values of the '?' placeholders
+     * @param limits statement timeout and maximum number of rows streamed
+     * @return the streamed result
+     * @throws ServiceManagerException
+     */
+    private QueryResultStream streamQuery(String encoding, String queryString, Object[] bindValues, QueryLimits limits) throws ServiceManagerException {
+        I_DomainAccess domainAccess = getReadDataAccess();
+        checkCost(domainAccess, limits, Collections.singletonList(queryString), bindValues);
+        Connection connection = domainAccess.getConnection();
+        try {
+            DSLContext context = DSL.using(connection, domainAccess.getContext().configuration().dialect());
+            return QueryResultStream.ofQuery(encoding, connection, prepare(context, queryString, bindValues), fetchSize, limits);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeException) {
+                log.warn("Could not close query connection:" + closeException);
+            }
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_UNAVAILABLE, ME, "Could not open query cursor:" + e);
+        }
+    }
+
+    /**
+     * perform an AQL query, the result is cached per user unless it is streamed or paged (its rows are then consumed)
+     * @param aql the normalized and bound expression
+     * @param cacheable
+     * @param limits
+     * @return the result
+     * @throws Exception
+     */
+    private Map<String, Object> queryAql(String aql, boolean cacheable, QueryLimits limits) throws Exception {
+        I_DomainAccess domainAccess = getReadDataAccess();
+        if (!cacheable || !resultCache.isEnabled())
+            return executeAql(domainAccess, aql, limits);
+
+        //results are not shared between users, they may be filtered by the DB security role of the session
+        String key = getAuditSetter().getCommitterUuid() + "|" + aql;
+        Map<String, Object> result = resultCache.get(key);
+        if (result != null)
+            return result;
+
+        long generation = resultCache.generation();
+        result = executeAql(domainAccess, aql, limits);
+        //a replica may not reflect a change committed lately on the primary
+        if (domainAccess == getDataAccess() || getResourceService().getReplicaRouter().isSettled())
+            resultCache.put(key, result, QueryResultCache.referencedEhrs(aql), generation);
+        return result;
+    }
+
+    /**
+     * perform an AQL query, a query on a list of EHRs is split in concurrent partitions if the fan out is enabled
+     * @param domainAccess
+     * @param aql the normalized and bound expression
+     * @param limits
+     * @return the result
+     * @throws Exception
+     */
+    private Map<String, Object> executeAql(I_DomainAccess domainAccess, String aql, QueryLimits limits) throws Exception {
+        if (limits.getMaxCost() > 0) {
+            List<String> statements = QueryLimits.statements(planCache.get(aql, expression -> I_EntryAccess.explainAqlJson(domainAccess, expression)));
+            if (statements.isEmpty())
+                log.warn("No SQL statement found in the translation of AQL, cost not estimated:" + aql);
+            checkCost(domainAccess, limits, statements);
+        }
+
+        Map<String, Object> result;
+        //each partition needs its own pooled connection: not applicable to a session bound to a connection (DB security role)
+        if (fanOut.isEnabled() && isPooled(domainAccess))
+            result = fanOut.query(aql, partition -> limited(domainAccess, limits, access -> I_EntryAccess.queryAqlJson(access, partition)));
+        else
+            result = limited(domainAccess, limits, access -> I_EntryAccess.queryAqlJson(access, aql));
+        checkRows(limits, result);
+        return result;
+    }
+
+    /**
+     * perform a SQL query and return its whole result, a query with parameters runs as a prepared statement
+     * @param sql
+     * @param bindValues values of the '?' placeholders
+     * @param limits
+     * @return the result
+     * @throws Exception
+     */
+    private Map<String, Object> executeSql(String sql, Object[] bindValues, QueryLimits limits) throws Exception {
+        I_DomainAccess domainAccess = getReadDataAccess();
+        checkCost(domainAccess, limits, Collections.singletonList(sql), bindValues);
+        Map<String, Object> result;
+        if (bindValues.length == 0)
+            result = limited(domainAccess, limits, access -> I_EntryAccess.queryJSON(access, sql));
+        else
+            result = limited(domainAccess, limits, access -> preparedQuery(access, sql, bindValues));
+        checkRows(limits, result);
+        return result;
+    }
+
+    /**
+     * build a SQL query run as a prepared statement, the statements are cached per connection by the pool or the
+     * driver: the text of a query with parameters does not change from one call to the other
+     * @param context
+     * @param sql
+     * @param bindValues values of the '?' placeholders
+     * @return the query
+     */
+    private ResultQuery<Record> prepare(DSLContext context, String sql, Object[] bindValues) {
+        if (getResourceService() != null)
+            getResourceService().getStatementStatistics().prepared(sql);
+        return context.resultQuery(sql, bindValues);
+    }
+
+    private Map<String, Object> preparedQuery(I_DomainAccess domainAccess, String sql, Object[] bindValues) throws SQLException {
+        List<Object> resultSet = new ArrayList<>();
+        try (Cursor<Record> records = prepare(domainAccess.getContext(), sql, bindValues).fetchLazy()) {
+            Field<?>[] fields = records.fields();
+            String[] columnTypes = QueryResultStream.columnTypes(records);
+            for (Record record : records)
+                resultSet.add(QueryCursor.toMap(fields, columnTypes, record));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("resultSet", resultSet);
+        return result;
+    }
+
+    private interface DomainQuery {
+        Map<String, Object> query(I_DomainAccess domainAccess) throws Exception;
+    }
+
+    private static boolean isPooled(I_DomainAccess domainAccess) {
+        return domainAccess.getContext().configuration().connectionProvider() instanceof DataSourceConnectionProvider;
+    }
+
+    /**
+     * get the limits of a query for the current user
+     * @param props
+     * @param route post or get
+     * @return the limits
+     * @throws ServiceManagerException
+     */
+    private QueryLimits queryLimits(I_SessionClientProperties props, String route) throws ServiceManagerException {
+        String principal;
+        if (props.getClientProperties().containsKey(Constants.TOKEN_USER_SESSION))
+            principal = props.getClientProperty(Constants.TOKEN_USER_SESSION).getStringValue();
+        else
+            principal = getAuditSetter().getSessionSubjectName(getAuditSetter().getSessionId());
+        return QueryLimits.resolve(this::get, route, principal);
+    }
+
+    /**
+     * perform a query under the statement timeout of its limits, the timeout is set on a connection dedicated to the
+     * query and reset before the connection is given back
+     * @param domainAccess
+     * @param limits
+     * @param query
+     * @return the result
+     * @throws ServiceManagerException USER_QUERY_TIMEOUT if the statement has been cancelled
+     * @throws Exception thrown by the query
+     */
+    private Map<String, Object> limited(I_DomainAccess domainAccess, QueryLimits limits, DomainQuery query) throws Exception {
+        if (limits.getTimeout() <= 0)
+            return query.query(domainAccess);
+
+        try {
+            if (!isPooled(domainAccess)) //already bound to a connection
+                return withStatementTimeout(domainAccess, limits.getTimeout(), query);
+
+            Connection connection = domainAccess.getConnection();
+            try {
+                I_DomainAccess boundAccess = I_DomainAccess.getInstance(domainAccess.getDataAccess());
+                boundAccess.getContext().configuration().set(connection);
+                return withStatementTimeout(boundAccess, limits.getTimeout(), query);
+            } finally {
+                connection.close();
+            }
+        } catch (Exception e) {
+            if (QueryLimits.isCancelled(e))
+                throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_TIMEOUT, ME, "Query cancelled, it exceeded the statement timeout (" + limits.getTimeout() + "s)");
+            throw e;
+        }
+    }
+
+    private Map<String, Object> withStatementTimeout(I_DomainAccess domainAccess, int timeout, DomainQuery query) throws Exception {
+        domainAccess.getContext().execute("SET statement_timeout = " + (timeout * 1000));
+        try {
+            return query.query(domainAccess);
+        } finally {
+            domainAccess.getContext().execute("RESET statement_timeout");
+        }
+    }
+
+    /**
+     * reject a query whose estimated cost exceeds the limit, before it runs
+     * @param domainAccess
+     * @param limits
+     * @param statements the SQL statements performed by the query
+     * @param bindValues values of the '?' placeholders of the statements
+     * @throws ServiceManagerException USER_QUERY_LIMIT if the cost of a statement exceeds the limit
+     */
+    private void checkCost(I_DomainAccess domainAccess, QueryLimits limits, List<String> statements, Object... bindValues) throws ServiceManagerException {
+        if (limits.getMaxCost() <= 0)
+            return;
+        for (String statement : statements) {
+            double cost;
+            try {
+                cost = QueryLimits.totalCost(String.valueOf(domainAccess.getContext().fetch("EXPLAIN (FORMAT JSON) " + statement, bindValues).getValue(0, 0)));
+            } catch (RuntimeException e) {
+                log.warn("Could not estimate query cost:" + e);
+                continue;
+            }
+            if (limits.exceedsCost(cost))
+                throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_LIMIT, ME, "Query estimated cost (" + cost + ") exceeds the limit (" + limits.getMaxCost() + ")");
+        }
+    }
+
+    private void checkRows(QueryLimits limits, Map<String, Object> result) throws ServiceManagerException {
+        Object resultSet = result.get("resultSet");
+        if (resultSet instanceof List && limits.exceedsRows(((List) resultSet).size()))
+            throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_LIMIT, ME, "Query result exceeds the maximum number of rows (" + limits.getMaxRows() + "), please restrict the query");
+    }
+
     @QuerySetting(dialect = {
             @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "POST", method = "post", path = "vehr/query", responseType = ResponseType.Json),
             @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "POST", method = "post", path = "rest/v1/query", responseType = ResponseType.Json)
@@ -133,68 +634,88 @@ public class QueryService extends ServiceDataCluster implements QueryServiceMBea
     public Object query(I_SessionClientProperties props) throws Exception {
         queryProlog(props);
         Boolean explain = props.getClientProperty(I_QueryService.EXPLAIN, false);
-        String sessionId = auditSetter.getSessionId();
+        String sessionId = getAuditSetter().getSessionId();
         QueryMode queryMode = QueryMode.UNDEF;
-        UUID committerUuid = auditSetter.getCommitterUuid();
-        UUID systemUuid = auditSetter.getSystemUuid();
+        UUID committerUuid = getAuditSetter().getCommitterUuid();
+        UUID systemUuid = getAuditSetter().getSystemUuid();
 //
 //        String sessionId = props.getClientProperty(I_SessionManager.SECRET_SESSION_ID_INTERNAL, (String)null);
 
         //get body stuff
-        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        String content = RequestBody.contentAsString(props);
 
         if (content == null)
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Query is not specified (HTTP content is empty)");
 
 //        Map<String, String> kvPairs = FlatJsonUtil.inputStream2Map(new StringReader(new String(content.getBytes())));
-        Map<String, String> kvPairs = extractQuery(new String(content.getBytes()));
+        QueryRequest queryRequest;
+        try {
+            queryRequest = QueryRequest.parse(content);
+        } catch (IllegalArgumentException e) {
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, e.getMessage());
+        }
 
         String queryString;
+        Object[] bindValues = NO_BIND_VALUES;
 
-        if (kvPairs.containsKey(AQL)) {
+        if (queryRequest.getType().equals(AQL)) {
             queryMode = QueryMode.AQL;
-//            queryString = URLDecoder.decode(kvPairs.get(AQL), "UTF-8");
-            queryString = kvPairs.get(AQL);
-        } else if (kvPairs.containsKey(SQL)) {
+            //parameters are substituted in the normalized expression, the plan cache is keyed on the bound expression
+            try {
+                queryString = QueryRequest.bindAql(AqlPlanCache.normalize(queryRequest.getQuery()), queryRequest.getParameters());
+            } catch (IllegalArgumentException e) {
+                throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, e.getMessage());
+            }
+        } else if (queryRequest.getType().equals(SQL)) {
             queryMode = QueryMode.SQL;
-//            queryString = URLDecoder.decode(kvPairs.get(SQL), "UTF-8");
-            queryString = kvPairs.get(SQL);
+            queryString = queryRequest.getQuery();
+            bindValues = queryRequest.getBindValues();
         } else {
             throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "No query parameter supplied");
         }
 
+        String streamEncoding = streamEncoding(props);
+        Integer fetch = fetchParameter(props);
+        if (streamEncoding != null && fetch != null)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "A result is either streamed or fetched by page");
+        QueryLimits limits = queryLimits(props, "post");
+
         //perform the query
         Map<String, Object> result;
 
         switch (queryMode) {
             case SQL:
-                if (allowSQL)
-                    result = I_EntryAccess.queryJSON(getDataAccess(), queryString);
-                else
+                if (!allowSQL)
                     throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "SQL expression is not allowed on this server instance");
+                if (streamEncoding != null)
+                    return streamQuery(streamEncoding, queryString, bindValues, limits);
+                if (fetch != null)
+                    return openQueryCursor(props, fetch, queryString, bindValues, limits);
+                result = executeSql(queryString, bindValues, limits);
                 break;
             case AQL:
                 if (explain)
-                    result = I_EntryAccess.explainAqlJson(getDataAccess(), queryString);
+                    result = planCache.get(queryString, aql -> I_EntryAccess.explainAqlJson(getReadDataAccess(), aql));
                 else
-                    result = I_EntryAccess.queryAqlJson(getDataAccess(), queryString);
+                    result = queryAql(queryString, streamEncoding == null && fetch == null, limits);
                 break;
 
             default:
                 throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "Unknown query expression, should be 'sql=' or 'aql='");
         }
 
+        if (streamEncoding != null && !explain)
+            return QueryResultStream.ofResult(streamEncoding, result);
+
+        if (fetch != null && !explain && result.get("resultSet") instanceof List)
+            return firstPage(props, QueryCursor.ofRows(getAuditSetter().getCommitterUuid(), (List<Object>) result.get("resultSet")), result, fetch);
+
         int resultsetSize = 0;
         if (result.get("resultSet") != null)
             resultsetSize = ((List) result.get("resultSet")).size();
 
-        if (resultsetSize == 0) {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_NO_CONTENT);
-            //build the relative part of the link to the existing last version
-            Map<String, Object> retMap = new HashMap<>();
-            retMap.put("Reason", "Query resultset is empty");
-            return retMap;
-        }
+        if (resultsetSize == 0)
+            return noContent(props);
 
         return result;
 
@@ -211,48 +732,303 @@ public class QueryService extends ServiceDataCluster implements QueryServiceMBea
 
         String sessionId = props.getClientProperty(I_SessionManager.SECRET_SESSION_ID_INTERNAL, (String) null);
 
+        //next page of a paged query
+        String continuation = props.getClientProperty(I_QueryService.CONTINUATION, (String) null);
+        if (continuation != null)
+            return nextPage(props, continuation);
+
         String queryString = props.getClientProperty(I_CompositionService.SQL_QUERY, (String) null);
 
         if (queryString == null) {
             queryString = props.getClientProperty(I_CompositionService.AQL_QUERY, (String) null);
             if (queryString != null) {
+                queryString = AqlPlanCache.normalize(queryString);
                 queryMode = QueryMode.AQL;
             } else
                 throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "No query parameter supplied");
         } else
             queryMode = QueryMode.SQL;
 
+        String streamEncoding = streamEncoding(props);
+        Integer fetch = fetchParameter(props);
+        if (streamEncoding != null && fetch != null)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "A result is either streamed or fetched by page");
+        QueryLimits limits = queryLimits(props, "get");
 
         //perform the query
         Map<String, Object> result;
 
         switch (queryMode) {
             case SQL:
-                if (allowSQL)
-                    result = I_EntryAccess.queryJSON(getDataAccess(), queryString);
-                else
+                if (!allowSQL)
                     throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "SQL expression is not allowed on this server instance");
+                if (streamEncoding != null)
+                    return streamQuery(streamEncoding, queryString, NO_BIND_VALUES, limits);
+                if (fetch != null)
+                    return openQueryCursor(props, fetch, queryString, NO_BIND_VALUES, limits);
+                result = executeSql(queryString, NO_BIND_VALUES, limits);
                 break;
             case AQL:
-                result = I_EntryAccess.queryAqlJson(getDataAccess(), queryString);
+                result = queryAql(queryString, streamEncoding == null && fetch == null, limits);
                 break;
 
             default:
                 throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "Unknown query expression, should be 'sql=' or 'aql='");
         }
 
-        if (result.size() == 0) {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_NO_CONTENT);
-            //build the relative part of the link to the existing last version
-            Map<String, Object> retMap = new HashMap<>();
-            retMap.put("Reason", "Query resultset is empty");
-            return retMap;
-        }
+        if (streamEncoding != null)
+            return QueryResultStream.ofResult(streamEncoding, result);
+
+        if (fetch != null && result.get("resultSet") instanceof List)
+            return firstPage(props, QueryCursor.ofRows(getAuditSetter().getCommitterUuid(), (List<Object>) result.get("resultSet")), result, fetch);
+
+        if (result.size() == 0)
+            return noContent(props);
 
         return result;
 
     }
 
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "delete", path = "vehr/query", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "DELETE", method = "delete", path = "rest/v1/query", responseType = ResponseType.Json)
+    })
+    public Object closeCursor(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+        String continuation = props.getClientProperty(I_QueryService.CONTINUATION, (String) null);
+        if (continuation == null)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "No continuation supplied");
+
+        openCursor(continuation).close();
+
+        Map<String, Object> retMap = new HashMap<>();
+        retMap.put("action", "CLOSED");
+        retMap.put(I_QueryService.CONTINUATION, continuation);
+        return retMap;
+    }
+
+    /**
+     * spool the rows of a result, the job stops if it has been cancelled
+     * @param spool
+     * @param rows
+     * @throws Exception
+     */
+    private void spoolRows(QuerySpool spool, List<?> rows) throws Exception {
+        for (ListIterator<?> iterator = rows.listIterator(); iterator.hasNext(); ) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedException("Query job cancelled");
+            spool.append(gson.toJson(iterator.next()));
+            iterator.set(null); //release the row once spooled
+        }
+    }
+
+    /**
+     * spool a SQL query read from a cursor on a dedicated connection
+     * @param domainAccess the data access of the submitting session
+     * @param owner
+     * @param sql
+     * @param bindValues values of the '?' placeholders
+     * @param limits
+     * @param spool
+     * @throws Exception
+     */
+    private void spoolSql(I_DomainAccess domainAccess, UUID owner, String sql, Object[] bindValues, QueryLimits limits, QuerySpool spool) throws Exception {
+        checkCost(domainAccess, limits, Collections.singletonList(sql), bindValues);
+        Connection connection = domainAccess.getConnection();
+        QueryCursor cursor;
+        try {
+            //a cursor is used only within a transaction
+            connection.setAutoCommit(false);
+            DSLContext context = DSL.using(connection, domainAccess.getContext().configuration().dialect());
+            Cursor<Record> records = prepare(context, sql, bindValues).fetchSize(fetchSize).queryTimeout(limits.getTimeout()).maxRows(limits.getMaxRows()).fetchLazy();
+            cursor = QueryCursor.ofQuery(owner, connection, records);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeException) {
+                log.warn("Could not close query connection:" + closeException);
+            }
+            throw e;
+        }
+
+        try {
+            for (List<Object> rows = cursor.fetch(fetchSize); !rows.isEmpty(); rows = cursor.fetch(fetchSize))
+                spoolRows(spool, rows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * get a job of the current user
+     * @param props
+     * @return the job
+     * @throws ServiceManagerException if the job is unknown, expired or not owned by the user
+     */
+    private QueryJob openJob(I_SessionClientProperties props) throws ServiceManagerException {
+        String jobId = props.getClientProperty(I_QueryService.JOB_ID, (String) null);
+        if (jobId == null)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "No job id supplied");
+        QueryJob job = jobManager.get(jobId);
+        if (job == null || !job.isOwner(getAuditSetter().getCommitterUuid()))
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_NOT_FOUND, ME, "Unknown or expired query job:" + jobId);
+        return job;
+    }
+
+    /**
+     * submit a query performed in the background, the body is the same as for a synchronous query. The job status
+     * is returned at once, its result is retrieved by page once completed.
+     * @param props
+     * @return the job status
+     * @throws Exception
+     */
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "POST", method = "post", path = "vehr/query/job", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "POST", method = "post", path = "rest/v1/query/job", responseType = ResponseType.Json)
+    })
+    public Object submitJob(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+
+        String content = RequestBody.contentAsString(props);
+        if (content == null)
+            throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, ME, "Query is not specified (HTTP content is empty)");
+
+        QueryRequest queryRequest;
+        String queryString;
+        try {
+            queryRequest = QueryRequest.parse(content);
+            if (queryRequest.getType().equals(AQL))
+                queryString = QueryRequest.bindAql(AqlPlanCache.normalize(queryRequest.getQuery()), queryRequest.getParameters());
+            else
+                queryString = queryRequest.getQuery();
+        } catch (IllegalArgumentException e) {
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, e.getMessage());
+        }
+        if (queryRequest.getType().equals(SQL) && !allowSQL)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "SQL expression is not allowed on this server instance");
+
+        //the job runs after the request: capture the session context now, a data access bound to the role of the
+        //session keeps its connection until the job is finished
+        I_DomainAccess domainAccess = getReadDataAccess();
+        Connection retained = isPooled(domainAccess) ? null : domainAccess.getConnection();
+        UUID owner = getAuditSetter().getCommitterUuid();
+        QueryLimits limits = queryLimits(props, "job");
+        Object[] bindValues = queryRequest.getBindValues();
+
+        QueryJob job;
+        if (queryRequest.getType().equals(AQL))
+            job = new QueryJob(owner, AQL, spool -> {
+                Object resultSet = executeAql(domainAccess, queryString, limits).get("resultSet");
+                if (resultSet instanceof List)
+                    spoolRows(spool, (List<?>) resultSet);
+            });
+        else
+            job = new QueryJob(owner, SQL, spool -> spoolSql(domainAccess, owner, queryString, bindValues, limits, spool));
+        job.retain(retained);
+
+        try {
+            jobManager.submit(job);
+        } catch (RejectedExecutionException e) {
+            job.release();
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_TEMPORARY_UNAVAILABLE, ME, e.getMessage());
+        }
+
+        Map<String, Object> retMap = new HashMap<>(job.status());
+        retMap.putAll(MetaBuilder.add2MetaMap(null, "href", Constants.URI_TAG + "/" + job.getId()));
+        return retMap;
+    }
+
+    /**
+     * get the status of a job, with wait=n the call returns when the job is finished or after n seconds
+     * @param props
+     * @return the job status
+     * @throws Exception
+     */
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "get", path = "vehr/query/job", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "GET", method = "get", path = "rest/v1/query/job", responseType = ResponseType.Json)
+    })
+    public Object jobStatus(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+        QueryJob job = openJob(props);
+
+        String wait = props.getClientProperty(I_QueryService.WAIT, (String) null);
+        if (wait != null) {
+            try {
+                job.await(Math.min(Long.parseLong(wait), jobMaxWait) * 1000);
+            } catch (NumberFormatException e) {
+                throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "Invalid wait:" + wait);
+            }
+        }
+
+        return job.status();
+    }
+
+    /**
+     * get a page of the result of a completed job: offset=n (default 0), fetch=n (default fetch size) and
+     * stream=json|ndjson (default json)
+     * @param props
+     * @return the page
+     * @throws Exception
+     */
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "get", path = "vehr/query/job/result", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "GET", method = "get", path = "rest/v1/query/job/result", responseType = ResponseType.Json)
+    })
+    public Object jobResult(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+        QueryJob job = openJob(props);
+
+        switch (job.getState()) {
+            case QUEUED:
+            case RUNNING:
+                throw new ServiceManagerException(global, SysErrorCode.RESOURCE_TEMPORARY_UNAVAILABLE, ME, "Query job is not completed:" + job.getId());
+            case COMPLETED:
+                break;
+            default:
+                Object error = job.status().get("error");
+                throw new ServiceManagerException(global, SysErrorCode.RESOURCE_NOT_FOUND, ME, "Query job " + job.getId() + " is " + job.getState() + (error != null ? ":" + error : ""));
+        }
+
+        String encoding = streamEncoding(props);
+        Integer fetch = fetchParameter(props);
+        String offset = props.getClientProperty(I_QueryService.OFFSET, "0");
+        long first;
+        try {
+            first = Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            first = -1;
+        }
+        if (first < 0)
+            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, ME, "Invalid offset:" + offset);
+
+        return new QueryJobPage(job.getId(), job.getSpool(), first, fetch != null ? fetch : fetchSize, encoding != null ? encoding : QueryResultStream.JSON);
+    }
+
+    /**
+     * cancel a queued or running job, a finished job is removed with its result
+     * @param props
+     * @return the job status
+     * @throws Exception
+     */
+    @QuerySetting(dialect = {
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.STANDARD, httpMethod = "GET", method = "delete", path = "vehr/query/job", responseType = ResponseType.Json),
+            @QuerySyntax(mode = I_ServiceRunMode.DialectSpace.EHRSCAPE, httpMethod = "DELETE", method = "delete", path = "rest/v1/query/job", responseType = ResponseType.Json)
+    })
+    public Object deleteJob(I_SessionClientProperties props) throws Exception {
+        queryProlog(props);
+        QueryJob job = openJob(props);
+
+        Map<String, Object> retMap = new HashMap<>(job.status());
+        if (job.cancel())
+            retMap.put("action", "CANCELLED");
+        else {
+            jobManager.remove(job.getId());
+            retMap.put("action", "DELETED");
+        }
+        return retMap;
+    }
+
     /**
      * utility to get a query not necessarily encoded from a pseudo json construct
      * {sql:"SQL expression with colon and quotes"}
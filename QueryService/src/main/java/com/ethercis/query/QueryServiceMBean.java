@@ -43,4 +43,17 @@ public interface QueryServiceMBean extends BuildMetaData {
     String getType();
     String getVersion();
     boolean getAllowSQL();
+    int getOpenCursors();
+    long getAqlCacheHits();
+    long getAqlCacheMisses();
+    int getAqlCacheSize();
+    void invalidateAqlCache();
+    long getResultCacheHits();
+    long getResultCacheMisses();
+    long getResultCacheInvalidations();
+    int getResultCacheSize();
+    void invalidateResultCache();
+    long getFannedOutQueries();
+    int getQueryJobs();
+    int getRunningQueryJobs();
 }
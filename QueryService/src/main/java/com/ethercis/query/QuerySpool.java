@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Result of a query job spooled to a local file<p>
+ * Rows are appended as JSON lines (NDJSON). The byte offset of every STRIDE-th row is kept in a sparse index so that
+ * a page is located without reading the rows before it. Pages are read through memory mapped windows of the file,
+ * the spool can be read concurrently once it is complete.
+ */
+class QuerySpool {
+
+    static final int STRIDE = 256;
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    private final Path file;
+    private OutputStream writer;
+    private long length = 0;
+    private long rows = 0;
+    private long[] index = new long[16]; //offset of rows 0, STRIDE, 2*STRIDE...
+
+    /**
+     * create the spool file
+     * @param file
+     * @throws IOException
+     */
+    QuerySpool(Path file) throws IOException {
+        this.file = file;
+        this.writer = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * append a row
+     * @param json the row serialized as a single line JSON object
+     * @throws IOException
+     */
+    synchronized void append(String json) throws IOException {
+        if (rows % STRIDE == 0) {
+            int slot = (int) (rows / STRIDE);
+            if (slot == index.length)
+                index = Arrays.copyOf(index, slot * 2);
+            index[slot] = length;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        writer.write(bytes);
+        writer.write('\n');
+        length += bytes.length + 1;
+        rows++;
+    }
+
+    /**
+     * no more rows, the spool is closed for writing
+     * @throws IOException
+     */
+    synchronized void complete() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    synchronized long getRows() {
+        return rows;
+    }
+
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * write a page of rows
+     * @param offset index of the first row
+     * @param size maximum number of rows
+     * @param out
+     * @param separator written between two rows (f.ex. "," in a JSON array, "\n" for NDJSON)
+     * @return the number of rows written
+     * @throws IOException
+     */
+    int writePage(long offset, int size, OutputStream out, byte[] separator) throws IOException {
+        long start;
+        long end;
+        synchronized (this) {
+            if (writer != null)
+                throw new IllegalStateException("Query spool is not complete");
+            if (offset >= rows || size <= 0)
+                return 0;
+            start = index[(int) (offset / STRIDE)];
+            end = length;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedRows reader = new MappedRows(channel, start, end);
+            //skip the rows between the indexed row and the first row of the page
+            for (long skip = offset % STRIDE; skip > 0; skip--)
+                reader.skipLine();
+
+            int written = 0;
+            while (written < size && reader.hasMore()) {
+                if (written > 0)
+                    out.write(separator);
+                reader.copyLine(out);
+                written++;
+            }
+            return written;
+        }
+    }
+
+    void delete() {
+        try {
+            complete();
+        } catch (IOException e) {
+            //deleted anyway
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * sequential reader of lines over memory mapped windows
+     */
+    private static class MappedRows {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private MappedByteBuffer window;
+        private final byte[] slice = new byte[8192]; //bytes of a line written at once
+
+        private MappedRows(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        private int next() throws IOException {
+            if (position >= end)
+                return -1;
+            mapWindow();
+            position++;
+            return window.get();
+        }
+
+        private void mapWindow() throws IOException {
+            if (window == null || !window.hasRemaining())
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, end - position));
+        }
+
+        void skipLine() throws IOException {
+            int b;
+            while ((b = next()) != -1 && b != '\n')
+                ;
+        }
+
+        void copyLine(OutputStream out) throws IOException {
+            while (position < end) {
+                mapWindow();
+                int length = 0;
+                boolean endOfLine = false;
+                while (length < slice.length && window.hasRemaining()) {
+                    byte b = window.get();
+                    position++;
+                    if (b == '\n') {
+                        endOfLine = true;
+                        break;
+                    }
+                    slice[length++] = b;
+                }
+                out.write(slice, 0, length);
+                if (endOfLine)
+                    return;
+            }
+        }
+    }
+}
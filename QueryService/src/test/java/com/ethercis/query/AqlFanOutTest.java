@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class AqlFanOutTest extends TestCase {
+
+    private static String cohort(int size) {
+        StringJoiner ehrIds = new StringJoiner(", ");
+        for (int i = 0; i < size; i++)
+            ehrIds.add("'" + new UUID(0, i) + "'");
+        return "select e/ehr_id/value as id from EHR e contains COMPOSITION c where e/ehr_id/value matches {" + ehrIds + "}";
+    }
+
+    public void testPartition() {
+        List<String> partitions = AqlFanOut.partition(cohort(10), 4, 2);
+        assertEquals(4, partitions.size());
+        //EHRs are dealt round robin
+        assertTrue(partitions.get(0).contains("{'" + new UUID(0, 0) + "', '" + new UUID(0, 4) + "', '" + new UUID(0, 8) + "'}"));
+        assertTrue(partitions.get(3).contains("{'" + new UUID(0, 3) + "', '" + new UUID(0, 7) + "'}"));
+
+        //too small a cohort
+        assertNull(AqlFanOut.partition(cohort(3), 4, 2));
+        //not a union of the partitions
+        assertNull(AqlFanOut.partition(cohort(10) + " order by id", 4, 2));
+        assertNull(AqlFanOut.partition(cohort(10).replace("select e/ehr_id/value", "select count(e/ehr_id/value)"), 4, 2));
+        assertNull(AqlFanOut.partition(cohort(10) + " or c/name/value = 'x'", 4, 2));
+        assertNull(AqlFanOut.partition("select c from EHR e contains COMPOSITION c", 4, 2));
+    }
+
+    public void testPartitionDuplicates() {
+        String aql = cohort(4).replace("}", ", '" + new UUID(0, 0) + "', '" + new UUID(0, 1) + "'}");
+        //4 distinct EHRs: 2 partitions, each EHR is queried once
+        List<String> partitions = AqlFanOut.partition(aql, 3, 2);
+        assertEquals(2, partitions.size());
+        assertTrue(partitions.get(0).contains("{'" + new UUID(0, 0) + "', '" + new UUID(0, 2) + "'}"));
+        assertTrue(partitions.get(1).contains("{'" + new UUID(0, 1) + "', '" + new UUID(0, 3) + "'}"));
+    }
+
+    public void testQueryMergesPartitions() throws Exception {
+        AqlFanOut fanOut = new AqlFanOut(3, 2);
+        try {
+            Map<String, Object> result = fanOut.query(cohort(6), aql -> {
+                Map<String, Object> partial = new HashMap<>();
+                partial.put("executedAQL", aql);
+                partial.put("resultSet", new ArrayList<>(Collections.singletonList(aql.substring(aql.indexOf('{')))));
+                return partial;
+            });
+            assertEquals(cohort(6), result.get("executedAQL"));
+            assertEquals(3, ((List) result.get("resultSet")).size());
+            assertEquals(1, fanOut.getFannedOut());
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+
+    public void testQueryPropagatesFailure() {
+        AqlFanOut fanOut = new AqlFanOut(2, 1);
+        try {
+            fanOut.query(cohort(2), aql -> {
+                throw new IllegalArgumentException("partition failed");
+            });
+            fail("exception expected");
+        } catch (Exception e) {
+            assertEquals("partition failed", e.getMessage());
+        } finally {
+            fanOut.shutdown();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AqlPlanCacheTest extends TestCase {
+
+    public void testNormalize() {
+        assertEquals("select e/ehr_id/value from EHR e", AqlPlanCache.normalize("  select  e/ehr_id/value\n\tfrom EHR e ;\n"));
+        //literals are kept as is
+        assertEquals("select c from EHR e contains COMPOSITION c where c/name/value = 'Vital  signs'",
+                AqlPlanCache.normalize("select c from EHR e\ncontains COMPOSITION c where c/name/value = 'Vital  signs'"));
+    }
+
+    public void testCacheHitsAndEviction() throws Exception {
+        AqlPlanCache cache = new AqlPlanCache(2);
+        AtomicInteger compilations = new AtomicInteger();
+        AqlPlanCache.Compiler compiler = aql -> {
+            compilations.incrementAndGet();
+            return Collections.<String, Object>singletonMap("aql", aql);
+        };
+
+        Map<String, Object> plan = cache.get("q1", compiler);
+        assertSame(plan, cache.get("q1", compiler));
+        cache.get("q2", compiler);
+        cache.get("q1", compiler); //q2 is now the eldest
+        cache.get("q3", compiler);
+        assertEquals(2, cache.size());
+        cache.get("q2", compiler); //evicted, compiled again
+
+        assertEquals(4, compilations.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+
+        cache.invalidate();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class QueryCursorRegistryTest extends TestCase {
+
+    private List<Object> rows(int count) {
+        List<Object> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            rows.add("row" + i);
+        return rows;
+    }
+
+    public void testPageThroughRows() {
+        QueryCursorRegistry registry = new QueryCursorRegistry(4, 60000);
+        UUID owner = UUID.randomUUID();
+        QueryCursor cursor = QueryCursor.ofRows(owner, rows(5));
+
+        assertEquals(Arrays.asList("row0", "row1"), cursor.fetch(2));
+        String continuation = registry.register(cursor);
+        assertEquals(1, registry.size());
+
+        QueryCursor next = registry.get(continuation);
+        assertSame(cursor, next);
+        assertTrue(next.isOwner(owner));
+        assertFalse(next.isOwner(UUID.randomUUID()));
+        assertEquals(Arrays.asList("row2", "row3"), next.fetch(2));
+        assertTrue(next.hasMore());
+        assertEquals(Arrays.asList("row4"), next.fetch(2));
+        assertFalse(next.hasMore());
+
+        next.close();
+        assertNull(registry.get(continuation));
+        assertEquals(0, registry.size());
+        registry.shutdown();
+    }
+
+    public void testRegistryIsBounded() {
+        QueryCursorRegistry registry = new QueryCursorRegistry(1, 60000);
+        registry.register(QueryCursor.ofRows(null, rows(2)));
+        try {
+            registry.register(QueryCursor.ofRows(null, rows(2)));
+            fail("registry should be full");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        registry.shutdown();
+        assertEquals(0, registry.size());
+    }
+
+    public void testCursorExpires() throws InterruptedException {
+        QueryCursorRegistry registry = new QueryCursorRegistry(4, 50);
+        String continuation = registry.register(QueryCursor.ofRows(null, rows(2)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.size() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertNull(registry.get(continuation));
+        registry.shutdown();
+    }
+}
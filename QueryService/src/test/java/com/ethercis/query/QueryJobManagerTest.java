@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+public class QueryJobManagerTest extends TestCase {
+
+    private Path directory;
+    private QueryJobManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("jobs");
+        manager = new QueryJobManager(1, 1, 3, directory, 60000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.shutdown();
+        Files.deleteIfExists(directory);
+    }
+
+    public void testCompletedJob() throws Exception {
+        QueryJob job = new QueryJob(null, "aql", spool -> {
+            for (int i = 0; i < 3; i++)
+                spool.append("{\"n\":" + i + "}");
+        });
+        manager.submit(job);
+        assertTrue(job.await(5000));
+        assertEquals(QueryJob.State.COMPLETED, job.getState());
+        assertEquals(3L, job.status().get("rows"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        job.getSpool().writePage(1, 10, out, new byte[]{','});
+        assertEquals("{\"n\":1},{\"n\":2}", out.toString("UTF-8"));
+
+        manager.remove(job.getId());
+        assertNull(manager.get(job.getId()));
+        assertFalse(Files.exists(directory.resolve(job.getId() + ".ndjson")));
+    }
+
+    public void testFailedJob() throws Exception {
+        QueryJob job = new QueryJob(null, "aql", spool -> {
+            throw new IllegalArgumentException("invalid query");
+        });
+        manager.submit(job);
+        assertTrue(job.await(5000));
+        assertEquals(QueryJob.State.FAILED, job.getState());
+        assertEquals("invalid query", job.status().get("error"));
+        assertNull(job.getSpool());
+    }
+
+    public void testCancelAndCapacity() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        QueryJob blocked = new QueryJob(null, "aql", spool -> {
+            running.countDown();
+            new CountDownLatch(1).await();
+        });
+        QueryJob queued = new QueryJob(null, "aql", spool -> {});
+        manager.submit(blocked);
+        running.await();
+        manager.submit(queued);
+
+        //one thread, one queued job
+        try {
+            manager.submit(new QueryJob(null, "aql", spool -> {}));
+            fail("queue is full");
+        } catch (RejectedExecutionException e) {
+            //expected
+        }
+
+        assertTrue(queued.cancel());
+        assertTrue(queued.await(0));
+        assertTrue(blocked.cancel());
+        assertTrue(blocked.await(5000));
+        assertEquals(QueryJob.State.CANCELLED, blocked.getState());
+        assertFalse(blocked.cancel());
+    }
+}
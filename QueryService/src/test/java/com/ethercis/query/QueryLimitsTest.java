@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.sql.SQLException;
+import java.util.*;
+
+public class QueryLimitsTest extends TestCase {
+
+    public void testResolve() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("server.query.limit.timeout", "30");
+        properties.put("server.query.limit.max_rows", "1000");
+        properties.put("server.query.limit.route.get.timeout", "10");
+        properties.put("server.query.limit.principal.batch.timeout", "600");
+        properties.put("server.query.limit.principal.batch.max_cost", "1e6");
+
+        QueryLimits limits = QueryLimits.resolve(properties::getOrDefault, "post", "guest");
+        assertEquals(30, limits.getTimeout());
+        assertEquals(1000, limits.getMaxRows());
+        assertEquals(0.0, limits.getMaxCost());
+        assertFalse(limits.exceedsCost(1e9)); //not enforced
+
+        assertEquals(10, QueryLimits.resolve(properties::getOrDefault, "get", null).getTimeout());
+
+        limits = QueryLimits.resolve(properties::getOrDefault, "get", "batch");
+        assertEquals(600, limits.getTimeout());
+        assertTrue(limits.exceedsCost(2e6));
+        assertTrue(limits.exceedsRows(1001));
+        assertFalse(limits.exceedsRows(1000));
+    }
+
+    public void testStatementsAndCost() {
+        Map<String, Object> plan = new HashMap<>();
+        plan.put("executedAQL", "select e/ehr_id/value from EHR e");
+        plan.put("explain", Arrays.asList(Arrays.asList("SELECT ehr.id FROM ehr.ehr", "ehr_id")));
+        assertEquals(Collections.singletonList("SELECT ehr.id FROM ehr.ehr"), QueryLimits.statements(plan));
+
+        String explain = "[{\"Plan\": {\"Node Type\": \"Seq Scan\", \"Startup Cost\": 0.00, \"Total Cost\": 1234.5, \"Plans\": [{\"Total Cost\": 10.0}]}}]";
+        assertEquals(1234.5, QueryLimits.totalCost(explain));
+        assertEquals(-1.0, QueryLimits.totalCost("[]"));
+    }
+
+    public void testIsCancelled() {
+        SQLException cancelled = new SQLException("ERROR: canceling statement due to user request", "57014");
+        assertTrue(QueryLimits.isCancelled(new RuntimeException("query failed", cancelled)));
+        assertTrue(QueryLimits.isCancelled(new IllegalArgumentException("ERROR: canceling statement due to statement timeout")));
+        assertFalse(QueryLimits.isCancelled(new RuntimeException("syntax error", new SQLException("syntax", "42601"))));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueryRequestTest extends TestCase {
+
+    public void testParseWithParameters() {
+        QueryRequest request = QueryRequest.parse("{\"aql\": \"select e/ehr_id/value from EHR e[ehr_id/value = $ehrId]\", " +
+                "\"query_parameters\": {\"ehrId\": \"bb872277-40c4-44fb-8691-530be31e1ee9\", \"limit\": 10}}");
+
+        assertEquals("aql", request.getType());
+        assertEquals("select e/ehr_id/value from EHR e[ehr_id/value = $ehrId]", request.getQuery());
+        assertEquals("bb872277-40c4-44fb-8691-530be31e1ee9", request.getParameters().get("ehrId"));
+        assertEquals("10", request.getParameters().get("limit").toString());
+    }
+
+    public void testParseSqlBindValues() {
+        QueryRequest request = QueryRequest.parse("{\"sql\": \"select id from ehr.ehr where id = ?::uuid and date_created > ?\", " +
+                "\"query_parameters\": [\"bb872277-40c4-44fb-8691-530be31e1ee9\", null, 3]}");
+
+        assertEquals("sql", request.getType());
+        assertTrue(request.hasParameters());
+        assertTrue(request.getParameters().isEmpty());
+        Object[] values = request.getBindValues();
+        assertEquals(3, values.length);
+        assertEquals("bb872277-40c4-44fb-8691-530be31e1ee9", values[0]);
+        assertNull(values[1]);
+        assertEquals("3", values[2].toString());
+
+        try {
+            QueryRequest.parse("{\"sql\": \"select 1\", \"query_parameters\": {\"id\": 1}}");
+            fail("sql parameters are positional");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("array"));
+        }
+    }
+
+    public void testParsePseudoJson() {
+        //unescaped quotes, not valid JSON
+        QueryRequest request = QueryRequest.parse("{\"sql\":\"select \"ehr\".\"id\" from \"ehr\".\"ehr\"\"}");
+        assertEquals("sql", request.getType());
+        assertFalse(request.hasParameters());
+    }
+
+    public void testBindAql() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("ehrId", "bb872277-40c4-44fb-8691-530be31e1ee9");
+        parameters.put("name", "Smith");
+        parameters.put("codes", Arrays.<Object>asList("at0001", "at0002"));
+        parameters.put("systolic", 140);
+
+        assertEquals("select c from EHR e[ehr_id/value = 'bb872277-40c4-44fb-8691-530be31e1ee9'] contains COMPOSITION c " +
+                        "where c/composer/name = 'Smith' and c/name/value = '$notAParameter' and c/category/defining_code/code_string matches {'at0001','at0002'} and o/value/magnitude > 140",
+                QueryRequest.bindAql("select c from EHR e[ehr_id/value = $ehrId] contains COMPOSITION c " +
+                        "where c/composer/name = $name and c/name/value = '$notAParameter' and c/category/defining_code/code_string matches {$codes} and o/value/magnitude > $systolic",
+                        parameters));
+    }
+
+    public void testParameterInjection() {
+        for (String value : new String[]{"O'Brien", "x' or '1'='1", "x\\' or 1=1 or c/name/value = '"}) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("name", value);
+            try {
+                QueryRequest.bindAql("select c from EHR e contains COMPOSITION c where c/composer/name = $name", parameters);
+                fail("quote or backslash should be rejected:" + value);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("name"));
+            }
+        }
+    }
+
+    public void testMissingParameter() {
+        try {
+            QueryRequest.bindAql("select e from EHR e[ehr_id/value = $ehrId]", new HashMap<String, Object>());
+            fail("missing parameter should be reported");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("ehrId"));
+        }
+    }
+}
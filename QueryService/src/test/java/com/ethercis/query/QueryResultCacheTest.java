@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class QueryResultCacheTest extends TestCase {
+
+    private static final UUID EHR1 = UUID.fromString("2b8fbd4c-5ae5-4f1b-9b32-2a6f0b52f8a1");
+    private static final UUID EHR2 = UUID.fromString("8c2e0a14-41b4-4c7d-a1d6-bd52cbd3c2f0");
+
+    private static Map<String, Object> result(int rows) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("resultSet", new ArrayList<>(Collections.nCopies(rows, "row")));
+        return result;
+    }
+
+    public void testReferencedEhrs() {
+        assertEquals(Collections.singleton(EHR1),
+                QueryResultCache.referencedEhrs("select c from EHR e [ehr_id/value='" + EHR1 + "'] contains COMPOSITION c"));
+        assertEquals(new HashSet<>(Arrays.asList(EHR1, EHR2)),
+                QueryResultCache.referencedEhrs("select c from EHR e contains COMPOSITION c where e/ehr_id/value matches {'" + EHR1 + "', '" + EHR2 + "'}"));
+        //population queries
+        assertNull(QueryResultCache.referencedEhrs("select c from EHR e contains COMPOSITION c"));
+        assertNull(QueryResultCache.referencedEhrs("select c from EHR e contains COMPOSITION c where e/ehr_id/value = '" + EHR1 + "' or c/name/value = 'x'"));
+        assertNull(QueryResultCache.referencedEhrs("select c from EHR e contains COMPOSITION c where e/ehr_id/value != '" + EHR1 + "'"));
+        //keywords in literals are ignored
+        assertEquals(Collections.singleton(EHR1),
+                QueryResultCache.referencedEhrs("select c from EHR e contains COMPOSITION c where e/ehr_id/value = '" + EHR1 + "' and c/name/value = 'this or that'"));
+    }
+
+    public void testInvalidationByEhr() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        cache.put("q1", result(1), Collections.singleton(EHR1), cache.generation());
+        cache.put("q2", result(1), Collections.singleton(EHR2), cache.generation());
+        cache.put("q3", result(1), null, cache.generation());
+        assertEquals(3, cache.size());
+
+        cache.invalidate(EHR1);
+        assertNull(cache.get("q1"));
+        assertNotNull(cache.get("q2"));
+        assertNull(cache.get("q3")); //population query
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        cache.invalidate();
+        assertEquals(0, cache.size());
+    }
+
+    public void testStaleResultIsNotStored() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        long generation = cache.generation();
+        cache.invalidate(EHR2); //a write occurs while the query is running
+        cache.put("q1", result(1), Collections.singleton(EHR1), generation);
+        assertEquals(0, cache.size());
+    }
+
+    public void testBounds() {
+        final long[] clock = {0};
+        QueryResultCache cache = new QueryResultCache(2, 10, 1000) {
+            @Override
+            long now() {
+                return clock[0];
+            }
+        };
+        cache.put("large", result(11), null, cache.generation());
+        assertEquals(0, cache.size());
+
+        cache.put("q1", result(1), Collections.singleton(EHR1), cache.generation());
+        cache.put("q2", result(1), Collections.singleton(EHR1), cache.generation());
+        cache.put("q3", result(1), Collections.singleton(EHR2), cache.generation());
+        assertEquals(2, cache.size());
+        assertNull(cache.get("q1")); //evicted
+
+        clock[0] = 1000;
+        assertNull(cache.get("q2")); //expired
+        assertEquals(1, cache.size());
+    }
+}
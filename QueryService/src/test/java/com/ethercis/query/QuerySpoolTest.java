@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Ripple Foundation CIC Ltd, UK, 2017
+ * Author: Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.query;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class QuerySpoolTest extends TestCase {
+
+    private Path directory;
+    private QuerySpool spool;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("spool");
+        spool = new QuerySpool(directory.resolve("job.ndjson"));
+        for (int i = 0; i < 1000; i++)
+            spool.append("{\"n\":" + i + "}");
+        spool.complete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        spool.delete();
+        Files.deleteIfExists(directory);
+    }
+
+    private String page(long offset, int size, String separator) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.writePage(offset, size, out, separator.getBytes(StandardCharsets.UTF_8));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public void testPages() throws Exception {
+        assertEquals(1000, spool.getRows());
+        assertEquals("{\"n\":0},{\"n\":1}", page(0, 2, ","));
+        //page across an index stride
+        assertEquals("{\"n\":255}\n{\"n\":256}\n{\"n\":257}", page(QuerySpool.STRIDE - 1, 3, "\n"));
+        //last page is truncated
+        assertEquals("{\"n\":998},{\"n\":999}", page(998, 10, ","));
+        assertEquals("", page(1000, 10, ","));
+    }
+
+    public void testLongRow() throws Exception {
+        QuerySpool longSpool = new QuerySpool(directory.resolve("long.ndjson"));
+        try {
+            StringBuilder row = new StringBuilder("{\"text\":\"");
+            while (row.length() < 20000)
+                row.append("0123456789");
+            row.append("\"}");
+            longSpool.append(row.toString());
+            longSpool.append("{\"n\":1}");
+            longSpool.complete();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, longSpool.writePage(0, 2, out, new byte[]{','}));
+            assertEquals(row + ",{\"n\":1}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            longSpool.delete();
+        }
+    }
+
+    public void testDelete() throws Exception {
+        spool.delete();
+        assertFalse(Files.exists(directory.resolve("job.ndjson")));
+    }
+}
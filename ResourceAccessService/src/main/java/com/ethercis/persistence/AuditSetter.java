@@ -26,6 +26,7 @@ import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.identification.IdentificationDef;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
+import org.jooq.exception.DataAccessException;
 
 import java.util.UUID;
 
@@ -38,6 +39,7 @@ public class AuditSetter implements I_AuditSetter {
     String DESCRIPTION = "description";
     private IdentificationDef identificationDef;
     private RunTimeSingleton global;
+    private IdentityCache identityCache; //null if identities are not cached
 
     String committerId;
     String committerName;
@@ -52,6 +54,15 @@ public class AuditSetter implements I_AuditSetter {
         this.identificationDef = new IdentificationDef(global);
     }
 
+    /**
+     * @param global
+     * @param identityCache committers and systems already resolved, may be null
+     */
+    public AuditSetter(RunTimeSingleton global, IdentityCache identityCache) {
+        this(global);
+        this.identityCache = identityCache;
+    }
+
     @Override
     public AuditSetter handleProperties(I_DomainAccess domainAccess, I_SessionClientProperties props) throws ServiceManagerException {
         if (props.getClientProperties().containsKey(I_SessionManager.BYPASS_CREDENTIAL)){
@@ -77,6 +88,13 @@ public class AuditSetter implements I_AuditSetter {
     //TODO: refactor into IdentificationService
     @Override
     public UUID getCommitter(I_DomainAccess domainAccess, String name, String id) {
+        if (identityCache != null)
+            return identityCache.committer(name, id, identificationDef.getIdenficationScheme(), identificationDef.getIdendificationNamespace(),
+                    () -> resolveCommitter(domainAccess, name, id));
+        return resolveCommitter(domainAccess, name, id);
+    }
+
+    private UUID resolveCommitter(I_DomainAccess domainAccess, String name, String id) {
         UUID committerId = I_PartyIdentifiedAccess.getOrCreatePartyByExternalRef(domainAccess, name, id,
                 identificationDef.getIdenficationScheme(),
                 identificationDef.getIdendificationNamespace(),
@@ -107,6 +125,12 @@ public class AuditSetter implements I_AuditSetter {
     //this is to avoid circular references
     @Override
     public UUID getOrCreateSystemId(I_DomainAccess domainAccess, String description, String systemAddress) {
+        if (identityCache != null)
+            return identityCache.system(systemAddress, () -> resolveSystemId(domainAccess, description, systemAddress));
+        return resolveSystemId(domainAccess, description, systemAddress);
+    }
+
+    private UUID resolveSystemId(I_DomainAccess domainAccess, String description, String systemAddress) {
         UUID systemId = null;
         try {
             systemId = I_SystemAccess.retrieveInstanceId(domainAccess, systemAddress);
@@ -118,6 +142,8 @@ public class AuditSetter implements I_AuditSetter {
             try {
                 I_SystemAccess systemAccess = I_SystemAccess.getInstance(domainAccess, description, systemAddress);
                 systemId = systemAccess.commit();
+            } catch (DataAccessException e) { //DB failure, not an invalid identity
+                throw e;
             } catch (Exception e) {
                 throw new IllegalArgumentException("Could not create client with settings:" + systemAddress);
             }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.servicemanager.common.LatencyHistogram;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool used in 'jooq_hikari' mode<p>
+ * Connections are borrowed without locking in the common case and validated only if idle for a while, instead of on
+ * each borrow. Connections are retired after a max lifetime, idle connections are kept alive and a connection held
+ * longer than the leak detection threshold is reported in the log.<p>
+ * Configuration (services.properties):
+ * <ul>
+ *     <li>server.persistence.hikari.max_size: max number of connections (default 10)</li>
+ *     <li>server.persistence.hikari.min_idle: min number of idle connections (default max_size)</li>
+ *     <li>server.persistence.hikari.connection_timeout: max time in ms to wait for a connection (default 30000)</li>
+ *     <li>server.persistence.hikari.idle_timeout: time in seconds an idle connection above min_idle is kept (default 600)</li>
+ *     <li>server.persistence.hikari.max_lifetime: max lifetime in seconds of a connection (default 1800)</li>
+ *     <li>server.persistence.hikari.keepalive: interval in seconds idle connections are checked, 0 to disable (default 0)</li>
+ *     <li>server.persistence.hikari.leak_detection: time in seconds after which a borrowed connection is reported as
+ *     leaked, 0 to disable (default 0)</li>
+ * </ul>
+ */
+public class ConnectionPool implements ConnectionPoolMBean {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final HikariDataSource dataSource;
+    private final LatencyHistogram borrowLatency = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * create the pool, connections are opened at once up to min_idle
+     * @param config the pool configuration
+     */
+    public ConnectionPool(HikariConfig config) {
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                borrowLatency.record(TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        });
+        dataSource = new HikariDataSource(config);
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void close() {
+        dataSource.close();
+    }
+
+    private HikariPoolMXBean pool() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return pool().getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return pool().getIdleConnections();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return pool().getTotalConnections();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        return pool().getThreadsAwaitingConnection();
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowLatency.count();
+    }
+
+    @Override
+    public String getBorrowLatency() {
+        long[] percentiles = borrowLatency.percentiles(QUANTILES);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < QUANTILES.length; i++)
+            sb.append("p").append((int) (QUANTILES[i] * 100)).append("=").append(percentiles[i]).append("us, ");
+        sb.append("max=").append(borrowLatency.max()).append("us");
+        return sb.toString();
+    }
+
+    @Override
+    public void resetBorrowLatency() {
+        borrowLatency.reset();
+    }
+
+    @Override
+    public void softEvictConnections() {
+        pool().softEvictConnections();
+    }
+
+    @Override
+    public String settings() {
+        return "max_size=" + dataSource.getMaximumPoolSize() +
+                ", min_idle=" + dataSource.getMinimumIdle() +
+                ", connection_timeout=" + dataSource.getConnectionTimeout() + "ms" +
+                ", idle_timeout=" + dataSource.getIdleTimeout() + "ms" +
+                ", max_lifetime=" + dataSource.getMaxLifetime() + "ms" +
+                ", keepalive=" + dataSource.getKeepaliveTime() + "ms" +
+                ", leak_detection=" + dataSource.getLeakDetectionThreshold() + "ms";
+    }
+}
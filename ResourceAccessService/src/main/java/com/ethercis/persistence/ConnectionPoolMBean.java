@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+/**
+ * Metrics of the connection pool used in 'jooq_hikari' mode
+ */
+public interface ConnectionPoolMBean {
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    /**
+     * @return the number of threads waiting for a connection
+     */
+    int getThreadsAwaitingConnection();
+
+    /**
+     * @return the number of borrows that timed out
+     */
+    long getConnectionTimeouts();
+
+    long getBorrowCount();
+
+    /**
+     * @return the percentiles of the time to borrow a connection, in microseconds
+     */
+    String getBorrowLatency();
+
+    void resetBorrowLatency();
+
+    /**
+     * retire the idle connections now, the borrowed ones once returned
+     */
+    void softEvictConnections();
+
+    String settings();
+}
@@ -32,7 +32,17 @@ public class DataAccessExceptionMessage {
     }
 
     public String error() {
+        return error(exception);
+    }
+
+    /**
+     * @param exception
+     * @return the DB error part of the exception message
+     */
+    public static String error(Exception exception) {
         String errorMsg = exception.getMessage();
+        if (errorMsg == null)
+            return exception.toString();
         if (errorMsg.contains("ERROR"))
             return errorMsg.substring(errorMsg.indexOf("ERROR"));
         else
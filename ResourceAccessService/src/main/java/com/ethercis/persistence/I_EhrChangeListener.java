@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import java.util.UUID;
+
+/**
+ * Notified when the content of an EHR has been committed (composition created, updated or deleted, status updated),
+ * f.ex. to drop the query results referencing this EHR
+ */
+public interface I_EhrChangeListener {
+    /**
+     * @param ehrId the modified EHR, null if not identified
+     */
+    void ehrChanged(UUID ehrId);
+}
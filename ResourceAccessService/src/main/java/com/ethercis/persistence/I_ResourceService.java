@@ -19,10 +19,54 @@ package com.ethercis.persistence;
 
 import com.ethercis.dao.access.interfaces.I_DomainAccess;
 
+import java.util.UUID;
+
 /**
  * ETHERCIS Project VirtualEhr
  * Created by Christian Chevalley on 6/30/2015.
  */
 public interface I_ResourceService {
     I_DomainAccess getDomainAccess();
+
+    /**
+     * register a listener called after each knowledge cache reload
+     * @param listener
+     */
+    void addKnowledgeReloadListener(I_KnowledgeReloadListener listener);
+
+    void removeKnowledgeReloadListener(I_KnowledgeReloadListener listener);
+
+    /**
+     * register a listener called after each committed change of an EHR
+     * @param listener
+     */
+    void addEhrChangeListener(I_EhrChangeListener listener);
+
+    void removeEhrChangeListener(I_EhrChangeListener listener);
+
+    /**
+     * notify the listeners that an EHR has been modified
+     * @param ehrId the modified EHR, null if not identified
+     */
+    void ehrChanged(UUID ehrId);
+
+    /**
+     * @return the reuse statistics of the prepared statements
+     */
+    StatementStatistics getStatementStatistics();
+
+    /**
+     * @return the committers and client systems resolved when auditing the requests
+     */
+    IdentityCache getIdentityCache();
+
+    /**
+     * @return the connections bound to the DB role of a session
+     */
+    RoleConnectionManager getRoleConnectionManager();
+
+    /**
+     * @return the routing of read only requests to the read replicas
+     */
+    ReplicaRouter getReplicaRouter();
 }
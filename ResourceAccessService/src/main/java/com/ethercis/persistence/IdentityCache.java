@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the identities resolved when a request is audited<p>
+ * Committers are keyed on their name, id and identification scheme, client systems on their address. The same user
+ * connecting from the same client resolves to the same ids on every request, the cache saves the corresponding
+ * queries (and the creation attempts). An invalid identity (the resolver throws an IllegalArgumentException) is cached
+ * for a shorter time (negative caching) so that a client repeatedly sending it does not reach the DB each time. Other
+ * failures (f.ex. a DB outage) are not cached, the next request tries again.<p>
+ * Entries expire after their time to live since the parties may be changed on another node. A party deleted on this
+ * node must be invalidated explicitly.
+ */
+public class IdentityCache {
+
+    /**
+     * resolve an identity from the DB, creating it if needed, an invalid identity is reported as an
+     * IllegalArgumentException
+     */
+    public interface Resolver {
+        UUID resolve();
+    }
+
+    private static final class Entry {
+        private final UUID id;
+        private final String failure; //negative entry
+        private final long expires;
+
+        private Entry(UUID id, String failure, long expires) {
+            this.id = id;
+            this.failure = failure;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttl;
+    private final long negativeTtl;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of identities, 0 disables the cache
+     * @param ttl time to live of a resolved identity in milliseconds
+     * @param negativeTtl time to live of a resolution failure in milliseconds, 0 to not cache failures
+     */
+    public IdentityCache(final int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * get the id of a committer
+     * @param name
+     * @param id the external id
+     * @param scheme the identification scheme
+     * @param namespace the identification namespace
+     * @param resolver
+     * @return the party id
+     * @throws IllegalArgumentException if the identity is invalid, possibly from a cached failure
+     */
+    public UUID committer(String name, String id, String scheme, String namespace, Resolver resolver) {
+        return get("party\n" + name + "\n" + id + "\n" + scheme + "\n" + namespace, resolver);
+    }
+
+    /**
+     * get the id of a client system
+     * @param address the system address (f.ex. user@ip)
+     * @param resolver
+     * @return the system id
+     * @throws IllegalArgumentException if the identity is invalid, possibly from a cached failure
+     */
+    public UUID system(String address, Resolver resolver) {
+        return get("system\n" + address, resolver);
+    }
+
+    private UUID get(String key, Resolver resolver) {
+        if (!isEnabled()) {
+            misses.increment();
+            return resolver.resolve();
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= now()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.increment();
+            if (entry.failure != null)
+                throw new IllegalArgumentException(entry.failure);
+            return entry.id;
+        }
+
+        //resolved outside the lock, a concurrent resolution of the same identity gives the same id
+        misses.increment();
+        UUID id;
+        try {
+            id = resolver.resolve();
+        } catch (IllegalArgumentException e) {
+            if (negativeTtl > 0)
+                put(key, new Entry(null, e.getMessage() != null ? e.getMessage() : e.toString(), now() + negativeTtl));
+            throw e;
+        }
+        if (id != null)
+            put(key, new Entry(id, null, now() + ttl));
+        return id;
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * remove the entries resolved to a party, f.ex. once it is deleted
+     * @param partyId
+     */
+    public void invalidate(UUID partyId) {
+        synchronized (entries) {
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                if (partyId.equals(iterator.next().id))
+                    iterator.remove();
+            }
+        }
+    }
+
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
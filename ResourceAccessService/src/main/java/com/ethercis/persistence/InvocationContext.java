@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Context of a service invocation: the audit settings and the data access (f.ex. bound to a DB role) of the
+ * request being serviced<p>
+ * The dispatcher opens a context before invoking a service method and closes it once the method returns. A context
+ * is confined to the thread servicing the request, hence concurrent requests on the same service do not share their
+ * committer or DB role. Each service keeps its own settings in the context, a service calling another one keeps
+ * its own settings as well. Resources registered during the invocation (f.ex. a connection bound to a DB role)
+ * are released when the context is closed.<p>
+ * A service invoked outside the dispatcher (f.ex. in a test) must open its own context, nothing is bound to a thread
+ * which is not servicing an invocation.
+ */
+public final class InvocationContext implements AutoCloseable {
+
+    private static final ThreadLocal<InvocationContext> current = new ThreadLocal<>();
+
+    private static Logger log = LogManager.getLogger(InvocationContext.class);
+
+    /**
+     * settings of a service for the current invocation
+     */
+    static final class Settings {
+        private final I_AuditSetter auditSetter;
+        private final I_DomainAccess domainAccess; //null if the shared data access is used
+
+        Settings(I_AuditSetter auditSetter, I_DomainAccess domainAccess) {
+            this.auditSetter = auditSetter;
+            this.domainAccess = domainAccess;
+        }
+
+        I_AuditSetter getAuditSetter() {
+            return auditSetter;
+        }
+
+        I_DomainAccess getDomainAccess() {
+            return domainAccess;
+        }
+    }
+
+    private final InvocationContext previous;
+    private final Map<Object, Settings> settings = new IdentityHashMap<>(4);
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>(2);
+
+    private InvocationContext(InvocationContext previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * open a context for an invocation on the current thread, to be closed once the invocation is done
+     * @return the context
+     */
+    public static InvocationContext open() {
+        InvocationContext context = new InvocationContext(current.get());
+        current.set(context);
+        return context;
+    }
+
+    /**
+     * close the context and release its resources, the context enclosing it (if any) is restored
+     */
+    @Override
+    public void close() {
+        settings.clear();
+        for (AutoCloseable resource; (resource = resources.pollFirst()) != null; ) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("Could not release invocation resource:" + e);
+            }
+        }
+        if (previous == null)
+            current.remove();
+        else
+            current.set(previous);
+    }
+
+    /**
+     * bind the settings of a service to the current invocation
+     * @param service
+     * @param auditSetter
+     * @param domainAccess the data access of the invocation, null to use the shared one
+     * @throws IllegalStateException if no context is open
+     */
+    static void bind(Object service, I_AuditSetter auditSetter, I_DomainAccess domainAccess) {
+        required().settings.put(service, new Settings(auditSetter, domainAccess));
+    }
+
+    /**
+     * register a resource to release once the current invocation is done
+     * @param resource
+     * @throws IllegalStateException if no context is open, the resource is not released by anyone then
+     */
+    static void register(AutoCloseable resource) {
+        required().resources.addFirst(resource);
+    }
+
+    private static InvocationContext required() {
+        InvocationContext context = current.get();
+        if (context == null)
+            throw new IllegalStateException("No invocation context open on this thread");
+        return context;
+    }
+
+    /**
+     * @param service
+     * @return the settings of a service for the current invocation, null if not bound
+     */
+    static Settings settings(Object service) {
+        InvocationContext context = current.get();
+        return context == null ? null : context.settings.get(service);
+    }
+}
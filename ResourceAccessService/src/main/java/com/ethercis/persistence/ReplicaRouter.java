@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routing of read only requests to read replicas<p>
+ * Replicas are used in turn. A session having written within the read-your-writes window reads from the primary,
+ * hence it sees its own changes even if the replicas lag behind. Writes are recorded when a service notifies a
+ * committed EHR change.
+ */
+public class ReplicaRouter {
+
+    public static final int MAX_SESSIONS = 10000;
+
+    private final List<I_DomainAccess> replicas;
+    private final long readYourWrites;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private volatile long lastWrite = 0;
+
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+
+    /**
+     * @param replicas the data access of the replicas, empty if none
+     * @param readYourWrites time in ms a session reads from the primary after a write, 0 to disable the guard
+     */
+    public ReplicaRouter(List<I_DomainAccess> replicas, long readYourWrites) {
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.readYourWrites = readYourWrites;
+    }
+
+    /**
+     * get the replica to use for a read only request
+     * @param session the session performing the request, null if not identified
+     * @return a replica, null if the primary is to be used
+     */
+    public I_DomainAccess read(String session) {
+        if (replicas.isEmpty())
+            return null;
+        if (readYourWrites > 0 && session != null) {
+            Long written = lastWrites.get(session);
+            if (written != null && now() - written < readYourWrites) {
+                primaryReads.increment();
+                return null;
+            }
+        }
+        replicaReads.increment();
+        return replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+    }
+
+    /**
+     * record a write committed by a session
+     * @param session the session, null if not identified
+     */
+    public void written(String session) {
+        if (replicas.isEmpty())
+            return;
+        long now = now();
+        lastWrite = now;
+        if (readYourWrites <= 0 || session == null)
+            return;
+        if (lastWrites.size() >= MAX_SESSIONS)
+            lastWrites.values().removeIf(written -> now - written >= readYourWrites);
+        lastWrites.put(session, now);
+    }
+
+    /**
+     * @return true if no write was committed within the read-your-writes window, the replicas are then assumed to
+     * be up to date
+     */
+    public boolean isSettled() {
+        return now() - lastWrite >= readYourWrites;
+    }
+
+    public List<I_DomainAccess> getReplicas() {
+        return replicas;
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -29,6 +29,7 @@ import com.ethercis.servicemanager.common.def.SysErrorCode;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 import com.ethercis.servicemanager.jmx.AnnotatedMBean;
 import com.ethercis.servicemanager.service.ServiceInfo;
+import com.zaxxer.hikari.HikariConfig;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.apache.commons.dbcp2.BasicDataSourceMXBean;
 import org.apache.logging.log4j.LogManager;
@@ -38,8 +39,13 @@ import org.jooq.impl.DataSourceConnectionProvider;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Persistence common service to all service performing queries to the DB
@@ -62,8 +68,17 @@ public class ResourceService extends ClusterInfo implements ResourceServiceMBean
     private Logger log = LogManager.getLogger(ResourceService.class);
 
     private I_DomainAccess domainAccess;
+    private final List<I_KnowledgeReloadListener> reloadListeners = new CopyOnWriteArrayList<>();
+    private final List<I_EhrChangeListener> ehrChangeListeners = new CopyOnWriteArrayList<>();
+    private StatementStatistics statementStatistics;
+    private IdentityCache identityCache; //committers and systems of audited requests. Parameters: 'server.persistence.identity_cache.size', 'server.persistence.identity_cache.ttl', 'server.persistence.identity_cache.negative_ttl' (seconds)
+    private RoleConnectionManager roleConnectionManager; //connections bound to a DB role. Parameters: 'server.persistence.role_pool.max_idle_per_role', 'server.persistence.role_pool.max_idle', 'server.persistence.role_pool.idle_timeout' (seconds)
 
-    private enum ConnectionMode{JDBC_DRIVER, DBCP2_POOL, PG_CONNECTION_POOL}
+    private ConnectionPool connectionPool; //'jooq_hikari' mode only
+    private final List<ConnectionPool> replicaPools = new ArrayList<>(); //'jooq_hikari' mode only
+    private ReplicaRouter replicaRouter; //read only requests. Parameters: 'server.persistence.replica.urls' (comma separated), 'server.persistence.replica.login', 'server.persistence.replica.password', 'server.persistence.replica.read_your_writes' (seconds)
+
+    private enum ConnectionMode{JDBC_DRIVER, DBCP2_POOL, PG_CONNECTION_POOL, HIKARI_POOL}
 
     private ConnectionMode connectionMode;
 
@@ -164,17 +179,139 @@ public class ResourceService extends ClusterInfo implements ResourceServiceMBean
                 connectionMode = ConnectionMode.DBCP2_POOL;
                 log.info("DB access set to DBCP2 POOLING");
                 break;
+            case "jooq_hikari":
+                properties.put(I_DomainAccess.KEY_DIALECT, get(Constants.SERVER_PERSISTENCE_JOOQ_DIALECT, "POSTGRES"));
+                properties.put(I_DomainAccess.KEY_URL, get(Constants.SERVER_PERSISTENCE_JOOQ_URL, null));
+                properties.put(I_DomainAccess.KEY_LOGIN, get(Constants.SERVER_PERSISTENCE_JOOQ_LOGIN, null));
+                properties.put(I_DomainAccess.KEY_PASSWORD, get(Constants.SERVER_PERSISTENCE_JOOQ_PASSWORD, null));
+
+                try {
+                    connectionPool = new ConnectionPool(hikariConfig(properties, "ecis"));
+                    domainAccess = hikariAccess(properties, connectionPool);
+                    AnnotatedMBean.RegisterMBean(ConnectionPool.class.getCanonicalName(), ConnectionPoolMBean.class, connectionPool);
+                } catch (Exception e) {
+                    throw new ServiceManagerException(global, SysErrorCode.RESOURCE_CONFIGURATION, ME, "Unable to setup DB layer access" + e);
+                }
+                connectionMode = ConnectionMode.HIKARI_POOL;
+                log.info("DB access set to HIKARI POOLING, " + connectionPool.settings());
+                break;
             default:
                 throw new ServiceManagerException(global, SysErrorCode.RESOURCE_CONFIGURATION, ME, "Unknown SQL resource dialect:"+implementation);
 
         }
 
+        List<I_DomainAccess> replicas = new ArrayList<>();
+        String replicaUrls = get(Constants.SERVER_PERSISTENCE_REPLICA_URLS, null);
+        if (replicaUrls != null && !replicaUrls.trim().isEmpty()) {
+            for (String url : replicaUrls.split(","))
+                replicas.add(replicaAccess(properties, url.trim(), replicas.size()));
+            log.info("Read only requests routed to " + replicas.size() + " replica(s)");
+        }
+        replicaRouter = new ReplicaRouter(replicas, Long.parseLong(get(Constants.SERVER_PERSISTENCE_REPLICA_READ_YOUR_WRITES, "10")) * 1000);
+
+        identityCache = new IdentityCache(Integer.parseInt(get(Constants.SERVER_PERSISTENCE_IDENTITY_CACHE_SIZE, "1000")),
+                Long.parseLong(get(Constants.SERVER_PERSISTENCE_IDENTITY_CACHE_TTL, "600")) * 1000,
+                Long.parseLong(get(Constants.SERVER_PERSISTENCE_IDENTITY_CACHE_NEGATIVE_TTL, "10")) * 1000);
+        roleConnectionManager = new RoleConnectionManager(domainAccess,
+                Integer.parseInt(get(Constants.SERVER_PERSISTENCE_ROLE_POOL_MAX_IDLE_PER_ROLE, String.valueOf(RoleConnectionManager.DEFAULT_MAX_IDLE_PER_ROLE))),
+                Integer.parseInt(get(Constants.SERVER_PERSISTENCE_ROLE_POOL_MAX_IDLE, String.valueOf(RoleConnectionManager.DEFAULT_MAX_IDLE))),
+                Long.parseLong(get(Constants.SERVER_PERSISTENCE_ROLE_POOL_IDLE_TIMEOUT, String.valueOf(RoleConnectionManager.DEFAULT_IDLE_TIMEOUT / 1000))) * 1000);
+        //tracks as many statements as cached per connection (pgjdbc caches 256 queries by default)
+        statementStatistics = new StatementStatistics(Integer.parseInt(get(Constants.SERVER_PERSISTENCE_MAX_PREPARED_STATEMENTS, String.valueOf(StatementStatistics.DEFAULT_CAPACITY))));
+
 //        putObject(I_Info.JMX_PREFIX+ME, this);
         AnnotatedMBean.RegisterMBean(this.getClass().getCanonicalName(), ResourceServiceMBean.class, this);
 
         log.info("ResourceService started...");
     }
 
+    /**
+     * set up a DB layer access on a pool of 'jooq_hikari' mode: the access is set up without connection, its
+     * connection provider is then replaced by the pool
+     * @param properties the DB layer properties
+     * @param pool
+     * @return the DB layer access
+     * @throws Exception
+     */
+    private I_DomainAccess hikariAccess(Map<String, Object> properties, ConnectionPool pool) throws Exception {
+        Map<String, Object> accessProperties = new HashMap<>(properties);
+        accessProperties.put(I_DomainAccess.KEY_CONNECTION_MODE, I_DomainAccess.DBCP2_POOL);
+        accessProperties.put(I_DomainAccess.KEY_INITIAL_CONNECTIONS, "0");
+
+        I_DomainAccess access = I_DomainAccess.getInstance(accessProperties);
+        ((BasicDataSource) ((DataSourceConnectionProvider) access.getContext().configuration().connectionProvider()).dataSource()).close();
+        access.getContext().configuration().set(new DataSourceConnectionProvider(pool.getDataSource()));
+        return access;
+    }
+
+    /**
+     * set up the DB layer access to a read replica, pooled as the primary in 'jooq_hikari' mode, with DBCP2 otherwise
+     * @param properties the DB layer properties of the primary
+     * @param url the JDBC url of the replica
+     * @param index
+     * @return the DB layer access
+     * @throws ServiceManagerException
+     */
+    private I_DomainAccess replicaAccess(Map<String, Object> properties, String url, int index) throws ServiceManagerException {
+        Map<String, Object> replicaProperties = new HashMap<>(properties);
+        replicaProperties.put(I_DomainAccess.KEY_URL, url);
+        replicaProperties.put(I_DomainAccess.KEY_LOGIN, get(Constants.SERVER_PERSISTENCE_REPLICA_LOGIN, get(Constants.SERVER_PERSISTENCE_JOOQ_LOGIN, null)));
+        replicaProperties.put(I_DomainAccess.KEY_PASSWORD, get(Constants.SERVER_PERSISTENCE_REPLICA_PASSWORD, get(Constants.SERVER_PERSISTENCE_JOOQ_PASSWORD, null)));
+
+        try {
+            if (connectionMode == ConnectionMode.HIKARI_POOL) {
+                ConnectionPool pool = new ConnectionPool(hikariConfig(replicaProperties, "ecis-replica-" + index));
+                replicaPools.add(pool);
+                AnnotatedMBean.RegisterMBean(ConnectionPool.class.getCanonicalName() + ".replica" + index, ConnectionPoolMBean.class, pool);
+                return hikariAccess(replicaProperties, pool);
+            }
+            replicaProperties.put(I_DomainAccess.KEY_CONNECTION_MODE, I_DomainAccess.DBCP2_POOL);
+            return I_DomainAccess.getInstance(replicaProperties);
+        } catch (Exception e) {
+            throw new ServiceManagerException(global, SysErrorCode.RESOURCE_CONFIGURATION, ME, "Unable to setup DB replica access:" + url + ":" + e);
+        }
+    }
+
+    /**
+     * configure a pool of 'jooq_hikari' mode
+     * @param properties the DB layer properties, pgjdbc properties are passed to the driver
+     * @param poolName
+     * @return the pool configuration
+     */
+    private HikariConfig hikariConfig(Map<String, Object> properties, String poolName) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl((String) properties.get(I_DomainAccess.KEY_URL));
+        config.setUsername((String) properties.get(I_DomainAccess.KEY_LOGIN));
+        config.setPassword((String) properties.get(I_DomainAccess.KEY_PASSWORD));
+
+        int maxSize = Integer.parseInt(get(Constants.SERVER_PERSISTENCE_HIKARI_MAX_SIZE, "10"));
+        config.setMaximumPoolSize(maxSize);
+        config.setMinimumIdle(Integer.parseInt(get(Constants.SERVER_PERSISTENCE_HIKARI_MIN_IDLE, String.valueOf(maxSize))));
+        config.setConnectionTimeout(Long.parseLong(get(Constants.SERVER_PERSISTENCE_HIKARI_CONNECTION_TIMEOUT, "30000")));
+        config.setIdleTimeout(TimeUnit.SECONDS.toMillis(Long.parseLong(get(Constants.SERVER_PERSISTENCE_HIKARI_IDLE_TIMEOUT, "600"))));
+        config.setMaxLifetime(TimeUnit.SECONDS.toMillis(Long.parseLong(get(Constants.SERVER_PERSISTENCE_HIKARI_MAX_LIFETIME, "1800"))));
+        config.setKeepaliveTime(TimeUnit.SECONDS.toMillis(Long.parseLong(get(Constants.SERVER_PERSISTENCE_HIKARI_KEEPALIVE, "0"))));
+        config.setLeakDetectionThreshold(TimeUnit.SECONDS.toMillis(Long.parseLong(get(Constants.SERVER_PERSISTENCE_HIKARI_LEAK_DETECTION, "0"))));
+
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            if (property.getKey().startsWith(I_DomainAccess.KEY_PGJDBC_PREFIX) && property.getValue() != null)
+                config.addDataSourceProperty(property.getKey().substring(I_DomainAccess.KEY_PGJDBC_PREFIX.length()), property.getValue());
+        }
+        return config;
+    }
+
+    @Override
+    public void shutdown() throws ServiceManagerException {
+        if (roleConnectionManager != null)
+            roleConnectionManager.shutdown();
+        if (connectionPool != null)
+            connectionPool.close();
+        for (ConnectionPool pool : replicaPools)
+            pool.close();
+        super.shutdown();
+    }
+
     @Override
     public I_DomainAccess getDomainAccess(){
         return domainAccess;
@@ -205,8 +342,17 @@ public class ResourceService extends ClusterInfo implements ResourceServiceMBean
                 stringBuffer.append("\nSQL dialect:" + domainAccess.getDialect());
                 connectionMetaData(stringBuffer, domainAccess.getDataAccess().getConnection());
                 break;
+            case HIKARI_POOL:
+                stringBuffer.append("\nHIKARI_POOL");
+                stringBuffer.append("\nSQL dialect:" + domainAccess.getDialect());
+                stringBuffer.append("\nPool:" + connectionPool.settings());
+                try (Connection pooled = domainAccess.getConnection()) {
+                    connectionMetaData(stringBuffer, pooled);
+                }
+                break;
 
         }
+        stringBuffer.append("\nRead replicas:" + replicaRouter.getReplicas().size());
         return stringBuffer.toString();
     }
 
@@ -243,9 +389,133 @@ public class ResourceService extends ClusterInfo implements ResourceServiceMBean
 
         this.getDomainAccess().getDataAccess().setKnowledgeManager(knowledgeService.getKnowledgeCache());
         this.getDomainAccess().getIntrospectCache().setKnowledge(knowledgeService.getKnowledgeCache()).invalidate().synchronize();
+        for (I_DomainAccess replica : replicaRouter.getReplicas()) {
+            replica.getDataAccess().setKnowledgeManager(knowledgeService.getKnowledgeCache());
+            replica.getIntrospectCache().setKnowledge(knowledgeService.getKnowledgeCache()).invalidate().synchronize();
+        }
+
+        for (I_KnowledgeReloadListener listener : reloadListeners)
+            listener.knowledgeReloaded();
+
         return "reload knowledge cache done";
     }
 
+    @Override
+    public void addKnowledgeReloadListener(I_KnowledgeReloadListener listener) {
+        reloadListeners.add(listener);
+    }
+
+    @Override
+    public void removeKnowledgeReloadListener(I_KnowledgeReloadListener listener) {
+        reloadListeners.remove(listener);
+    }
+
+    @Override
+    public void addEhrChangeListener(I_EhrChangeListener listener) {
+        ehrChangeListeners.add(listener);
+    }
+
+    @Override
+    public void removeEhrChangeListener(I_EhrChangeListener listener) {
+        ehrChangeListeners.remove(listener);
+    }
+
+    @Override
+    public void ehrChanged(UUID ehrId) {
+        for (I_EhrChangeListener listener : ehrChangeListeners)
+            listener.ehrChanged(ehrId);
+    }
+
+    @Override
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    @Override
+    public IdentityCache getIdentityCache() {
+        return identityCache;
+    }
+
+    @Override
+    public RoleConnectionManager getRoleConnectionManager() {
+        return roleConnectionManager;
+    }
+
+    @Override
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    @Override
+    public int getReplicaCount() {
+        return replicaRouter.getReplicas().size();
+    }
+
+    @Override
+    public long getReplicaReads() {
+        return replicaRouter.getReplicaReads();
+    }
+
+    @Override
+    public long getReplicaGuardedReads() {
+        return replicaRouter.getPrimaryReads();
+    }
+
+    @Override
+    public long getRoleConnectionHits() {
+        return roleConnectionManager.getHits();
+    }
+
+    @Override
+    public long getRoleConnectionMisses() {
+        return roleConnectionManager.getMisses();
+    }
+
+    @Override
+    public int getRoleConnectionIdle() {
+        return roleConnectionManager.getIdle();
+    }
+
+    @Override
+    public long getIdentityCacheHits() {
+        return identityCache.getHits();
+    }
+
+    @Override
+    public long getIdentityCacheMisses() {
+        return identityCache.getMisses();
+    }
+
+    @Override
+    public int getIdentityCacheSize() {
+        return identityCache.size();
+    }
+
+    @Override
+    public void invalidateIdentityCache() {
+        identityCache.invalidate();
+    }
+
+    @Override
+    public long getRepeatedStatements() {
+        return statementStatistics.getRepeated();
+    }
+
+    @Override
+    public long getFirstSeenStatements() {
+        return statementStatistics.getFirstSeen();
+    }
+
+    @Override
+    public double getRepeatedStatementRatio() {
+        return statementStatistics.getRepeatRatio();
+    }
+
+    @Override
+    public void resetStatementStatistics() {
+        statementStatistics.reset();
+    }
+
     @Override
     public String restartDBConnection(){
         return "Not implemented yet, restart ethercis to reconnect do DB server";
@@ -36,4 +36,45 @@ public interface ResourceServiceMBean extends BuildMetaData{
     String reload_knowledge() throws Exception;
 
     String restartDBConnection();
+
+    /**
+     * @return the number of prepared statements whose SQL text was prepared recently (see StatementStatistics), an
+     * estimate of the statement cache hits: the cache itself is not observed
+     */
+    long getRepeatedStatements();
+
+    /**
+     * @return the number of prepared statements whose SQL text was not prepared recently
+     */
+    long getFirstSeenStatements();
+
+    /**
+     * @return the ratio of repeated SQL text among the prepared statements
+     */
+    double getRepeatedStatementRatio();
+
+    void resetStatementStatistics();
+
+    long getIdentityCacheHits();
+
+    long getIdentityCacheMisses();
+
+    int getIdentityCacheSize();
+
+    void invalidateIdentityCache();
+
+    long getRoleConnectionHits();
+
+    long getRoleConnectionMisses();
+
+    int getRoleConnectionIdle();
+
+    int getReplicaCount();
+
+    long getReplicaReads();
+
+    /**
+     * @return the number of reads kept on the primary by the read-your-writes guard
+     */
+    long getReplicaGuardedReads();
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.ConnectionProvider;
+import org.jooq.exception.DataAccessException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connections bound to a DB role (see {@link RoleControlledSession})<p>
+ * A connection is taken from the shared pool and its role is set once, it is then kept in a sub-pool of its role
+ * when released, with the data access bound to it. A request of the same role reuses it without another SET ROLE.
+ * A connection leaving the sub-pools (sub-pool full, idle for too long or shutdown) is reset (RESET ROLE) before
+ * being returned to the shared pool. A connection which cannot be reset (failed rollback or RESET ROLE) is evicted
+ * from the shared pool, it is never handed out again with a role set.<p>
+ * A connection is released once the invocation and all the connections handed out by its data access (f.ex. by a
+ * cursor or a streamed result outliving the invocation) are closed.
+ */
+public class RoleConnectionManager {
+
+    public static final int DEFAULT_MAX_IDLE_PER_ROLE = 2;
+    public static final int DEFAULT_MAX_IDLE = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    private static Logger log = LogManager.getLogger(RoleConnectionManager.class);
+
+    private final I_DomainAccess domainAccess;
+    private final int maxIdlePerRole;
+    private final int maxIdle;
+    private final long idleTimeout;
+
+    private final Map<String, Deque<RoleConnection>> idle = new HashMap<>();
+    private int idleCount = 0;
+    private boolean shutdown = false;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param domainAccess the shared data access, connections are taken from its pool
+     * @param maxIdlePerRole max number of idle connections kept per role
+     * @param maxIdle max number of idle connections kept for all roles, 0 to reset each connection on release
+     * @param idleTimeout time in ms after which an idle connection is returned to the shared pool
+     */
+    public RoleConnectionManager(I_DomainAccess domainAccess, int maxIdlePerRole, int maxIdle, long idleTimeout) {
+        this.domainAccess = domainAccess;
+        this.maxIdlePerRole = maxIdlePerRole;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * A connection bound to a role, with its data access<p>
+     * The data access hands out a handle on the connection for each acquisition, closing the handle does not close
+     * the connection. The connection is released once this object and all the handles are closed.
+     */
+    public static final class RoleConnection implements ConnectionProvider, AutoCloseable {
+        private final RoleConnectionManager manager;
+        private final String role;
+        private final Connection connection;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private I_DomainAccess domainAccess;
+        private int references = 0;
+        private long idleSince;
+
+        private RoleConnection(RoleConnectionManager manager, String role, Connection connection) {
+            this.manager = manager;
+            this.role = role;
+            this.connection = connection;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * @return the data access bound to the connection
+         */
+        public I_DomainAccess getDomainAccess() {
+            return domainAccess;
+        }
+
+        @Override
+        public Connection acquire() throws DataAccessException {
+            synchronized (this) {
+                if (references == 0)
+                    throw new DataAccessException("Connection of role " + role + " is released");
+                references++;
+            }
+            return handle();
+        }
+
+        @Override
+        public void release(Connection handle) throws DataAccessException {
+            try {
+                handle.close();
+            } catch (SQLException e) {
+                throw new DataAccessException("Could not release connection:" + e, e);
+            }
+        }
+
+        /**
+         * release the reference held by the invocation
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true))
+                unreference();
+        }
+
+        private synchronized void reference() {
+            closed.set(false);
+            references = 1;
+        }
+
+        private void unreference() {
+            synchronized (this) {
+                if (--references > 0)
+                    return;
+            }
+            manager.recycle(this);
+        }
+
+        private Connection handle() {
+            AtomicBoolean handleClosed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        if (handleClosed.compareAndSet(false, true))
+                            unreference();
+                        return null;
+                    case "isClosed":
+                        return handleClosed.get() || connection.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        if (handleClosed.get())
+                            throw new SQLException("Connection is closed");
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            });
+        }
+    }
+
+    /**
+     * get a connection bound to a role, to be closed once the invocation is done
+     * @param role the DB role
+     * @return the connection
+     * @throws SQLException if the role cannot be set
+     */
+    public RoleConnection acquire(String role) throws SQLException {
+        discard(evict());
+
+        RoleConnection roleConnection = poll(role);
+        if (roleConnection != null)
+            hits.increment();
+        else {
+            misses.increment();
+            Connection connection = newConnection();
+            try {
+                setRole(connection, role);
+            } catch (SQLException | RuntimeException e) {
+                close(connection); //the role is unchanged
+                throw e;
+            }
+            roleConnection = new RoleConnection(this, role, connection);
+            try {
+                roleConnection.domainAccess = bind(roleConnection);
+            } catch (RuntimeException e) {
+                discard(roleConnection);
+                throw e;
+            }
+        }
+        roleConnection.reference();
+        return roleConnection;
+    }
+
+    private synchronized RoleConnection poll(String role) {
+        Deque<RoleConnection> connections = idle.get(role);
+        if (connections == null || connections.isEmpty())
+            return null;
+        idleCount--;
+        return connections.pollFirst();
+    }
+
+    /**
+     * keep a released connection in its sub-pool or return it to the shared pool
+     * @param roleConnection
+     */
+    void recycle(RoleConnection roleConnection) {
+        Connection connection = roleConnection.connection;
+        try {
+            if (connection.isClosed())
+                return;
+            if (!connection.getAutoCommit()) { //left in a transaction (f.ex. by a cursor)
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.warn("Could not recycle connection of role " + roleConnection.role + ", evicted:" + e);
+            evict(connection);
+            return;
+        }
+
+        synchronized (this) {
+            Deque<RoleConnection> connections = idle.computeIfAbsent(roleConnection.role, role -> new ArrayDeque<>());
+            if (!shutdown && idleCount < maxIdle && connections.size() < maxIdlePerRole) {
+                roleConnection.idleSince = now();
+                connections.addFirst(roleConnection);
+                idleCount++;
+                return;
+            }
+        }
+        discard(roleConnection);
+    }
+
+    /**
+     * remove the connections idle for too long
+     * @return the removed connections
+     */
+    private synchronized List<RoleConnection> evict() {
+        List<RoleConnection> expired = new ArrayList<>();
+        if (idleCount == 0)
+            return expired;
+        long limit = now() - idleTimeout;
+        for (Iterator<Deque<RoleConnection>> iterator = idle.values().iterator(); iterator.hasNext(); ) {
+            Deque<RoleConnection> connections = iterator.next();
+            //most recently released first
+            while (!connections.isEmpty() && connections.peekLast().idleSince <= limit) {
+                expired.add(connections.pollLast());
+                idleCount--;
+            }
+            if (connections.isEmpty())
+                iterator.remove();
+        }
+        return expired;
+    }
+
+    private void discard(List<RoleConnection> roleConnections) {
+        for (RoleConnection roleConnection : roleConnections)
+            discard(roleConnection);
+    }
+
+    private void discard(RoleConnection roleConnection) {
+        try {
+            resetRole(roleConnection.connection);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Could not reset role " + roleConnection.role + ", evicted:" + e);
+            evict(roleConnection.connection);
+            return;
+        }
+        close(roleConnection.connection);
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Could not close connection:" + e);
+        }
+    }
+
+    /**
+     * return all the idle connections to the shared pool, released connections are not kept anymore
+     */
+    public void shutdown() {
+        List<RoleConnection> roleConnections = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (Deque<RoleConnection> connections : idle.values())
+                roleConnections.addAll(connections);
+            idle.clear();
+            idleCount = 0;
+        }
+        discard(roleConnections);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized int getIdle() {
+        return idleCount;
+    }
+
+    /**
+     * @return a connection of the shared pool
+     * @throws SQLException
+     */
+    protected Connection newConnection() throws SQLException {
+        return domainAccess.getConnection();
+    }
+
+    /**
+     * remove a connection from the shared pool: the physical connection is aborted (the pool wrappers of DBCP2 and
+     * HikariCP delegate it), the pool then drops it when it is closed instead of handing it out again
+     * @param connection a connection of the shared pool
+     */
+    protected void evict(Connection connection) {
+        try {
+            connection.abort(Runnable::run);
+        } catch (SQLException | RuntimeException e) {
+            log.error("Could not evict connection from the pool:" + e);
+        }
+        close(connection);
+    }
+
+    protected void setRole(Connection connection, String role) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET ROLE '" + role.replace("'", "''") + "'");
+        }
+    }
+
+    protected void resetRole(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("RESET ROLE");
+        }
+    }
+
+    /**
+     * derive the data access bound to a connection
+     * @param provider the connection provider
+     * @return the data access
+     */
+    protected I_DomainAccess bind(ConnectionProvider provider) {
+        try {
+            I_DomainAccess boundAccess = I_DomainAccess.getInstance(domainAccess.getDataAccess());
+            boundAccess.getContext().configuration().set(provider);
+            return boundAccess;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not bind data access:" + e, e);
+        }
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -22,10 +22,8 @@ import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.def.Constants;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
-import org.jooq.Configuration;
-import org.jooq.exception.DataAccessException;
 
-import java.sql.Connection;
+import java.sql.SQLException;
 
 /**
  * Created by christian on 6/6/2018.
@@ -46,22 +44,23 @@ public class RoleControlledSession {
 
         if (runTimeSingleton.getProperty().get(Constants.DB_SECURITY_ROLE, true)) {
 
-            Connection connection = resourceService.getDomainAccess().getConnection();
-            Configuration configuration = resourceService.getDomainAccess().getDataAccess().getContext().configuration().derive();
-            configuration.set(connection);
-//
+            String role = new DbRole(runTimeSingleton).role(subject, principal);
+            RoleConnectionManager.RoleConnection roleConnection;
             try {
-                sessionDomainAccess = I_DomainAccess.getInstance(resourceService.getDomainAccess().getDataAccess());
-                sessionDomainAccess.getContext().configuration().set(connection);
-            } catch (Exception e) {
+                roleConnection = resourceService.getRoleConnectionManager().acquire(role);
+            } catch (SQLException e) {
+                throw new ServiceManagerException(runTimeSingleton, SysErrorCode.USER_SECURITY_AUTHENTICATION_ACCESSDENIED, "ServiceDataCluster", "Role/user denied access:" + DataAccessExceptionMessage.error(e));
+            } catch (RuntimeException e) {
                 throw new ServiceManagerException(runTimeSingleton, SysErrorCode.USER_ILLEGALARGUMENT, "ServiceDataCluster", "Could not set session derivative:" + e);
             }
-
+            //the connection is returned to its role pool once the invocation is done
             try {
-                sessionDomainAccess.getContext().query("SET ROLE '" + new DbRole(runTimeSingleton).role(subject, principal) + "';").execute();
-            } catch (DataAccessException e) {
-                throw new ServiceManagerException(runTimeSingleton, SysErrorCode.USER_SECURITY_AUTHENTICATION_ACCESSDENIED, "ServiceDataCluster", "Role/user denied access:" + new DataAccessExceptionMessage(e).error());
+                InvocationContext.register(roleConnection);
+            } catch (IllegalStateException e) {
+                roleConnection.close();
+                throw new ServiceManagerException(runTimeSingleton, SysErrorCode.INTERNAL_ILLEGALSTATE, "ServiceDataCluster", "Could not set session derivative:" + e.getMessage());
             }
+            sessionDomainAccess = roleConnection.getDomainAccess();
         }
         return sessionDomainAccess;
     }
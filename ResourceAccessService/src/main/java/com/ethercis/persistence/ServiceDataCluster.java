@@ -26,6 +26,8 @@ import com.ethercis.servicemanager.common.def.SysErrorCode;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 import com.ethercis.servicemanager.service.ServiceInfo;
 
+import java.util.UUID;
+
 /**
  * ETHERCIS Project VirtualEhr
  * Created by Christian Chevalley on 7/1/2015.
@@ -33,8 +35,6 @@ import com.ethercis.servicemanager.service.ServiceInfo;
 public abstract class ServiceDataCluster extends ClusterInfo {
 
     private I_ResourceService resourceService;
-    protected I_AuditSetter auditSetter;
-    private I_DomainAccess sessionDomainAccess;
 
 
     protected void doInit(RunTimeSingleton global, ServiceInfo serviceInfo) throws ServiceManagerException {
@@ -43,22 +43,92 @@ public abstract class ServiceDataCluster extends ClusterInfo {
         initCompatibilityMode();
 
         resourceService = ClusterInfo.getRegisteredService(global, "ResourceService", "1.0", new Object[]{null});
-        sessionDomainAccess = null;
+    }
+
+    protected I_ResourceService getResourceService() {
+        return resourceService;
+    }
+
+    /**
+     * notify the services depending on the content of an EHR that it has been modified, to be called once the
+     * change is committed
+     * @param ehrId the modified EHR, null if not identified
+     */
+    protected void notifyEhrChanged(UUID ehrId) {
+        notifyEhrChanged(ehrId, sessionKey());
+    }
+
+    /**
+     * same as {@link #notifyEhrChanged(UUID)} for a change committed outside the invocation (f.ex. while a batch
+     * response is written)
+     * @param ehrId the modified EHR, null if not identified
+     * @param sessionKey the session the change is recorded for, see {@link #sessionKey()}
+     */
+    protected void notifyEhrChanged(UUID ehrId, String sessionKey) {
+        if (resourceService != null) {
+            resourceService.ehrChanged(ehrId);
+            if (resourceService.getReplicaRouter() != null)
+                resourceService.getReplicaRouter().written(sessionKey);
+        }
+    }
+
+    /**
+     * drop the cached identities resolved to a party, to be called once the party is deleted
+     * @param partyId
+     */
+    protected void notifyPartyDeleted(UUID partyId) {
+        if (resourceService != null && resourceService.getIdentityCache() != null)
+            resourceService.getIdentityCache().invalidate(partyId);
     }
 
     protected I_DomainAccess getDataAccess() {
         if (resourceService == null || resourceService.getDomainAccess() == null)
             throw new IllegalArgumentException("ResourceService seems not properly configured... Aborting...");
 
-        if (sessionDomainAccess != null)
-            return sessionDomainAccess;
+        InvocationContext.Settings settings = InvocationContext.settings(this);
+        if (settings != null && settings.getDomainAccess() != null)
+            return settings.getDomainAccess();
         else
             return resourceService.getDomainAccess();
     }
 
+    /**
+     * get the data access for a read only request: a read replica if any, unless the session wrote recently or is
+     * bound to a DB role
+     * @return the data access
+     */
+    protected I_DomainAccess getReadDataAccess() {
+        I_DomainAccess dataAccess = getDataAccess();
+        if (dataAccess != resourceService.getDomainAccess() || resourceService.getReplicaRouter() == null)
+            return dataAccess;
+        I_DomainAccess replica = resourceService.getReplicaRouter().read(sessionKey());
+        return replica != null ? replica : dataAccess;
+    }
+
+    /**
+     * @return the key of the session of the current invocation for the read-your-writes guard
+     */
+    protected String sessionKey() {
+        I_AuditSetter auditSetter = getAuditSetter();
+        if (auditSetter == null)
+            return null;
+        if (auditSetter.getSessionId() != null)
+            return auditSetter.getSessionId();
+        return auditSetter.getCommitterUuid() != null ? auditSetter.getCommitterUuid().toString() : null;
+    }
+
+    /**
+     * @return the audit settings of the current invocation, set by {@link #queryProlog(I_SessionClientProperties)}
+     */
+    protected I_AuditSetter getAuditSetter() {
+        InvocationContext.Settings settings = InvocationContext.settings(this);
+        return settings == null ? null : settings.getAuditSetter();
+    }
+
     protected void queryProlog(I_SessionClientProperties props) throws ServiceManagerException {
-        //prepare for audit log
-//
+        //prepare for audit log, the settings are bound to the current invocation
+        I_AuditSetter auditSetter;
+        I_DomainAccess sessionDomainAccess = null;
         String policyType = global.getProperty().get(Constants.POLICY_TYPE_TAG, Constants.STR_POLICY_DEBUG);
 
         if (policyType.equals(Constants.STR_POLICY_JWT)) {
@@ -71,10 +141,10 @@ public abstract class ServiceDataCluster extends ClusterInfo {
             if (global.getProperty().get(Constants.DB_SECURITY_ROLE, true))
                 sessionDomainAccess = new RoleControlledSession(global, resourceService).setRole(subject, principal);
 
-            auditSetter = new JwtAuditSetter(global, subject, principal).handleProperties(resourceService.getDomainAccess(), props);
+            auditSetter = new JwtAuditSetter(global, subject, principal, resourceService.getIdentityCache()).handleProperties(resourceService.getDomainAccess(), props);
 
         } else if (policyType.equals(Constants.STR_POLICY_SHIRO)) { //session based
-            auditSetter = new AuditSetter(global).handleProperties(resourceService.getDomainAccess(), props);
+            auditSetter = new AuditSetter(global, resourceService.getIdentityCache()).handleProperties(resourceService.getDomainAccess(), props);
 
             if (global.getProperty().get(Constants.DB_SECURITY_ROLE, false)) {
                 String subjectName = auditSetter.getSessionSubjectName(auditSetter.getSessionId());
@@ -84,6 +154,8 @@ public abstract class ServiceDataCluster extends ClusterInfo {
             throw new ServiceManagerException(getGlobal(), SysErrorCode.USER_ILLEGALARGUMENT, "ServiceDataCluster", "No security policy activated");
         }
 
+        InvocationContext.bind(this, auditSetter, sessionDomainAccess);
+
     }
 
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repetition statistics of the SQL text of the prepared statements issued by the services<p>
+ * The statements themselves are cached per connection by the pool (DBCP2 with
+ * server.persistence.dbcp2.set_pool_prepared_statements) or by the PostgreSQL driver, this class does not observe
+ * these caches. A statement is counted as repeated if the same SQL text has been prepared among the last
+ * <i>capacity</i> distinct statements, otherwise as new. A high repeat ratio tells that a statement cache of this
+ * size can serve most statements, not that it actually did (f.ex. the cache is per connection).
+ */
+public class StatementStatistics {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final Map<String, Boolean> recent;
+    private final LongAdder repeated = new LongAdder();
+    private final LongAdder firstSeen = new LongAdder();
+
+    /**
+     * @param capacity number of distinct statements tracked, normally the size of the statement cache (DEFAULT_CAPACITY
+     *                 if not positive)
+     */
+    public StatementStatistics(int capacity) {
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > StatementStatistics.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * count a statement prepared with its SQL text
+     * @param sql
+     * @return true if the same SQL text was prepared recently
+     */
+    public boolean prepared(String sql) {
+        boolean repeat;
+        synchronized (recent) {
+            repeat = recent.put(sql, Boolean.TRUE) != null;
+        }
+        if (repeat)
+            repeated.increment();
+        else
+            firstSeen.increment();
+        return repeat;
+    }
+
+    /**
+     * @return the number of statements whose SQL text was prepared recently
+     */
+    public long getRepeated() {
+        return repeated.sum();
+    }
+
+    /**
+     * @return the number of statements whose SQL text was not prepared recently
+     */
+    public long getFirstSeen() {
+        return firstSeen.sum();
+    }
+
+    /**
+     * @return repeated / (repeated + first seen), 0 if no statement has been prepared
+     */
+    public double getRepeatRatio() {
+        long repeatCount = repeated.sum();
+        long total = repeatCount + firstSeen.sum();
+        return total == 0 ? 0 : (double) repeatCount / total;
+    }
+
+    public void reset() {
+        synchronized (recent) {
+            recent.clear();
+        }
+        repeated.reset();
+        firstSeen.reset();
+    }
+}
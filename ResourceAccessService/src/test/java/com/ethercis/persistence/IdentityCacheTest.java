@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import junit.framework.TestCase;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdentityCacheTest extends TestCase {
+
+    private long time = 0;
+
+    private IdentityCache newCache(int maxSize) {
+        return new IdentityCache(maxSize, 1000, 100) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    public void testCommitterResolvedOnce() {
+        IdentityCache cache = newCache(10);
+        UUID party = UUID.randomUUID();
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(party, cache.committer("john", "1234", "scheme", "namespace", () -> {
+                calls.incrementAndGet();
+                return party;
+            }));
+        assertEquals(1, calls.get());
+        assertEquals(2, cache.getHits());
+
+        //same name, other id
+        cache.committer("john", "5678", "scheme", "namespace", () -> {
+            calls.incrementAndGet();
+            return UUID.randomUUID();
+        });
+        assertEquals(2, calls.get());
+
+        //expired
+        time = 1000;
+        cache.committer("john", "1234", "scheme", "namespace", () -> {
+            calls.incrementAndGet();
+            return party;
+        });
+        assertEquals(3, calls.get());
+    }
+
+    public void testNegativeCaching() {
+        IdentityCache cache = newCache(10);
+        AtomicInteger calls = new AtomicInteger();
+        IdentityCache.Resolver failing = () -> {
+            calls.incrementAndGet();
+            throw new IllegalArgumentException("Could not create client with settings:john@host");
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.system("john@host", failing);
+                fail("failure should be reported");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("john@host"));
+            }
+        }
+        assertEquals(1, calls.get());
+
+        time = 100;
+        UUID system = UUID.randomUUID();
+        assertEquals(system, cache.system("john@host", () -> system));
+    }
+
+    public void testTransientFailureNotCached() {
+        IdentityCache cache = newCache(10);
+        AtomicInteger calls = new AtomicInteger();
+        IdentityCache.Resolver failing = () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("connection refused");
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.system("john@host", failing);
+                fail("failure should be reported");
+            } catch (IllegalStateException e) {
+                assertEquals("connection refused", e.getMessage());
+            }
+        }
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.size());
+
+        UUID system = UUID.randomUUID();
+        assertEquals(system, cache.system("john@host", () -> system));
+    }
+
+    public void testInvalidateParty() {
+        IdentityCache cache = newCache(10);
+        UUID party = UUID.randomUUID();
+        cache.committer("john", "1234", "scheme", "namespace", () -> party);
+        cache.system("john@host", UUID::randomUUID);
+        assertEquals(2, cache.size());
+
+        cache.invalidate(party);
+        assertEquals(1, cache.size());
+        UUID recreated = UUID.randomUUID();
+        assertEquals(recreated, cache.committer("john", "1234", "scheme", "namespace", () -> recreated));
+    }
+
+    public void testBoundedAndDisabled() {
+        IdentityCache cache = newCache(2);
+        for (int i = 0; i < 5; i++)
+            cache.system("host" + i, UUID::randomUUID);
+        assertEquals(2, cache.size());
+
+        IdentityCache disabled = newCache(0);
+        disabled.system("host", UUID::randomUUID);
+        assertEquals(0, disabled.size());
+        assertEquals(1, disabled.getMisses());
+    }
+}
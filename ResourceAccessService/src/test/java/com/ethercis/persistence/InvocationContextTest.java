@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class InvocationContextTest extends TestCase {
+
+    private final Object service = new Object();
+    private final Object otherService = new Object();
+
+    private static I_AuditSetter newAuditSetter() {
+        return (I_AuditSetter) Proxy.newProxyInstance(I_AuditSetter.class.getClassLoader(), new Class<?>[]{I_AuditSetter.class}, (proxy, method, args) -> null);
+    }
+
+    private static I_AuditSetter auditSetter(Object service) {
+        InvocationContext.Settings settings = InvocationContext.settings(service);
+        return settings == null ? null : settings.getAuditSetter();
+    }
+
+    public void testBindInContext() {
+        I_AuditSetter auditSetter = newAuditSetter();
+        try (InvocationContext ignored = InvocationContext.open()) {
+            InvocationContext.bind(service, auditSetter, null);
+            assertSame(auditSetter, auditSetter(service));
+            assertNull(auditSetter(otherService));
+        }
+        assertNull(auditSetter(service));
+    }
+
+    public void testNestedContext() {
+        I_AuditSetter outer = newAuditSetter();
+        I_AuditSetter inner = newAuditSetter();
+        try (InvocationContext ignored = InvocationContext.open()) {
+            InvocationContext.bind(service, outer, null);
+            try (InvocationContext ignored2 = InvocationContext.open()) {
+                assertNull(auditSetter(service));
+                InvocationContext.bind(service, inner, null);
+                assertSame(inner, auditSetter(service));
+            }
+            assertSame(outer, auditSetter(service));
+        }
+        assertNull(auditSetter(service));
+    }
+
+    public void testNoContext() {
+        try {
+            InvocationContext.bind(service, newAuditSetter(), null);
+            fail("binding outside a context should be rejected");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        try {
+            InvocationContext.register(() -> {});
+            fail("registering outside a context should be rejected");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        assertNull(auditSetter(service));
+    }
+
+    public void testConfinedToThread() throws InterruptedException {
+        AtomicReference<I_AuditSetter> seen = new AtomicReference<>();
+        try (InvocationContext ignored = InvocationContext.open()) {
+            InvocationContext.bind(service, newAuditSetter(), null);
+            Thread thread = new Thread(() -> seen.set(auditSetter(service)));
+            thread.start();
+            thread.join();
+        }
+        assertNull(seen.get());
+    }
+}
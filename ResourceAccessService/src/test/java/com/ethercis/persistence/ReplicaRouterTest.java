@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ReplicaRouterTest extends TestCase {
+
+    private long time = 1000000;
+
+    private static I_DomainAccess newReplica() {
+        return (I_DomainAccess) Proxy.newProxyInstance(I_DomainAccess.class.getClassLoader(), new Class<?>[]{I_DomainAccess.class}, (proxy, method, args) -> null);
+    }
+
+    private ReplicaRouter newRouter(long readYourWrites, I_DomainAccess... replicas) {
+        return new ReplicaRouter(new ArrayList<>(Arrays.asList(replicas)), readYourWrites) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    public void testNoReplica() {
+        ReplicaRouter router = new ReplicaRouter(Collections.emptyList(), 1000);
+        assertNull(router.read("session"));
+        router.written("session");
+        assertEquals(0, router.getReplicaReads());
+    }
+
+    public void testRoundRobin() {
+        I_DomainAccess first = newReplica();
+        I_DomainAccess second = newReplica();
+        ReplicaRouter router = newRouter(1000, first, second);
+
+        assertSame(first, router.read("session"));
+        assertSame(second, router.read("session"));
+        assertSame(first, router.read(null));
+        assertEquals(3, router.getReplicaReads());
+    }
+
+    public void testReadYourWrites() {
+        I_DomainAccess replica = newReplica();
+        ReplicaRouter router = newRouter(1000, replica);
+
+        assertTrue(router.isSettled());
+        router.written("writer");
+        assertFalse(router.isSettled());
+        assertNull(router.read("writer"));
+        assertSame(replica, router.read("reader"));
+        assertEquals(1, router.getPrimaryReads());
+
+        time += 1000;
+        assertTrue(router.isSettled());
+        assertSame(replica, router.read("writer"));
+    }
+
+    public void testGuardDisabled() {
+        I_DomainAccess replica = newReplica();
+        ReplicaRouter router = newRouter(0, replica);
+
+        router.written("writer");
+        assertSame(replica, router.read("writer"));
+        assertTrue(router.isSettled());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+//Copyright
+package com.ethercis.persistence;
+
+import com.ethercis.dao.access.interfaces.I_DomainAccess;
+import junit.framework.TestCase;
+import org.jooq.ConnectionProvider;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RoleConnectionManagerTest extends TestCase {
+
+    private long time = 0;
+    private final List<String> statements = new ArrayList<>();
+    private int opened = 0;
+    private int closed = 0;
+    private int rollbacks = 0;
+    private int evicted = 0;
+    private boolean failRollback = false;
+    private boolean failReset = false;
+
+    private Connection newFakeConnection() {
+        boolean[] state = {false, true}; //closed, auto commit
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    if (!state[0])
+                        closed++;
+                    state[0] = true;
+                    return null;
+                case "isClosed":
+                    return state[0];
+                case "getAutoCommit":
+                    return state[1];
+                case "setAutoCommit":
+                    state[1] = (Boolean) args[0];
+                    return null;
+                case "rollback":
+                    if (failRollback)
+                        throw new SQLException("An I/O error occurred while sending to the backend");
+                    rollbacks++;
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private RoleConnectionManager newManager(int maxIdlePerRole, int maxIdle) {
+        return new RoleConnectionManager(null, maxIdlePerRole, maxIdle, 1000) {
+            @Override
+            protected Connection newConnection() {
+                opened++;
+                return newFakeConnection();
+            }
+
+            @Override
+            protected void setRole(Connection connection, String role) throws SQLException {
+                if (role.equals("denied"))
+                    throw new SQLException("ERROR: permission denied to set role");
+                statements.add("SET ROLE " + role);
+            }
+
+            @Override
+            protected void resetRole(Connection connection) throws SQLException {
+                if (failReset)
+                    throw new SQLException("An I/O error occurred while sending to the backend");
+                statements.add("RESET ROLE");
+            }
+
+            @Override
+            protected void evict(Connection connection) {
+                evicted++;
+                super.evict(connection);
+            }
+
+            @Override
+            protected I_DomainAccess bind(ConnectionProvider provider) {
+                return null;
+            }
+
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    public void testReuseConnectionOfRole() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        manager.acquire("alice").close();
+        assertEquals(1, manager.getIdle());
+
+        manager.acquire("alice").close();
+        manager.acquire("bob").close();
+
+        assertEquals(2, opened);
+        assertEquals(0, closed);
+        assertEquals(1, manager.getHits());
+        assertEquals(2, manager.getMisses());
+        assertEquals(2, manager.getIdle());
+        assertEquals("[SET ROLE alice, SET ROLE bob]", statements.toString());
+    }
+
+    public void testReleasedOnceHandlesAreClosed() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        RoleConnectionManager.RoleConnection roleConnection = manager.acquire("alice");
+        Connection handle = roleConnection.acquire();
+        handle.setAutoCommit(false); //f.ex. a cursor
+        roleConnection.close();
+        assertEquals(0, manager.getIdle());
+
+        handle.close();
+        assertTrue(handle.isClosed());
+        assertEquals(1, manager.getIdle());
+        assertEquals(1, rollbacks);
+
+        try {
+            roleConnection.acquire();
+            fail("released connection handed out");
+        } catch (RuntimeException e) {
+            //expected
+        }
+    }
+
+    public void testResetWhenSubPoolIsFull() throws SQLException {
+        RoleConnectionManager manager = newManager(1, 8);
+
+        RoleConnectionManager.RoleConnection first = manager.acquire("alice");
+        RoleConnectionManager.RoleConnection second = manager.acquire("alice");
+        first.close();
+        second.close();
+
+        assertEquals(1, manager.getIdle());
+        assertEquals(1, closed);
+        assertEquals("[SET ROLE alice, SET ROLE alice, RESET ROLE]", statements.toString());
+    }
+
+    public void testNoSubPool() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 0);
+
+        manager.acquire("alice").close();
+        manager.acquire("alice").close();
+
+        assertEquals(0, manager.getIdle());
+        assertEquals(2, closed);
+        assertEquals(0, manager.getHits());
+    }
+
+    public void testIdleTimeout() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        manager.acquire("alice").close();
+        time = 1000;
+        manager.acquire("bob").close();
+
+        assertEquals(1, manager.getIdle());
+        assertEquals(1, closed);
+        assertEquals("[SET ROLE alice, RESET ROLE, SET ROLE bob]", statements.toString());
+    }
+
+    public void testDeniedRole() {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        try {
+            manager.acquire("denied");
+            fail("role should be denied");
+        } catch (SQLException e) {
+            assertEquals("ERROR: permission denied to set role", DataAccessExceptionMessage.error(e));
+        }
+        assertEquals(1, closed);
+    }
+
+    public void testEvictWhenRollbackFails() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        RoleConnectionManager.RoleConnection roleConnection = manager.acquire("alice");
+        Connection handle = roleConnection.acquire();
+        handle.setAutoCommit(false);
+        failRollback = true;
+        roleConnection.close();
+        handle.close();
+
+        assertEquals(0, manager.getIdle());
+        assertEquals(1, evicted);
+        assertEquals(1, closed);
+    }
+
+    public void testEvictWhenResetFails() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 0);
+
+        failReset = true;
+        manager.acquire("alice").close();
+
+        assertEquals(0, manager.getIdle());
+        assertEquals(1, evicted);
+        assertEquals(1, closed);
+        assertEquals("[SET ROLE alice]", statements.toString());
+    }
+
+    public void testShutdown() throws SQLException {
+        RoleConnectionManager manager = newManager(2, 8);
+
+        RoleConnectionManager.RoleConnection roleConnection = manager.acquire("alice");
+        manager.acquire("bob").close();
+        manager.shutdown();
+        assertEquals(0, manager.getIdle());
+
+        roleConnection.close();
+        assertEquals(2, closed);
+        assertEquals("[SET ROLE alice, SET ROLE bob, RESET ROLE, RESET ROLE]", statements.toString());
+    }
+}
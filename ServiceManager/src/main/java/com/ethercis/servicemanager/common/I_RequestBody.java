@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Body of a request passed to a service without materializing it<p>
+ * The content can be consumed only once, either as a stream, a reader or a string. Services able to parse
+ * incrementally should use the stream or reader, {@link #asString()} is provided for the others.
+ */
+public interface I_RequestBody {
+
+    /**
+     * @return the MIME type of the content as sent by the client, or null
+     */
+    String getContentType();
+
+    /**
+     * @return the content length as sent by the client, -1 if unknown
+     */
+    int getContentLength();
+
+    /**
+     * @return the charset of the content, UTF-8 if not specified in the content type
+     */
+    String getCharset();
+
+    /**
+     * get the raw content
+     * @return an InputStream on the body
+     * @throws IOException
+     * @throws IllegalStateException if the content has already been consumed
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * get the content decoded with {@link #getCharset()}
+     * @return a buffered Reader on the body
+     * @throws IOException
+     * @throws IllegalStateException if the content has already been consumed
+     */
+    Reader getReader() throws IOException;
+
+    /**
+     * read the whole content into a String, the result is kept for subsequent calls
+     * @return the content decoded with {@link #getCharset()}
+     * @throws IOException
+     * @throws IllegalStateException if the content has already been consumed as a stream
+     */
+    String asString() throws IOException;
+}
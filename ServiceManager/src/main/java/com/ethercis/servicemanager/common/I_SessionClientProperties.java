@@ -190,4 +190,25 @@ public interface I_SessionClientProperties {
 
 	public abstract void addClientProperty(String key, Object value);
 
+	/**
+	 * Access the request body when passed as a stream
+	 *
+	 * @return the body or null if none or if passed as a string property
+	 */
+	public abstract I_RequestBody getRequestBody();
+
+	/**
+	 * Attach a (lazily consumed) request body
+	 *
+	 * @param requestBody
+	 */
+	public abstract void setRequestBody(I_RequestBody requestBody);
+
+	/**
+	 * Access the response descriptor of the request carrying these properties
+	 *
+	 * @return the descriptor, never null
+	 */
+	public abstract ResponseDescriptor getResponseDescriptor();
+
 }
\ No newline at end of file
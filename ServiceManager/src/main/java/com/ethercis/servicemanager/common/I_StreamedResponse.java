@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response produced while it is sent to the client<p>
+ * A service returns an I_StreamedResponse when the result is too large to be built in memory, or when the
+ * processing itself is incremental (f.ex. a batch reporting the result of each item once committed). The gateway
+ * writes the response headers then calls {@link #writeTo(OutputStream)}, errors raised past this point cannot
+ * change the HTTP status anymore and must be reported in the content.<p>
+ * The gateway calls {@link #close()} once it is done with the response, whether it was written or not (f.ex. the
+ * request timed out or the client is gone before the headers are sent).
+ */
+public interface I_StreamedResponse extends AutoCloseable {
+
+    /**
+     * @return the MIME type of the content
+     */
+    String getContentType();
+
+    /**
+     * write the content, the stream is closed by the caller
+     * @param outputStream the response stream
+     * @throws IOException
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * release the resources held by the response (connection, cursor...), must be idempotent since it is also
+     * called after a successful {@link #writeTo(OutputStream)}
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram<p>
+ * Latencies are recorded in microseconds into log-linear buckets: each power of 2 is split in 4 sub-buckets,
+ * hence a percentile is reported with a precision better than 25%. Recording is a single atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * record a latency
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+        if (micros < 1)
+            micros = 1;
+        buckets.incrementAndGet(index(micros));
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros))
+                break;
+        }
+    }
+
+    static int index(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = msb >= SUB_BUCKET_BITS ? (int) ((value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1))
+                : (int) ((value << (SUB_BUCKET_BITS - msb)) & (SUB_BUCKETS - 1));
+        return msb * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the upper bound of the values recorded in a bucket (approximate below 4 microseconds)
+     */
+    static long upperBound(int index) {
+        int msb = index / SUB_BUCKETS;
+        long sub = index % SUB_BUCKETS;
+        if (msb >= SUB_BUCKET_BITS)
+            return (SUB_BUCKETS + sub + 1) << (msb - SUB_BUCKET_BITS);
+        return Math.max(1, (SUB_BUCKETS + sub + 1) >> (SUB_BUCKET_BITS - msb));
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            count += buckets.get(i);
+        return count;
+    }
+
+    /**
+     * @return the max recorded latency in microseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * get percentiles from a consistent copy of the buckets
+     * @param quantiles the quantiles (f.ex. 0.5, 0.95, 0.99)
+     * @return the latencies in microseconds, 0 if nothing is recorded
+     */
+    public long[] percentiles(double... quantiles) {
+        long[] snapshot = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+
+        long[] values = new long[quantiles.length];
+        if (total == 0)
+            return values;
+
+        long currentMax = max.get();
+        for (int q = 0; q < quantiles.length; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    values[q] = Math.min(upperBound(i), currentMax);
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import com.ethercis.servicemanager.common.def.Constants;
+
+import java.io.*;
+
+/**
+ * Lazy request body backed by the request InputStream<p>
+ * Nothing is read until a service asks for the content. The helpers {@link #contentAsString(I_SessionClientProperties)}
+ * and {@link #contentAsReader(I_SessionClientProperties)} hide whether the body was passed as a stream or
+ * as the legacy {@link Constants#REQUEST_CONTENT} string property.
+ */
+public class RequestBody implements I_RequestBody {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_PRESIZE = 16 * 1024 * 1024;
+
+    private final InputStream inputStream;
+    private final String contentType;
+    private final int contentLength;
+    private final String charset;
+    private boolean consumed = false;
+    private String content = null;
+
+    public RequestBody(InputStream inputStream, String contentType, int contentLength) {
+        this.inputStream = inputStream;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.charset = charsetOf(contentType);
+    }
+
+    /**
+     * extract the charset parameter from a content type, f.ex. "application/xml; charset=ISO-8859-1"
+     * @param contentType
+     * @return the charset or UTF-8 if not specified
+     */
+    static String charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String value = trimmed.substring(8).replace("\"", "").trim();
+                    if (!value.isEmpty())
+                        return value;
+                }
+            }
+        }
+        return Constants.UTF8_ENCODING;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getCharset() {
+        return charset;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (content != null)
+            return new ByteArrayInputStream(content.getBytes(charset));
+        if (consumed)
+            throw new IllegalStateException("Request body has already been consumed");
+        consumed = true;
+        return inputStream;
+    }
+
+    @Override
+    public Reader getReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(getInputStream(), charset), BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized String asString() throws IOException {
+        if (content != null)
+            return content;
+
+        InputStream stream = getInputStream();
+        //content length is the byte size, pre-size the buffer to avoid re-allocation
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(contentLength > 0 ? Math.min(contentLength, MAX_PRESIZE) : BUFFER_SIZE);
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int read;
+        try {
+            while ((read = stream.read(bytes)) != -1)
+                buffer.write(bytes, 0, read);
+        } finally {
+            stream.close();
+        }
+        content = buffer.toString(charset);
+        return content;
+    }
+
+    /**
+     * check if a request carries a body
+     * @param props the request properties
+     * @return true if a body is passed as a stream or as a string property
+     */
+    public static boolean hasContent(I_SessionClientProperties props) {
+        return props.getRequestBody() != null || props.getClientProperty(Constants.REQUEST_CONTENT, (String) null) != null;
+    }
+
+    /**
+     * get the request body as a String whatever the way it has been passed
+     * @param props the request properties
+     * @return the content or null if none
+     * @throws IOException
+     */
+    public static String contentAsString(I_SessionClientProperties props) throws IOException {
+        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        if (content != null)
+            return content;
+        I_RequestBody body = props.getRequestBody();
+        if (body == null)
+            return null;
+        return body.asString();
+    }
+
+    /**
+     * get the request body as a Reader whatever the way it has been passed
+     * @param props the request properties
+     * @return a Reader on the content or null if none
+     * @throws IOException
+     */
+    public static Reader contentAsReader(I_SessionClientProperties props) throws IOException {
+        String content = props.getClientProperty(Constants.REQUEST_CONTENT, (String) null);
+        if (content != null)
+            return new StringReader(content);
+        I_RequestBody body = props.getRequestBody();
+        if (body == null)
+            return null;
+        return body.getReader();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import com.ethercis.servicemanager.common.def.MethodName;
+
+/**
+ * Describes how the response of a request should be encoded<p>
+ * An instance is attached to the parameters of each request (see {@link I_SessionClientProperties#getResponseDescriptor()}),
+ * a service sets the return type when it differs from the one declared in its mapping (f.ex. XML vs. JSON
+ * depending on the requested format, or no content) and the entity tag of immutable contents. Being request
+ * scoped, no state is shared between concurrent requests.
+ */
+public class ResponseDescriptor {
+
+    private volatile int returnType = MethodName.RETURN_UNDEFINED;
+    private volatile String etag;
+    private volatile String ifNoneMatch;
+
+    /**
+     * force the return type of the response
+     * @param returnType one of MethodName.RETURN_xxx
+     */
+    public void setReturnType(int returnType) {
+        this.returnType = returnType;
+    }
+
+    /**
+     * @return the forced return type or MethodName.RETURN_UNDEFINED
+     */
+    public int getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * resolve the actual return type of the response
+     * @param mappedReturnType the return type declared in the method mapping
+     * @return the forced return type if any, the mapped one otherwise
+     */
+    public int resolve(int mappedReturnType) {
+        int forced = returnType;
+        return forced != MethodName.RETURN_UNDEFINED ? forced : mappedReturnType;
+    }
+
+    /**
+     * set a strong entity tag for an immutable content (f.ex. a versioned composition)
+     * @param etag the tag value, quoted if not already
+     */
+    public void setETag(String etag) {
+        if (etag != null && !etag.startsWith("\""))
+            etag = "\"" + etag + "\"";
+        this.etag = etag;
+    }
+
+    /**
+     * @return the entity tag of the content or null if none
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * set the entity tags the client already holds (If-None-Match header)
+     * @param ifNoneMatch the header value, null if not supplied
+     */
+    public void setIfNoneMatch(String ifNoneMatch) {
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    /**
+     * check whether the client already holds the content
+     * <p>
+     * a service can call this once the entity tag is set to skip building the content, the response is then
+     * sent without body (304)
+     * @return true if the entity tag matches one in If-None-Match
+     */
+    public boolean isNotModified() {
+        String current = etag;
+        String held = ifNoneMatch;
+        if (current == null || held == null)
+            return false;
+        for (String tag : held.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) //weak comparison for If-None-Match
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(current))
+                return true;
+        }
+        return false;
+    }
+}
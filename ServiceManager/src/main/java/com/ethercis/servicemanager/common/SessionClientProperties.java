@@ -39,6 +39,16 @@ public class SessionClientProperties implements I_SessionClientProperties {
 
     RunTimeSingleton glob;
 
+    /**
+     * optional request body, not stored as a ClientProperty since it is not materialized
+     */
+    private I_RequestBody requestBody = null;
+
+    /**
+     * response encoding set by the service for this request
+     */
+    private final ResponseDescriptor responseDescriptor = new ResponseDescriptor();
+
     /**
      * Sets the client property to the given value
      */
@@ -457,6 +467,21 @@ public class SessionClientProperties implements I_SessionClientProperties {
 	return retmap;
     }
 
+    @Override
+	public I_RequestBody getRequestBody() {
+	return requestBody;
+    }
+
+    @Override
+	public void setRequestBody(I_RequestBody requestBody) {
+	this.requestBody = requestBody;
+    }
+
+    @Override
+	public ResponseDescriptor getResponseDescriptor() {
+	return responseDescriptor;
+    }
+
     @Override
 	public String toString() {
 	   StringBuffer sb =new StringBuffer();
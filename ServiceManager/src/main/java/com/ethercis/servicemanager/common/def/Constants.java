@@ -448,6 +448,23 @@ public final class Constants {
 	public static final String SERVER_PERSISTENCE_REMOVE_ABANDONNED_TIMEOUT="server.persistence.dbcp2.remove_abandonned_timeout";
 	public static final String SERVER_PERSISTENCE_LOG_ABANDONNED="server.persistence.dbcp2.log_abandonned";
 	public static final String SERVER_PERSISTENCE_INITIAL_CONNECTIONS="server.persistence.dbcp2.initial_size";
+	public static final String SERVER_PERSISTENCE_IDENTITY_CACHE_SIZE="server.persistence.identity_cache.size";
+	public static final String SERVER_PERSISTENCE_IDENTITY_CACHE_TTL="server.persistence.identity_cache.ttl";
+	public static final String SERVER_PERSISTENCE_IDENTITY_CACHE_NEGATIVE_TTL="server.persistence.identity_cache.negative_ttl";
+	public static final String SERVER_PERSISTENCE_ROLE_POOL_MAX_IDLE_PER_ROLE="server.persistence.role_pool.max_idle_per_role";
+	public static final String SERVER_PERSISTENCE_ROLE_POOL_MAX_IDLE="server.persistence.role_pool.max_idle";
+	public static final String SERVER_PERSISTENCE_ROLE_POOL_IDLE_TIMEOUT="server.persistence.role_pool.idle_timeout";
+	public static final String SERVER_PERSISTENCE_HIKARI_MAX_SIZE="server.persistence.hikari.max_size";
+	public static final String SERVER_PERSISTENCE_HIKARI_MIN_IDLE="server.persistence.hikari.min_idle";
+	public static final String SERVER_PERSISTENCE_HIKARI_CONNECTION_TIMEOUT="server.persistence.hikari.connection_timeout";
+	public static final String SERVER_PERSISTENCE_HIKARI_IDLE_TIMEOUT="server.persistence.hikari.idle_timeout";
+	public static final String SERVER_PERSISTENCE_HIKARI_MAX_LIFETIME="server.persistence.hikari.max_lifetime";
+	public static final String SERVER_PERSISTENCE_HIKARI_KEEPALIVE="server.persistence.hikari.keepalive";
+	public static final String SERVER_PERSISTENCE_HIKARI_LEAK_DETECTION="server.persistence.hikari.leak_detection";
+	public static final String SERVER_PERSISTENCE_REPLICA_URLS="server.persistence.replica.urls";
+	public static final String SERVER_PERSISTENCE_REPLICA_LOGIN="server.persistence.replica.login";
+	public static final String SERVER_PERSISTENCE_REPLICA_PASSWORD="server.persistence.replica.password";
+	public static final String SERVER_PERSISTENCE_REPLICA_READ_YOUR_WRITES="server.persistence.replica.read_your_writes";
 
 	public static final String XML_POLICY_PATH_TAG = "server.security.policy.xml.path";
 	public static final String POLICY_TYPE_TAG     = "server.security.policy.type";
@@ -455,6 +472,22 @@ public final class Constants {
 	public static final String SERVER_AUDIT     = "server.audit";
 	public static final String DB_SECURITY_PRINCIPAL_PRECEDENCE = "server.security.role_precedence";
 	public static final String SQL_ENABLED     = "server.query.sql_enabled";
+	public static final String QUERY_FETCH_SIZE     = "server.query.fetch_size";
+	public static final String QUERY_CURSOR_MAX     = "server.query.cursor.max";
+	public static final String QUERY_CURSOR_TIMEOUT     = "server.query.cursor.timeout";
+	public static final String QUERY_AQL_CACHE_SIZE     = "server.query.aql_cache.size";
+	public static final String QUERY_RESULT_CACHE_SIZE     = "server.query.result_cache.size";
+	public static final String QUERY_RESULT_CACHE_TTL     = "server.query.result_cache.ttl";
+	public static final String QUERY_RESULT_CACHE_MAX_ROWS     = "server.query.result_cache.max_rows";
+	public static final String QUERY_FANOUT_THREADS     = "server.query.fanout.threads";
+	public static final String QUERY_FANOUT_MIN_EHRS     = "server.query.fanout.min_ehrs";
+	public static final String QUERY_LIMIT_PREFIX     = "server.query.limit.";
+	public static final String QUERY_JOB_THREADS     = "server.query.job.threads";
+	public static final String QUERY_JOB_QUEUE_SIZE     = "server.query.job.queue_size";
+	public static final String QUERY_JOB_MAX_JOBS     = "server.query.job.max_jobs";
+	public static final String QUERY_JOB_SPOOL_DIR     = "server.query.job.spool_dir";
+	public static final String QUERY_JOB_TTL     = "server.query.job.ttl";
+	public static final String QUERY_JOB_MAX_WAIT     = "server.query.job.max_wait";
 	public static final String JWT_KEY     = "server.jwt.key";
 	public static final String JWT_ALGORITHM = "server.jwt.algorithm";
 	public static final String JWT_KEY_FILE_PATH     = "server.jwt.key_file_path";
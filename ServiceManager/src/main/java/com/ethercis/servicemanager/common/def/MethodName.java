@@ -36,7 +36,11 @@ public final class MethodName implements java.io.Serializable, Comparable<Object
 
 	// The possible method return types, useful for SOCKET protocol (see requirement 'protocol.socket')
 
-	//used to force a return type from a service via the RunTimeSingleton
+	/**
+	 * @deprecated shared by all requests, use the request scoped
+	 * {@link com.ethercis.servicemanager.common.ResponseDescriptor} instead
+	 */
+	@Deprecated
 	public static final String RETURN_TYPE_PROPERTY = "return.type.property";
 
 	public static final int RETURN_VOID = 0;
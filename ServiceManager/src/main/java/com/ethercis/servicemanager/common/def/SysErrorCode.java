@@ -708,6 +708,20 @@ public final class SysErrorCode implements java.io.Serializable
          HttpServletResponse.SC_NOT_ACCEPTABLE
       );
 
+   public static final SysErrorCode USER_QUERY_LIMIT = new SysErrorCode("user.query.limit",
+         "The query exceeds a limit configured for its route or principal (estimated cost or number of rows).",
+         new ResourceInfo[] {
+         },
+         HttpServletResponse.SC_BAD_REQUEST
+      );
+
+   public static final SysErrorCode USER_QUERY_TIMEOUT = new SysErrorCode("user.query.timeout",
+         "The query has been cancelled by the database, it exceeded the statement timeout configured for its route or principal.",
+         new ResourceInfo[] {
+         },
+         HttpServletResponse.SC_GATEWAY_TIMEOUT
+      );
+
    public static final SysErrorCode USER_CLIENTCODE = new SysErrorCode("user.clientCode",
          "You may use this error code in your client implementation to throw your own exceptions.",
          new ResourceInfo[] {
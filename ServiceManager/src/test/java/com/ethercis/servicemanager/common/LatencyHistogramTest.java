@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.servicemanager.common;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++)
+            histogram.record(micros);
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+
+        long[] percentiles = histogram.percentiles(0.5, 0.99);
+        //bucket precision is 25%
+        assertTrue(percentiles[0] >= 500 && percentiles[0] <= 625);
+        assertTrue(percentiles[1] >= 990 && percentiles[1] <= 1000);
+    }
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentiles(0.5)[0]);
+    }
+}
@@ -0,0 +1,59 @@
+//Copyright
+package com.ethercis.servicemanager.common;
+
+import com.ethercis.servicemanager.common.def.Constants;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class RequestBodyTest extends TestCase {
+
+    private static final String CONTENT = "{\"name\":\"Ærøskøbing\"}";
+
+    public void testCharset() {
+        assertEquals("UTF-8", RequestBody.charsetOf(null));
+        assertEquals("UTF-8", RequestBody.charsetOf("application/json"));
+        assertEquals("ISO-8859-1", RequestBody.charsetOf("application/xml; charset=\"ISO-8859-1\""));
+    }
+
+    public void testAsString() throws IOException {
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        RequestBody body = new RequestBody(new ByteArrayInputStream(bytes), "application/json", bytes.length);
+
+        assertEquals(CONTENT, body.asString());
+        //kept for subsequent calls
+        assertEquals(CONTENT, body.asString());
+    }
+
+    public void testReaderConsumedOnce() throws IOException {
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        RequestBody body = new RequestBody(new ByteArrayInputStream(bytes), "application/json", bytes.length);
+
+        assertEquals(CONTENT, new BufferedReader(body.getReader()).readLine());
+
+        try {
+            body.getInputStream();
+            fail("body should not be readable twice");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    public void testContentFromProperties() throws IOException {
+        SessionClientProperties props = new SessionClientProperties(null);
+        assertFalse(RequestBody.hasContent(props));
+        assertNull(RequestBody.contentAsString(props));
+
+        props.addClientProperty(Constants.REQUEST_CONTENT, CONTENT);
+        assertTrue(RequestBody.hasContent(props));
+        assertEquals(CONTENT, RequestBody.contentAsString(props));
+
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        SessionClientProperties streamed = new SessionClientProperties(null);
+        streamed.setRequestBody(new RequestBody(new ByteArrayInputStream(bytes), null, bytes.length));
+        assertTrue(RequestBody.hasContent(streamed));
+        assertEquals(CONTENT, new BufferedReader(RequestBody.contentAsReader(streamed)).readLine());
+    }
+}
@@ -0,0 +1,23 @@
+//Copyright
+package com.ethercis.servicemanager.common;
+
+import junit.framework.TestCase;
+
+public class ResponseDescriptorTest extends TestCase {
+
+    public void testNotModified() {
+        ResponseDescriptor descriptor = new ResponseDescriptor();
+        descriptor.setIfNoneMatch("\"abc::node::1/XML\"");
+        assertFalse(descriptor.isNotModified()); //no entity tag set
+
+        descriptor.setETag("abc::node::1/XML");
+        assertEquals("\"abc::node::1/XML\"", descriptor.getETag());
+        assertTrue(descriptor.isNotModified());
+
+        descriptor.setIfNoneMatch("\"other\", W/\"abc::node::1/XML\"");
+        assertTrue(descriptor.isNotModified());
+
+        descriptor.setIfNoneMatch("\"abc::node::2/XML\"");
+        assertFalse(descriptor.isNotModified());
+    }
+}
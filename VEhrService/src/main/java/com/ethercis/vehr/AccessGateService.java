@@ -220,6 +220,17 @@ public class AccessGateService extends ClusterInfo implements AccessGateServiceM
         return requestDispatcher.isMappedMethodAsync(action, path, method);
     }
 
+    public void recordTransfer(MethodName action, String path, MethodName method, long requestBytes, long responseBytes) {
+        requestDispatcher.recordTransfer(action, path, method, requestBytes, responseBytes);
+    }
+
+    /**
+     * @return the route metrics in plain text format
+     */
+    public String metrics() {
+        return requestDispatcher.metrics();
+    }
+
 
     /**
      * little helper to get a ClientProperty and deal with array of parameters
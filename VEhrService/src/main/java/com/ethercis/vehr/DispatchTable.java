@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr;
+
+import com.ethercis.servicemanager.common.SessionClientProperties;
+import com.ethercis.servicemanager.common.def.MethodName;
+import com.ethercis.servicemanager.service.I_Service;
+import com.ethercis.vehr.metrics.RouteMetrics;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flat, immutable table of the dispatched routes<p>
+ * The table is compiled once the dispatch map is loaded: each (action, path, method) entry is resolved to a
+ * method handle bound to its runtime service and spread over the parameter array. Dispatching a request is then
+ * a single lookup followed by a direct invocation, exceptions thrown by the service are propagated as is.
+ */
+public final class DispatchTable {
+
+    public static final DispatchTable EMPTY = new DispatchTable(Collections.<String, Route>emptyMap());
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private final Map<String, Route> routes;
+
+    private DispatchTable(Map<String, Route> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * A compiled route
+     */
+    public static final class Route {
+        private final I_Service service;
+        private final Method implMethod;
+        private final MethodHandle invoker; //null if the method is mapped only for its return type
+        private final Class<?>[] signature;
+        private final int returnType;
+        private final boolean async;
+        private final RouteMetrics metrics;
+
+        private Route(I_Service service, Method implMethod, MethodHandle invoker, Class<?>[] signature, int returnType, boolean async, RouteMetrics metrics) {
+            this.service = service;
+            this.implMethod = implMethod;
+            this.invoker = invoker;
+            this.signature = signature;
+            this.returnType = returnType;
+            this.async = async;
+            this.metrics = metrics;
+        }
+
+        public I_Service getService() {
+            return service;
+        }
+
+        public int getReturnType() {
+            return returnType;
+        }
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public RouteMetrics getMetrics() {
+            return metrics;
+        }
+
+        public boolean isInvocable() {
+            return invoker != null;
+        }
+
+        public String getMethodName() {
+            return implMethod == null ? null : implMethod.getName();
+        }
+
+        /**
+         * check the parameters against the method signature
+         * <p>
+         * a single SessionClientProperties is always accepted (default signature)
+         * @param parameters
+         * @return
+         */
+        public boolean accepts(Object[] parameters) {
+            if (parameters.length == 1 && parameters[0] instanceof SessionClientProperties)
+                return true;
+            if (signature == null || parameters.length > signature.length)
+                return false;
+            for (int i = 0; i < parameters.length; i++) {
+                if (!parameters[i].getClass().equals(signature[i]))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the number of parameters matches the method arity
+         */
+        public boolean hasArity(Object[] parameters) {
+            return invoker != null && implMethod.getParameterCount() == parameters.length;
+        }
+
+        /**
+         * invoke the service method
+         * @param parameters
+         * @return the method result, null for a void method
+         * @throws Throwable any exception thrown by the service method
+         */
+        public Object invoke(Object[] parameters) throws Throwable {
+            return (Object) invoker.invokeExact(parameters);
+        }
+    }
+
+    static String key(String action, String path, String method) {
+        return action + ' ' + path + ' ' + method;
+    }
+
+    /**
+     * get the route for a query
+     * @param action
+     * @param path
+     * @param method
+     * @return the route or null if not mapped
+     */
+    public Route get(MethodName action, String path, MethodName method) {
+        return routes.get(key(action.getMethodName(), path, method.getMethodName()));
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * @return all the routes of the table
+     */
+    public Collection<Route> routes() {
+        return routes.values();
+    }
+
+    public static class Builder {
+        private final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        private final Map<String, Route> routes = new HashMap<>();
+
+        /**
+         * add a route
+         * @param action the action name
+         * @param path the mapped path
+         * @param method the method name
+         * @param service the runtime service, null if not resolved
+         * @param implMethod the service method, null if the method is mapped only for its return type
+         * @param signature the declared parameter classes, null for the default signature
+         * @param returnType one of MethodName.RETURN_xxx
+         * @param async
+         * @return this
+         * @throws IllegalAccessException if the method is not accessible
+         */
+        public Builder add(String action, String path, String method, I_Service service, Method implMethod, Class<?>[] signature, int returnType, boolean async) throws IllegalAccessException {
+            MethodHandle invoker = null;
+            if (service != null && implMethod != null) {
+                invoker = lookup.unreflect(implMethod)
+                        .bindTo(service)
+                        .asSpreader(Object[].class, implMethod.getParameterCount())
+                        .asType(INVOKER_TYPE);
+            }
+            routes.put(key(action, path, method), new Route(service, implMethod, invoker, signature, returnType, async,
+                    new RouteMetrics(action, path, method)));
+            return this;
+        }
+
+        public DispatchTable build() {
+            return new DispatchTable(Collections.unmodifiableMap(new HashMap<>(routes)));
+        }
+    }
+}
@@ -20,14 +20,14 @@ package com.ethercis.vehr;
 
 import com.ethercis.logonservice.session.I_SessionManager;
 import com.ethercis.servicemanager.common.MetaBuilder;
-import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
+import com.ethercis.vehr.response.JsonWriters;
 import org.apache.commons.lang.StringUtils;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.eclipse.jetty.server.Request;
 
 import javax.servlet.AsyncEvent;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -60,12 +60,9 @@ public abstract class FailedQueryEventResponse {
 
         Map<String, Map<String, String>> metaref = MetaBuilder.add2MetaMap(null, "href", uri + "?" + parms);
         retmap.putAll(metaref);
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setDateFormat(new ISO8601DateFormat());
-
         try {
-            String bodyContent = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(retmap);
-            servletResponse.setContentLength(bodyContent.getBytes().length);
+            String bodyContent = JsonWriters.writer(null).writeValueAsString(retmap);
+            servletResponse.setContentLength(bodyContent.getBytes(StandardCharsets.UTF_8).length);
             servletResponse.getWriter().write(bodyContent);
         } catch (IOException e) {
             e.printStackTrace();
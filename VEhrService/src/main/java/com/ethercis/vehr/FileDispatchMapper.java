@@ -122,6 +122,7 @@ public class FileDispatchMapper implements I_DispatchMapper {
 				}
 			}
 
+			requestDispatcher.compileDispatchTable();
 		} catch (XmlException e) {
 			log.warn("Could not parse config file:" + mapfile + ","
 					+ e.getMessage());
@@ -34,9 +34,36 @@ public interface I_HttpServiceConfiguration {
     String SERVER_HTTP_SEND_SERVER_VERSION = "server.http.send_server_version";
     String SERVER_HTTP_SEND_DATE_HEADER = "server.http.send_date_header";
 
+    //Response compression
+    String SERVER_HTTP_GZIP = "server.http.gzip";
+    String SERVER_HTTP_GZIP_MIN_SIZE = "server.http.gzip.min_size";
+    String SERVER_HTTP_GZIP_MIME_TYPES = "server.http.gzip.mime_types";
+
+    //JSON output
+    String SERVER_JSON_PRETTY_PRINT = "server.json.pretty_print";
+
+    //Request body handling: string or stream
+    String SERVER_REQUEST_BODY_MODE = "server.request.body_mode";
+
+    //Asynchronous request executor, pools are configured per route class: server.executor.<class>.threads...
+    String SERVER_EXECUTOR_MODE = "server.executor.mode";
+    String SERVER_EXECUTOR_PREFIX = "server.executor.";
+    String SERVER_EXECUTOR_THREADS_SUFFIX = ".threads";
+    String SERVER_EXECUTOR_QUEUE_SIZE_SUFFIX = ".queue_size";
+    String SERVER_EXECUTOR_RETRY_AFTER = "server.executor.retry_after";
+
+    //Route metrics scrape path (f.ex. /metrics), disabled if not set
+    String SERVER_METRICS_PATH = "server.metrics.path";
+
     //JMX
     String SERVER_USE_JMX = "server.use_jmx";
 
+    //HTTP/2: h2 (TLS with ALPN negotiation) on the https connector, h2c (clear text) on the http connector
+    String SERVER_HTTP2 = "server.http2";
+    String SERVER_HTTP2C = "server.http2c";
+    String SERVER_HTTP2_MAX_CONCURRENT_STREAMS = "server.http2.max_concurrent_streams";
+    String SERVER_HTTP2_INITIAL_STREAM_WINDOW = "server.http2.initial_stream_window";
+
     //SSL
     String SERVER_HTTPS_PORT = "server.https.port";
     String SERVER_HTTPS_HOST = "server.https.host";
@@ -28,12 +28,16 @@ import org.apache.commons.cli.Options;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.eclipse.jetty.alpn.ALPN;
 import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.jmx.MBeanContainer;
 import org.eclipse.jetty.server.*;
 import org.eclipse.jetty.server.handler.*;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -43,7 +47,6 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 
-import javax.net.ssl.SSLEngine;
 import javax.servlet.DispatcherType;
 import java.lang.management.ManagementFactory;
 import java.net.BindException;
@@ -182,7 +185,13 @@ public class Launcher implements I_HttpServiceConfiguration, I_EtherCISMBean {
         // HTTP
         HttpConfiguration http_config = httpConfiguration();
 
-        ServerConnector http = new ServerConnector(server, new HttpConnectionFactory(http_config));
+        ServerConnector http;
+        if (isEnabled(I_HttpServiceConfiguration.SERVER_HTTP2C)) {
+            //h2c: HTTP/2 over clear text, by upgrade or prior knowledge
+            http = new ServerConnector(server, new HttpConnectionFactory(http_config), http2ConnectionFactory(new HTTP2CServerConnectionFactory(http_config)));
+            logger.info("HTTP/2 clear text (h2c) enabled");
+        } else
+            http = new ServerConnector(server, new HttpConnectionFactory(http_config));
 
         http.setPort(httpPort);
         http.setHost(httpHost);
@@ -201,13 +210,29 @@ public class Launcher implements I_HttpServiceConfiguration, I_EtherCISMBean {
             HttpConfiguration https_config = new HttpConfiguration(http_config);
             https_config.addCustomizer(new SecureRequestCustomizer());
 
-//            SslConnectionFactory sslConnection = new SslConnectionFactory(sslContextFactory, "alpn");
-//            ALPNServerConnectionFactory alpnServerConnection = new ALPNServerConnectionFactory("http/1.1");
-//            alpnServerConnection.setDefaultProtocol("http/1.1");
-
-            ServerConnector sslConnector = new ServerConnector(server,
-                    new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.asString()),
-                    new HttpConnectionFactory(https_config));
+            ServerConnector sslConnector;
+            if (isEnabled(I_HttpServiceConfiguration.SERVER_HTTP2)) {
+                //h2 negotiated with ALPN, fallback to HTTP/1.1
+                ALPNServerConnectionFactory alpn;
+                try {
+                    alpn = new ALPNServerConnectionFactory();
+                } catch (IllegalStateException e) {
+                    throw new IllegalStateException("HTTP/2 (server.http2) requires ALPN: on Java 8 start the JVM with the alpn-boot jar matching the JDK version on the boot classpath (-Xbootclasspath/p:alpn-boot-<version>.jar), exception:" + e);
+                }
+                alpn.setDefaultProtocol(HttpVersion.HTTP_1_1.asString());
+                sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+                sslContextFactory.setUseCipherSuitesOrder(true);
+
+                sslConnector = new ServerConnector(server,
+                        new SslConnectionFactory(sslContextFactory, alpn.getProtocol()),
+                        alpn,
+                        http2ConnectionFactory(new HTTP2ServerConnectionFactory(https_config)),
+                        new HttpConnectionFactory(https_config));
+                logger.info("HTTP/2 (h2) enabled with ALPN negotiation");
+            } else
+                sslConnector = new ServerConnector(server,
+                        new SslConnectionFactory(sslContextFactory, HttpVersion.HTTP_1_1.asString()),
+                        new HttpConnectionFactory(https_config));
 
             Integer httpsPort = Integer.parseInt(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTPS_PORT, (String) null));
 
@@ -256,7 +281,7 @@ public class Launcher implements I_HttpServiceConfiguration, I_EtherCISMBean {
         servletContextHandler.addServlet(servletHolder, "/");
 
         HandlerList handlerList = new HandlerList();
-        handlerList.setHandlers(new Handler[]{servletContextHandler, new DefaultHandler()});
+        handlerList.setHandlers(new Handler[]{gzipHandler(servletContextHandler), new DefaultHandler()});
         server.setHandler(handlerList);
 
         AnnotatedMBean.RegisterMBean(this.getClass().getCanonicalName(), I_EtherCISMBean.class, this);
@@ -331,26 +356,26 @@ public class Launcher implements I_HttpServiceConfiguration, I_EtherCISMBean {
                 sslContext.setExcludeCipherSuites(cipherSuites.split(","));
         }
 
-//        if (sslContextFactory != null) {
-//            SSLEngine sslEngine = sslContextFactory.newSSLEngine();
-//            ALPN.put(sslEngine, new ALPN.ServerProvider() {
-//                @Override
-//                public void unsupported() {
-//                    ALPN.remove(sslEngine);
-//                }
-//
-//                @Override
-//                public String select(List<String> protocols) {
-//                    ALPN.remove(sslEngine);
-//                    return protocols.get(0);
-//                }
-//
-//            });
-//        }
-
         return sslContext;
     }
 
+    private boolean isEnabled(String key) {
+        return Boolean.parseBoolean(global.getProperty().get(key, "false"));
+    }
+
+    /**
+     * apply the HTTP/2 settings to a connection factory (h2 or h2c)
+     * @param factory
+     * @return the factory
+     */
+    AbstractHTTP2ServerConnectionFactory http2ConnectionFactory(AbstractHTTP2ServerConnectionFactory factory) {
+        if (global.getProperty().propertyExists(I_HttpServiceConfiguration.SERVER_HTTP2_MAX_CONCURRENT_STREAMS))
+            factory.setMaxConcurrentStreams(Integer.parseInt(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTP2_MAX_CONCURRENT_STREAMS, (String) null)));
+        if (global.getProperty().propertyExists(I_HttpServiceConfiguration.SERVER_HTTP2_INITIAL_STREAM_WINDOW))
+            factory.setInitialStreamRecvWindow(Integer.parseInt(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTP2_INITIAL_STREAM_WINDOW, (String) null)));
+        return factory;
+    }
+
     FilterHolder cors() throws ServiceManagerException {
         allowHeaders = global.get(I_HttpServiceConfiguration.SERVER_CORS_ALLOW_HEADERS, allowHeaders, null, null);
         allowedMethods = global.get(I_HttpServiceConfiguration.SERVER_CORS_ALLOW_METHODS, allowedMethods, null, null);
@@ -392,6 +417,25 @@ public class Launcher implements I_HttpServiceConfiguration, I_EtherCISMBean {
         return null;
     }
 
+    /**
+     * wrap the handler with a negotiated gzip compression stage if server.http.gzip is set
+     * @param handler the servlet context handler
+     * @return the gzip handler or the handler as is if compression is not enabled
+     */
+    Handler gzipHandler(Handler handler) {
+        if (!Boolean.parseBoolean(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTP_GZIP, "false")))
+            return handler;
+
+        GzipHandler gzipHandler = new GzipHandler();
+        gzipHandler.setIncludedMethods("GET", "POST", "PUT");
+        if (global.getProperty().propertyExists(I_HttpServiceConfiguration.SERVER_HTTP_GZIP_MIN_SIZE))
+            gzipHandler.setMinGzipSize(Integer.parseInt(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTP_GZIP_MIN_SIZE, (String) null)));
+        gzipHandler.setIncludedMimeTypes(global.getProperty().get(I_HttpServiceConfiguration.SERVER_HTTP_GZIP_MIME_TYPES, "application/json,application/xml,text/plain,text/html").split(","));
+        gzipHandler.setHandler(handler);
+        logger.info("Response compression enabled (gzip)");
+        return gzipHandler;
+    }
+
     RequestLogHandler requestLogHandler() {
         NCSARequestLog requestLog = new NCSARequestLog();
         if (global.getProperty().propertyExists(I_HttpServiceConfiguration.SERVER_REQUEST_LOG_FILENAME))
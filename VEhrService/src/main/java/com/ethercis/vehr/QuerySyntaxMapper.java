@@ -96,6 +96,7 @@ public class QuerySyntaxMapper implements I_DispatchMapper {
 
 		}
 
+		requestDispatcher.compileDispatchTable();
 	}
 
 }
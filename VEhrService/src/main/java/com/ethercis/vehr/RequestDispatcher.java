@@ -16,6 +16,7 @@
  */
 package com.ethercis.vehr;
 
+import com.ethercis.persistence.InvocationContext;
 import com.ethercis.servicemanager.annotation.Attribute;
 import com.ethercis.servicemanager.annotation.Attributes;
 import com.ethercis.servicemanager.annotation.RunLevelAction;
@@ -32,11 +33,11 @@ import com.ethercis.servicemanager.common.session.I_QueryUnit;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 import com.ethercis.servicemanager.service.I_Service;
 import com.ethercis.servicemanager.service.ServiceInfo;
+import com.ethercis.vehr.metrics.RouteMetrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
@@ -90,6 +91,8 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 	private String ME = "RequestDispatcher";
 	private RunTimeSingleton global;
 	Map<String, Map<String, ServiceAttribute>> actionmap = new HashMap<String, Map<String, ServiceAttribute>>();
+	/** routes compiled from actionmap, used for dispatching */
+	private volatile DispatchTable dispatchTable = DispatchTable.EMPTY;
 	// private Map<String, ServiceAttribute> servicemap = new HashMap<String,
 	// ServiceAttribute>();
 	String configurationID;
@@ -396,17 +399,8 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 	 */
 	public int getMappedMethodReturnType(MethodName action, String path,
 			MethodName method) {
-		if (actionmap.containsKey(action.getMethodName())) {
-			Map<String, ServiceAttribute> servicemap = actionmap.get(action
-					.getMethodName());
-			//System.respond.println("servicemap=" +action.getMethodName() +":" +path + ":"+method.getMethodName() );
-			if (servicemap.containsKey(path)) {
-				ServiceAttribute sa = servicemap.get(path);
-				// get the method
-				return sa.getMethodReturnType(method);
-			}
-		}
-		return MethodName.RETURN_UNDEFINED;
+		DispatchTable.Route route = dispatchTable.get(action, path, method);
+		return route == null ? MethodName.RETURN_UNDEFINED : route.getReturnType();
 	}
 
 	/**
@@ -418,16 +412,37 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 	 * @return
 	 */
 	public boolean isMappedMethodAsync(MethodName action, String path,MethodName method) {
-		if (actionmap.containsKey(action.getMethodName())) {
-			Map<String, ServiceAttribute> servicemap = actionmap.get(action.getMethodName());
+		DispatchTable.Route route = dispatchTable.get(action, path, method);
+		return route != null && route.isAsync();
+	}
 
-			if (servicemap.containsKey(path)) {
-				ServiceAttribute sa = servicemap.get(path);
-				// get the method
-				return sa.isMethodAsync(method);
+	/**
+	 * compile the loaded action map into the dispatch table
+	 * <p>
+	 * called by the dispatch mappers once the configuration is loaded
+	 *
+	 * @throws ServiceManagerException if a mapped method cannot be accessed
+	 */
+	void compileDispatchTable() throws ServiceManagerException {
+		DispatchTable.Builder builder = new DispatchTable.Builder();
+		for (Map.Entry<String, Map<String, ServiceAttribute>> action : actionmap.entrySet()) {
+			for (Map.Entry<String, ServiceAttribute> path : action.getValue().entrySet()) {
+				ServiceAttribute sa = path.getValue();
+				for (Map.Entry<String, ServiceAttribute.MethodAttribute> method : sa.getMethods().entrySet()) {
+					ServiceAttribute.MethodAttribute attribute = method.getValue();
+					try {
+						builder.add(action.getKey(), path.getKey(), method.getKey(), sa.getRuntimeService(),
+								attribute.getImplMethod(), attribute.getSignature(), attribute.getReturnType(), attribute.isAsync());
+					} catch (IllegalAccessException e) {
+						log.warn("Illegal access to method:" + attribute.getMapMethod() + ":" + e.getMessage());
+						throw new ServiceManagerException(global, SysErrorCode.USER_CONFIGURATION, ME,
+								"Illegal access to method:" + attribute.getMapMethod() + ":" + e.getMessage());
+					}
+				}
 			}
 		}
-		return false;
+		dispatchTable = builder.build();
+		log.info("Dispatch table compiled, routes:" + dispatchTable.size());
 	}
 
 	private boolean existAction(MethodName action) {
@@ -515,7 +530,9 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 			return "Service is currently disabled\n";
 		}
 
-		if (!existPath(action, path)) {
+		DispatchTable.Route route = dispatchTable.get(action, path, method);
+
+		if (route == null && !existPath(action, path)) {
 			log.warn("No mapping defined for path:" + path + " for action:"
 					+ action);
 			throw new ServiceManagerException(global,
@@ -523,7 +540,7 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 					"No mapping defined for path:" + path);
 		}
 
-		I_Service service = getRuntimeService(action, path);
+		I_Service service = route == null ? getRuntimeService(action, path) : route.getService();
 
 		if (service == null) {
 			log.warn("No service implementation::" + path);
@@ -532,50 +549,45 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 					"No service implementation:" + path);
 		}
 
-		Method servicemethod;
 		log.debug("Service="+service +";parameters=" +parameters.length);
-		if (parameters.length == 1 && parameters[0] instanceof SessionClientProperties) { // default
-			servicemethod = getMappedMethod(action, path, method);
-		} else{
-			servicemethod = getMappedMethod(action, path, method, parameters);
-		}
-		if (servicemethod == null) {
+		if (route == null || !route.isInvocable() || !route.accepts(parameters)) {
 			log.warn("No mapping for method:" + method + " in service:" + path);
 			throw new ServiceManagerException(global,
 					SysErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
 					"No mapping for method:" + method + " in service:" + path);
 		}
 
+		if (!route.hasArity(parameters)) {
+			log.warn("Bad arguments to method:" + route.getMethodName() + ": wrong number of arguments");
+			throw new ServiceManagerException(global,
+					SysErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
+					"Bad arguments to method:" + route.getMethodName() + ": wrong number of arguments");
+		}
+
 		// perform the invocation
 		Object result;
+		RouteMetrics metrics = route.getMetrics();
+		long start = metrics.begin();
+		// audit settings and DB role of the request are confined to this invocation
+		InvocationContext context = InvocationContext.open();
 
 		try {
-			result = servicemethod.invoke(service, parameters);
-		} catch (IllegalArgumentException e) {
-			log.warn("Bad arguments to method:" + servicemethod.getName() + ":"
-					+ e.getMessage());
+			result = route.invoke(parameters);
+		} catch (ServiceManagerException e) {
+			metrics.error(e.getErrorCodeStr());
+			throw e;
+		} catch (Throwable e) {
+			metrics.error(SysErrorCode.INTERNAL_UNKNOWN.getErrorCode());
+			log.warn("Invocation exception to method:"
+					+ route.getMethodName(), e);
 			throw new ServiceManagerException(global,
-					SysErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
-					"Bad arguments to method:" + servicemethod.getName() + ":"
-							+ e.getMessage());
-		} catch (IllegalAccessException e) {
-			log.warn("Illegal access to method:" + servicemethod.getName()
-					+ ":" + e.getMessage());
-			throw new ServiceManagerException(global, SysErrorCode.INTERNAL_UNKNOWN,
-					ME, "Illegal access to method:" + servicemethod.getName()
-							+ ":" + e.getMessage());
-		} catch (InvocationTargetException e) {
-			if (e.getTargetException() instanceof ServiceManagerException) {
-				throw (ServiceManagerException) e.getTargetException();
-			} else {
-				log.warn("Invocation exception to method:"
-						+ servicemethod.getName(),e.getTargetException());
-				throw new ServiceManagerException(global,
-						SysErrorCode.INTERNAL_UNKNOWN, ME,
-						"Invocation exception to method:"
-								+ servicemethod.getName() + ":"
-								+ e.getTargetException());
-			}
+					SysErrorCode.INTERNAL_UNKNOWN, ME,
+					"Invocation exception to method:"
+							+ route.getMethodName() + ":"
+							+ e);
+		} finally {
+			context.close();
+			metrics.end(start);
 		}
 
 		/*
@@ -591,7 +603,38 @@ public class RequestDispatcher extends ClusterInfo implements RequestDispatcherM
 				query.getMethod(), query.getParameters());
 	}
 
+	/**
+	 * count the bytes exchanged for a dispatched query
+	 *
+	 * @param action
+	 * @param path
+	 * @param method
+	 * @param requestBytes the request body length
+	 * @param responseBytes the response length
+	 */
+	public void recordTransfer(MethodName action, String path, MethodName method, long requestBytes, long responseBytes) {
+		DispatchTable.Route route = dispatchTable.get(action, path, method);
+		if (route != null)
+			route.getMetrics().transfer(requestBytes, responseBytes);
+	}
+
 	// JMX
+	public String metrics() {
+		StringBuilder sb = new StringBuilder();
+		for (DispatchTable.Route route : dispatchTable.routes()) {
+			RouteMetrics metrics = route.getMetrics();
+			if (metrics.getRequests() > 0 || metrics.getInFlight() > 0)
+				metrics.appendText(sb);
+		}
+		return sb.toString();
+	}
+
+	public String resetMetrics() {
+		for (DispatchTable.Route route : dispatchTable.routes())
+			route.getMetrics().reset();
+		return "Metrics reset\n";
+	}
+
 	public String showMap() {
 		StringBuffer sb = new StringBuffer();
 
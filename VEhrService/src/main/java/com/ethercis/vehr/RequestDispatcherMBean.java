@@ -26,4 +26,9 @@ public interface RequestDispatcherMBean {
 	public String enable();
 	public String disable();
 	public String status();
+	/**
+	 * per route latency percentiles, requests in flight, errors and byte counts in plain text format
+	 */
+	public String metrics();
+	public String resetMetrics();
 }
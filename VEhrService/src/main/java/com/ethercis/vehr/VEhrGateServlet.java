@@ -32,12 +32,15 @@ import com.ethercis.servicemanager.runlevel.I_RunlevelListener;
 import com.ethercis.servicemanager.runlevel.I_ServiceRunMode;
 import com.ethercis.servicemanager.runlevel.RunlevelManager;
 import com.ethercis.servicemanager.service.ServiceRegistry;
+import com.ethercis.vehr.executor.RequestExecutor;
 import com.ethercis.vehr.parser.I_URIParser;
+import com.ethercis.vehr.parser.ParsedRequest;
 import com.ethercis.vehr.response.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.xmlbeans.XmlObject;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.ServletResponseHttpWrapper;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
 
@@ -45,14 +48,10 @@ import javax.servlet.*;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Enumeration;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 //use Jetty servlet-api
 
@@ -77,6 +76,7 @@ public class VEhrGateServlet extends HttpServlet implements
     private RunTimeSingleton global = null;
     private static Logger log = LogManager.getLogger(VEhrGateServlet.class);
     private boolean isAsynchQuery = false;
+    private boolean isStreamedBody = false;
     // private final String header =
     // "<html><meta http-equiv='no-cache'><meta http-equiv='Cache-Control' content='no-cache'><meta http-equiv='expires' content='Wed, 26 Feb 1997 08:21:57 GMT'>";
 
@@ -108,10 +108,13 @@ public class VEhrGateServlet extends HttpServlet implements
     /**
      * used to service asynchronous queries
      */
-    private ExecutorService executor;
+    private RequestExecutor executor;
     private int threadPoolSize = 3;
     private int callback_timeout = 60000;
 
+    //plain text scrape of the route metrics, disabled if null
+    private String metricsPath;
+
     //select the URI parser depending on the runtime dialect
     private I_URIParser uriParser;
 
@@ -183,7 +186,10 @@ public class VEhrGateServlet extends HttpServlet implements
             if (isAsynchQuery)
                 log.info("Server mode is set to ASYNCHRONOUS");
 
-            executor = Executors.newFixedThreadPool(threadPoolSize);
+            configureExecutor();
+            configureMetrics();
+            configureJsonOutput();
+            configureRequestBody();
         }
 
 
@@ -203,6 +209,12 @@ public class VEhrGateServlet extends HttpServlet implements
 
         global = RunTimeSingleton.instance().getClone(args);
 
+        threadPoolSize = global.getProperty().get("server.threadpoolsize", 10);
+        configureExecutor();
+        configureMetrics();
+        configureJsonOutput();
+        configureRequestBody();
+
         //setup the dialect parser
         String compatibilityValue = global.getProperty().get(I_ServiceRunMode.SERVER_DIALECT_PARAMETER, I_ServiceRunMode.DialectSpace.STANDARD.toString());
         I_ServiceRunMode.DialectSpace dialectSpace = I_ServiceRunMode.DialectSpace.valueOf(compatibilityValue);
@@ -279,6 +291,57 @@ public class VEhrGateServlet extends HttpServlet implements
         log.info("VEhrGate initializeSession complete");
     }
 
+    /**
+     * configure the shared JSON writers once for all requests
+     * <p>
+     * Output is compact unless server.json.pretty_print is set or pretty=true is passed in the query
+     */
+    private void configureJsonOutput() {
+        boolean prettyPrint = global.getProperty().get(I_HttpServiceConfiguration.SERVER_JSON_PRETTY_PRINT, false);
+        JsonWriters.configure(prettyPrint);
+        log.info("JSON pretty print by default:" + prettyPrint);
+    }
+
+    /**
+     * enable the plain text scrape of the route metrics if server.metrics.path is set
+     */
+    private void configureMetrics() {
+        metricsPath = global.getProperty().get(I_HttpServiceConfiguration.SERVER_METRICS_PATH, (String) null);
+        if (metricsPath != null)
+            log.info("Route metrics exposed at:" + metricsPath);
+    }
+
+    /**
+     * write the route metrics as plain text
+     *
+     * @param res
+     * @throws IOException
+     */
+    private void metricsOutput(HttpServletResponse res) throws IOException {
+        res.setStatus(HttpServletResponse.SC_OK);
+        res.setContentType("text/plain;charset=UTF-8");
+        res.getWriter().write(controller.metrics());
+    }
+
+    /**
+     * setup the bounded pools servicing asynchronous queries (see {@link RequestExecutor}), once: the launcher
+     * initializes the servlet with its arguments before the container initializes it again with its config
+     */
+    private void configureExecutor() {
+        if (executor != null)
+            return;
+        executor = new RequestExecutor(global, threadPoolSize);
+    }
+
+    /**
+     * select how request bodies are passed to services: 'string' (default) or 'stream'
+     */
+    private void configureRequestBody() {
+        String bodyMode = global.getProperty().get(I_HttpServiceConfiguration.SERVER_REQUEST_BODY_MODE, "string");
+        isStreamedBody = bodyMode.equalsIgnoreCase("stream");
+        log.info("Request body mode:" + (isStreamedBody ? "stream" : "string"));
+    }
+
     public void destroy() {
         log.info("Shutdown requested by context, closing down...");
         // tell the runlevel manager to shutdown gracefully the services...
@@ -446,6 +509,11 @@ public class VEhrGateServlet extends HttpServlet implements
     public void doGet(HttpServletRequest req, HttpServletResponse res)
             throws ServletException, IOException {
 
+        if (metricsPath != null && metricsPath.equals(req.getRequestURI())) {
+            metricsOutput(res);
+            return;
+        }
+
         processRequest(MethodName.GET, req, res, null);
 
         if (res.containsHeader(CrossOriginFilter.ACCESS_CONTROL_ALLOW_ORIGIN_HEADER)) { //ugly patch...
@@ -474,53 +542,18 @@ public class VEhrGateServlet extends HttpServlet implements
             res.addHeader(CrossOriginFilter.ACCESS_CONTROL_ALLOW_ORIGIN_HEADER, "*");
     }
 
-    /**
-     * read the request body logonservice sent from the client
-     *
-     * @param req
-     * @return
-     * @throws java.io.IOException
-     */
-    private String getRequestBody(HttpServletRequest req) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        BufferedReader reader = null;
-        // String content = "";
-
-        try {
-            InputStream inputStream = req.getInputStream();
-            if (inputStream != null) {
-                reader = new BufferedReader(new InputStreamReader(inputStream));
-                char[] charBuffer = new char[128];
-                int bytesRead = -1;
-                while ((bytesRead = reader.read(charBuffer)) > 0) {
-                    stringBuilder.append(charBuffer, 0, bytesRead);
-                }
-            } else {
-                stringBuilder.append("");
-            }
-        } catch (IOException ex) {
-            throw ex;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ex) {
-                    throw ex;
-                }
-            }
-        }
-
-        return stringBuilder.toString();
-    }
-
     /**
      * set up request content properties:
      * <p>
      * <ul>
-     * <li>x-request-content the actual content
+     * <li>x-request-content the actual content (string mode only)
      * <li>x-request-content-type the content MIME type
      * <li>x-request-content-length content length
      * </ul>
+     * In stream mode (server.request.body_mode=stream) the content is not read here, it is passed as a
+     * lazily consumed {@link I_RequestBody} which services retrieve with {@link RequestBody#contentAsReader}
+     * or {@link RequestBody#contentAsString}. The body is decoded with the charset declared by the client, UTF-8
+     * by default.
      *
      * @param req
      * @return SessionClientProperties or null if no content
@@ -531,13 +564,19 @@ public class VEhrGateServlet extends HttpServlet implements
         SessionClientProperties bodyprops = null;
         int body_length = req.getContentLength();
         if (body_length > 0) {
-            String content = getRequestBody(req);
-            if (content != null && content.length() > 0) {
-                bodyprops = new SessionClientProperties(global);
+            RequestBody requestBody = new RequestBody(req.getInputStream(), req.getContentType(), body_length);
+            bodyprops = new SessionClientProperties(global);
+            if (isStreamedBody)
+                bodyprops.setRequestBody(requestBody);
+            else {
+                String content = requestBody.asString();
+                if (content.length() == 0)
+                    return null;
                 bodyprops.addClientProperty(Constants.REQUEST_CONTENT, content);
-                bodyprops.addClientProperty(Constants.REQUEST_CONTENT_TYPE, req.getContentType());
-                bodyprops.addClientProperty(Constants.REQUEST_CONTENT_LENGTH, req.getContentLength());
             }
+            if (req.getContentType() != null)
+                bodyprops.addClientProperty(Constants.REQUEST_CONTENT_TYPE, req.getContentType());
+            bodyprops.addClientProperty(Constants.REQUEST_CONTENT_LENGTH, body_length);
         }
         return bodyprops;
     }
@@ -580,8 +619,9 @@ public class VEhrGateServlet extends HttpServlet implements
                                HttpServletResponse servletResponse, I_SessionClientProperties sessionClientProperties)
             throws ServletException, IOException {
 
+        ParsedRequest parsedRequest;
         try {
-            uriParser.parse(servletRequest);
+            parsedRequest = uriParser.parseRequest(servletRequest);
         } catch (ServiceManagerException e1) {
             throw new ServletException("badly formed path:" + servletRequest.getRequestURI() + ", error:" + e1.getMessage());
         }
@@ -590,34 +630,27 @@ public class VEhrGateServlet extends HttpServlet implements
 //		HttpParameters httpParameters = HttpParameters.getInstance(global, servletRequest.getParameterMap());
 //		I_SessionClientProperties props = httpParameters.getProperties();
 
-        I_SessionClientProperties props = uriParser.identifyParametersAsProperties();
+        I_SessionClientProperties props = parsedRequest.getParameters();
 
         props.addClientProperty(I_SessionManager.CLIENT_IP, servletRequest.getRemoteAddr());
+        props.getResponseDescriptor().setIfNoneMatch(servletRequest.getHeader(HttpHeader.IF_NONE_MATCH.asString()));
 
         // add the additional properties (f.ex. request body) if any
-        if (sessionClientProperties != null)
+        if (sessionClientProperties != null) {
             props.getClientProperties().putAll(sessionClientProperties.getClientProperties());
+            props.setRequestBody(sessionClientProperties.getRequestBody());
+        }
 
         // sets the meta-data from header
-        I_SessionClientProperties hdrprops = HttpParameters.getInstanceFromHeader(global, servletRequest);
+        I_SessionClientProperties hdrprops = parsedRequest.getHeaders();
         MethodName method;
-        String path = uriParser.identifyPath();
+        String path = parsedRequest.getPath();
 
         try {
-            method = MethodName.toMethodName(uriParser.identifyMethod());
+            method = MethodName.toMethodName(parsedRequest.getMethod());
         } catch (IllegalArgumentException e) {
             throw new ServletException("No service for path/method call:"
                     + servletRequest.getPathInfo() + ", error:" + e.getMessage());
-        } catch (ServiceManagerException e2) {
-            if (e2.getErrorCode() == SysErrorCode.INTERNAL_ILLEGALARGUMENT)
-                throw new ServletException("No service for path/method call:"
-                        + servletRequest.getPathInfo() + ", error:" + e2.getMessage());
-            else // process the error and return it to the sender
-            {
-                log.info("Error trapped:" + e2.getErrorCodeStr());
-                errorOutput(servletResponse, e2);
-                return;
-            }
         }
 
         if (controller.isMappedMethodAsync(action, path, method) || isAsynchQuery) {
@@ -657,7 +690,8 @@ public class VEhrGateServlet extends HttpServlet implements
             }
         }
 
-        handleOutput(controller.getMappedMethodReturnType(action, path, method), output, res, path);
+        handleOutput(controller.getMappedMethodReturnType(action, path, method), output, res, path, parameters);
+        recordTransfer(action, path, method, parameters, res);
     }
 
     /**
@@ -742,75 +776,150 @@ public class VEhrGateServlet extends HttpServlet implements
                              final I_SessionClientProperties header, final String path,
                              final MethodName method, final I_SessionClientProperties parameters, HttpServletResponse response) {
 
-        executor.execute(new Runnable() {
-            Object output;
-
-            public void run() {
-
-                try {
-                    output = controller.queryHandler(action, header, path, method, parameters);
-                } catch (ServiceManagerException e2) {
-                    if (e2.getErrorCode() == SysErrorCode.INTERNAL_ILLEGALARGUMENT)
-                        log.warn("No service for path/method call:" + path
-                                + ", error:" + e2.getMessage());
-                    else // process the error and return it to the sender
-                    {
-                        log.info("Error trapped:" + e2.getMessage());
-                        try {
-                            errorOutput(response, e2);
-                        } catch (ServletException e) {
-                            e.printStackTrace();
+        try {
+            executor.execute(path, method, new Runnable() {
+                Object output;
+
+                public void run() {
+
+                    try {
+                        output = controller.queryHandler(action, header, path, method, parameters);
+                    } catch (ServiceManagerException e2) {
+                        if (e2.getErrorCode() == SysErrorCode.INTERNAL_ILLEGALARGUMENT)
+                            log.warn("No service for path/method call:" + path
+                                    + ", error:" + e2.getMessage());
+                        else // process the error and return it to the sender
+                        {
+                            log.info("Error trapped:" + e2.getMessage());
+                            try {
+                                errorOutput(response, e2);
+                            } catch (ServletException e) {
+                                e.printStackTrace();
+                            }
+                            if (ctx != null)
+                                ctx.complete();
+                            return;
                         }
-                        if (ctx != null)
-                            ctx.complete();
-                        return;
                     }
-                }
 
-                try {
-                    // response is null if the context has already timed out
-                    // (at this point the app server has called the listener
-                    // already)
-                    ServletResponse response = ctx.getResponse();
-
-                    if (response != null) {
-                        handleOutput(controller.getMappedMethodReturnType(action, path, method), output, response, path);
-                        if (ctx != null) //if AsyncContext is supported, otherwise ignore...
-                            ctx.complete();
-                    } else {
-                        throw new IllegalStateException(
-                                "Response object from context is null!");
-                    }
-                } catch (Exception e) {
-                    log("Problem processing task", e);
+                    try {
+                        // response is null if the context has already timed out
+                        // (at this point the app server has called the listener
+                        // already)
+                        ServletResponse response = ctx.getResponse();
+
+                        if (response != null) {
+                            handleOutput(controller.getMappedMethodReturnType(action, path, method), output, response, path, parameters);
+                            recordTransfer(action, path, method, parameters, response);
+                            if (ctx != null) //if AsyncContext is supported, otherwise ignore...
+                                ctx.complete();
+                        } else {
+                            throw new IllegalStateException(
+                                    "Response object from context is null!");
+                        }
+                    } catch (Exception e) {
+                        log("Problem processing task", e);
 //                    try {
 //                        errorOutput(ctx.getResponse(), new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "request timeout"));
 //                    } catch (ServletException e1) {
 //                        ;
 //                    }
 //                    e.printStackTrace();
+                    } finally {
+                        //the output is not sent if the request timed out
+                        releaseOutput(output);
+                    }
+
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Request rejected, " + e.getMessage() + ", path:" + path);
+            rejectOutput(ctx, response);
+        }
+    }
 
-            }
-        });
+    /**
+     * count the request and response bytes in the route metrics
+     *
+     * @param action
+     * @param path
+     * @param method
+     * @param parameters
+     * @param response
+     */
+    private void recordTransfer(MethodName action, String path, MethodName method, I_SessionClientProperties parameters, ServletResponse response) {
+        long requestBytes = parameters.getClientProperty(Constants.REQUEST_CONTENT_LENGTH, 0L);
+        long responseBytes = response instanceof Response ? ((Response) response).getHttpOutput().getWritten() : 0L;
+        controller.recordTransfer(action, path, method, requestBytes, responseBytes);
+    }
+
+    /**
+     * answer a request the executor could not accept: 429 if its pool is saturated, 503 if the server is stopping
+     *
+     * @param ctx
+     * @param response
+     */
+    private void rejectOutput(AsyncContext ctx, HttpServletResponse response) {
+        int status = executor.isShutdown() ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : 429; //Too Many Requests
+        response.setStatus(status);
+        response.setHeader(HttpHeader.RETRY_AFTER.asString(), Integer.toString(executor.getRetryAfter()));
+        response.setHeader(I_SessionManager.ERROR_MESSAGE, status == 429 ? "server busy" : "server unavailable");
+        ctx.complete();
     }
 
 
     /**
-     * encode the response according to the method return type.
+     * encode the response according to the method return type, a streamed response is released whether it was
+     * written or not.
      *
      * @param returnType
      * @param output
      * @param res
+     * @param parameters the query parameters (used for output options f.ex. pretty=true)
      * @throws ServletException
      * @throws java.io.IOException
      */
-    private void handleOutput(int returnType, Object output, Object res, String path) throws ServletException, IOException, IllegalArgumentException {
+    private void handleOutput(int returnType, Object output, Object res, String path, I_SessionClientProperties parameters) throws ServletException, IOException, IllegalArgumentException {
+        try {
+            encodeOutput(returnType, output, res, path, parameters);
+        } finally {
+            releaseOutput(output);
+        }
+    }
+
+    /**
+     * release the resources held by a streamed response (connection, cursor...) f.ex. when the request timed out
+     * before it was written
+     *
+     * @param output
+     */
+    private void releaseOutput(Object output) {
+        if (output instanceof I_StreamedResponse)
+            ((I_StreamedResponse) output).close();
+    }
+
+    private void encodeOutput(int returnType, Object output, Object res, String path, I_SessionClientProperties parameters) throws ServletException, IOException, IllegalArgumentException {
 
-        if (getGlobal().getProperty().propertyExists(MethodName.RETURN_TYPE_PROPERTY)) {
-            int changedType = getGlobal().getProperty().get(MethodName.RETURN_TYPE_PROPERTY, MethodName.RETURN_UNDEFINED);
-            if (changedType != MethodName.RETURN_UNDEFINED)
-                returnType = changedType;
+        //the service may have changed the return type for this request (f.ex. depending on the requested format)
+        if (parameters != null) {
+            ResponseDescriptor descriptor = parameters.getResponseDescriptor();
+            returnType = descriptor.resolve(returnType);
+
+            //immutable content: send the entity tag, no body if the client holds it already
+            if (descriptor.getETag() != null && res instanceof HttpServletResponse) {
+                HttpServletResponse httpServletResponse = (HttpServletResponse) res;
+                httpServletResponse.setHeader(HttpHeader.ETAG.asString(), descriptor.getETag());
+                if (descriptor.isNotModified()) {
+                    httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+        }
+
+        //content produced while sent (f.ex. batch results), the return type does not apply
+        if (output instanceof I_StreamedResponse) {
+            new StreamedHttpResponse(res, (I_StreamedResponse) output).respond();
+            return;
         }
 
         switch (returnType) {
@@ -818,10 +927,10 @@ public class VEhrGateServlet extends HttpServlet implements
                 new HtmlHttpResponse(res).respond((String) output);
                 break;
             case MethodName.RETURN_JSON:
-                new JsonHttpResponse(res).respond(output, path);
+                new JsonHttpResponse(res, prettyPrintFlag(parameters)).respond(output, path);
                 break;
             case MethodName.RETURN_XML:
-                new XmlHttpResponse(res).respond(output, path);
+                new XmlHttpResponse(res, prettyPrintFlag(parameters)).respond(output, path);
                 break;
 
             case MethodName.RETURN_XML_ARRAY:
@@ -861,12 +970,18 @@ public class VEhrGateServlet extends HttpServlet implements
                 new TextHttpResponse(res).respond("undefined or unhandled return type for method");
                 break;
         }
-        try {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_UNDEFINED);
-        } catch (ServiceManagerException e) {
-            throw new IllegalArgumentException("Could not reset global return type property");
-        }
+    }
 
+    /**
+     * get the pretty print option passed in the query if any
+     *
+     * @param parameters
+     * @return the flag value or null if not specified
+     */
+    private Boolean prettyPrintFlag(I_SessionClientProperties parameters) {
+        if (parameters == null || !parameters.propertyExists(JsonHttpResponse.PRETTY_PARAMETER))
+            return null;
+        return parameters.getClientProperty(JsonHttpResponse.PRETTY_PARAMETER, false);
     }
 
     /**
@@ -886,14 +1001,6 @@ public class VEhrGateServlet extends HttpServlet implements
         if (code == HttpServletResponse.SC_UNAUTHORIZED)
             response.setHeader(HttpHeader.WWW_AUTHENTICATE.asString(), "Basic realm=\"Shiro-Authenticate\"");
 
-
-        try {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_UNDEFINED);
-        } catch (ServiceManagerException e) {
-//			throw new IllegalArgumentException("Could not reset global return type property");
-            //do nothing
-        }
-
         try {
             response.sendError(code, exception.getRawMessage());
         } catch (IOException e) {
@@ -915,14 +1022,6 @@ public class VEhrGateServlet extends HttpServlet implements
         if (code == HttpServletResponse.SC_UNAUTHORIZED)
             response.setHeader(HttpHeader.WWW_AUTHENTICATE.asString(), "Basic realm=\"Shiro-Authenticate\"");
 
-
-        try {
-            global.getProperty().set(MethodName.RETURN_TYPE_PROPERTY, "" + MethodName.RETURN_UNDEFINED);
-        } catch (ServiceManagerException e) {
-//			throw new IllegalArgumentException("Could not reset global return type property");
-            //do nothing
-        }
-
         try {
             response.sendError(code, exception.getRawMessage());
         } catch (IOException e) {
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.executor;
+
+import com.ethercis.servicemanager.cluster.RunTimeSingleton;
+import com.ethercis.servicemanager.common.def.MethodName;
+import com.ethercis.servicemanager.jmx.AnnotatedMBean;
+import com.ethercis.vehr.I_HttpServiceConfiguration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor servicing asynchronous requests<p>
+ * Requests are dispatched to a bounded pool depending on their route class (query, composition write, template or
+ * default). A request exceeding the capacity of its pool is rejected, the caller is expected to answer with
+ * 429 (pool saturated) or 503 (executor stopped) and a Retry-After header.<p>
+ * Configuration (services.properties):
+ * <ul>
+ *     <li>server.executor.mode: platform (default) or virtual (a virtual thread per request, requires JDK 21+)</li>
+ *     <li>server.executor.&lt;class&gt;.threads: number of threads (or concurrent requests in virtual mode)</li>
+ *     <li>server.executor.&lt;class&gt;.queue_size: number of requests waiting for a thread</li>
+ *     <li>server.executor.retry_after: delay in seconds returned to rejected clients</li>
+ * </ul>
+ * where &lt;class&gt; is one of query, composition_write, template or default.
+ */
+public class RequestExecutor implements RequestExecutorMBean {
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    public static final int DEFAULT_RETRY_AFTER = 1;
+
+    private static Logger log = LogManager.getLogger(RequestExecutor.class);
+
+    private final Map<RouteClass, RequestPool> pools = new EnumMap<>(RouteClass.class);
+    private final boolean virtual;
+    private final int retryAfter;
+
+    /**
+     * @param global the runtime environment holding the configuration
+     * @param defaultThreads the number of threads per pool if not configured
+     */
+    public RequestExecutor(RunTimeSingleton global, int defaultThreads) {
+        String mode = global.getProperty().get(I_HttpServiceConfiguration.SERVER_EXECUTOR_MODE, "platform");
+        ExecutorService virtualExecutor = null;
+        if (mode.equalsIgnoreCase("virtual")) {
+            virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor == null)
+                log.warn("Virtual threads are not supported by this JVM, using platform threads");
+        }
+        virtual = virtualExecutor != null;
+
+        for (RouteClass routeClass : RouteClass.values()) {
+            int threads = global.getProperty().get(I_HttpServiceConfiguration.SERVER_EXECUTOR_PREFIX + routeClass.getConfigName() + I_HttpServiceConfiguration.SERVER_EXECUTOR_THREADS_SUFFIX, defaultThreads);
+            int queueSize = global.getProperty().get(I_HttpServiceConfiguration.SERVER_EXECUTOR_PREFIX + routeClass.getConfigName() + I_HttpServiceConfiguration.SERVER_EXECUTOR_QUEUE_SIZE_SUFFIX, DEFAULT_QUEUE_SIZE);
+            RequestPool pool = virtual ? RequestPool.virtual(routeClass, virtualExecutor, threads, queueSize) : RequestPool.platform(routeClass, threads, queueSize);
+            pools.put(routeClass, pool);
+            log.info("Request pool " + pool.settings());
+        }
+
+        retryAfter = global.getProperty().get(I_HttpServiceConfiguration.SERVER_EXECUTOR_RETRY_AFTER, DEFAULT_RETRY_AFTER);
+
+        AnnotatedMBean.RegisterMBean(this.getClass().getCanonicalName(), RequestExecutorMBean.class, this);
+    }
+
+    /**
+     * get a virtual thread per task executor if the JVM supports it (JDK 21+)
+     * @return the executor or null if not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * execute a request in the pool of its route class
+     * @param path the mapped path
+     * @param method the query method
+     * @param task the request service
+     * @throws RejectedExecutionException if the pool is saturated or the executor is stopped
+     */
+    public void execute(String path, MethodName method, Runnable task) throws RejectedExecutionException {
+        pools.get(RouteClass.classify(path, method)).execute(task);
+    }
+
+    /**
+     * @return true if the executor does not accept requests anymore
+     */
+    public boolean isShutdown() {
+        return pools.get(RouteClass.DEFAULT).isShutdown();
+    }
+
+    /**
+     * @return the delay in seconds a rejected client should wait before retrying
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void shutdown() {
+        for (RequestPool pool : pools.values())
+            pool.shutdown();
+    }
+
+    @Override
+    public String settings() {
+        StringBuilder sb = new StringBuilder();
+        for (RequestPool pool : pools.values())
+            sb.append(pool.settings()).append("\n");
+        sb.append("retry_after=").append(retryAfter).append("s");
+        return sb.toString();
+    }
+
+    @Override
+    public String status() {
+        StringBuilder sb = new StringBuilder();
+        for (RequestPool pool : pools.values())
+            sb.append(pool.status()).append("\n");
+        return sb.toString();
+    }
+}
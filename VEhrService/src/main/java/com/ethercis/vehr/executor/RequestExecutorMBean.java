@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.executor;
+
+import com.ethercis.servicemanager.jmx.Description;
+
+/**
+ * JMX interface for the asynchronous request executor
+ */
+@Description("Pools servicing asynchronous requests")
+public interface RequestExecutorMBean {
+
+    @Description("pool configuration per route class")
+    String settings();
+
+    @Description("active, queued, accepted and rejected requests per route class")
+    String status();
+}
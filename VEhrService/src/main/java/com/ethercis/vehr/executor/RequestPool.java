@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.executor;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool servicing the requests of a route class<p>
+ * In platform mode, requests are queued in a bounded queue in front of a fixed number of threads. In virtual mode,
+ * each request gets its own virtual thread and the number of requests in flight is bounded by a semaphore. In both
+ * cases a request exceeding the capacity is rejected with a RejectedExecutionException.
+ */
+class RequestPool {
+
+    private final RouteClass routeClass;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor threadPool; //null in virtual mode
+    private final Semaphore inFlight; //null in platform mode
+    private final int threads;
+    private final int queueSize;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    private RequestPool(RouteClass routeClass, ExecutorService executor, ThreadPoolExecutor threadPool, Semaphore inFlight, int threads, int queueSize) {
+        this.routeClass = routeClass;
+        this.executor = executor;
+        this.threadPool = threadPool;
+        this.inFlight = inFlight;
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * a pool of platform threads with a bounded queue
+     */
+    static RequestPool platform(RouteClass routeClass, int threads, int queueSize) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                new NamedThreadFactory("vehr-" + routeClass.getConfigName()),
+                new ThreadPoolExecutor.AbortPolicy());
+        return new RequestPool(routeClass, threadPool, threadPool, null, threads, queueSize);
+    }
+
+    /**
+     * a virtual thread per request, at most threads + queueSize requests in flight
+     * @param virtualExecutor an executor creating a virtual thread per task
+     */
+    static RequestPool virtual(RouteClass routeClass, ExecutorService virtualExecutor, int threads, int queueSize) {
+        return new RequestPool(routeClass, virtualExecutor, null, new Semaphore(threads + queueSize), threads, queueSize);
+    }
+
+    void execute(Runnable task) throws RejectedExecutionException {
+        if (inFlight != null) {
+            if (!inFlight.tryAcquire()) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException(routeClass.getConfigName() + " pool is saturated");
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.release();
+                        completed.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                rejected.incrementAndGet();
+                throw e;
+            }
+        } else {
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        completed.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                throw e;
+            }
+        }
+        accepted.incrementAndGet();
+    }
+
+    boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    RouteClass getRouteClass() {
+        return routeClass;
+    }
+
+    String settings() {
+        return routeClass.getConfigName() + ": mode=" + (inFlight != null ? "virtual" : "platform") + ", threads=" + threads + ", queue_size=" + queueSize;
+    }
+
+    String status() {
+        StringBuilder sb = new StringBuilder(routeClass.getConfigName()).append(": ");
+        if (threadPool != null) {
+            sb.append("active=").append(threadPool.getActiveCount())
+                    .append(", queued=").append(threadPool.getQueue().size());
+        } else {
+            sb.append("in_flight=").append(threads + queueSize - inFlight.availablePermits());
+        }
+        sb.append(", accepted=").append(accepted.get())
+                .append(", rejected=").append(rejected.get())
+                .append(", completed=").append(completed.get());
+        return sb.toString();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
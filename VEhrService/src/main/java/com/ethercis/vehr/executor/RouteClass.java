@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.executor;
+
+import com.ethercis.servicemanager.common.def.MethodName;
+
+/**
+ * Class of routes serviced by a dedicated pool<p>
+ * Long running queries, composition writes and template operations are isolated from each other so that a burst
+ * on one of them does not starve the others.
+ */
+public enum RouteClass {
+    QUERY("query"),
+    COMPOSITION_WRITE("composition_write"),
+    TEMPLATE("template"),
+    DEFAULT("default");
+
+    private final String configName;
+
+    RouteClass(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * @return the name used in the configuration keys (f.ex. server.executor.query.threads)
+     */
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * identify the route class from a mapped path (f.ex. rest/v1/composition)
+     * @param path the mapped path
+     * @param method the query method
+     * @return the route class, DEFAULT if no specific class applies
+     */
+    public static RouteClass classify(String path, MethodName method) {
+        if (path == null)
+            return DEFAULT;
+
+        int start = 0;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = length;
+            if (isSegment(path, start, end, "query"))
+                return QUERY;
+            if (isSegment(path, start, end, "template"))
+                return TEMPLATE;
+            if (isSegment(path, start, end, "composition"))
+                return isWrite(method) ? COMPOSITION_WRITE : DEFAULT;
+            start = end + 1;
+        }
+        return DEFAULT;
+    }
+
+    private static boolean isSegment(String path, int start, int end, String segment) {
+        return end - start == segment.length() && path.regionMatches(true, start, segment, 0, segment.length());
+    }
+
+    private static boolean isWrite(MethodName method) {
+        if (method == null)
+            return false;
+        switch (method.getMethodName().toUpperCase()) {
+            case "POST":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.metrics;
+
+import com.ethercis.servicemanager.common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a dispatched route (action, path, method)<p>
+ * Keeps the latency histogram, the number of requests in flight, the errors by error code and the request and
+ * response byte counts. All counters are lock free and can be updated concurrently.
+ */
+public class RouteMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final String action;
+    private final String path;
+    private final String method;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public RouteMetrics(String action, String path, String method) {
+        this.action = action;
+        this.path = path;
+        this.method = method;
+    }
+
+    /**
+     * a request starts
+     * @return the start time to pass to {@link #end(long)}
+     */
+    public long begin() {
+        inFlight.incrementAndGet();
+        requests.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * a request ends
+     * @param start the time returned by {@link #begin()}
+     */
+    public void end(long start) {
+        latency.record((System.nanoTime() - start) / 1000);
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * count an error
+     * @param errorCode the error code (see SysErrorCode)
+     */
+    public void error(String errorCode) {
+        errors.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+    }
+
+    /**
+     * count the bytes exchanged with the client
+     * @param in request body length
+     * @param out response length
+     */
+    public void transfer(long in, long out) {
+        if (in > 0)
+            requestBytes.add(in);
+        if (out > 0)
+            responseBytes.add(out);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void reset() {
+        latency.reset();
+        requests.reset();
+        requestBytes.reset();
+        responseBytes.reset();
+        errors.clear();
+    }
+
+    /**
+     * append the metrics in plain text exposition format (one sample per line)
+     * @param sb
+     */
+    public void appendText(StringBuilder sb) {
+        String labels = "action=\"" + action + "\",path=\"" + path + "\",method=\"" + method + "\"";
+
+        sample(sb, "vehr_requests_total", labels, requests.sum());
+        sample(sb, "vehr_requests_in_flight", labels, inFlight.get());
+
+        long[] percentiles = latency.percentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++)
+            sample(sb, "vehr_request_latency_microseconds", labels + ",quantile=\"" + QUANTILES[i] + "\"", percentiles[i]);
+        sample(sb, "vehr_request_latency_max_microseconds", labels, latency.max());
+
+        for (Map.Entry<String, LongAdder> error : errors.entrySet())
+            sample(sb, "vehr_errors_total", labels + ",code=\"" + error.getKey() + "\"", error.getValue().sum());
+
+        sample(sb, "vehr_request_bytes_total", labels, requestBytes.sum());
+        sample(sb, "vehr_response_bytes_total", labels, responseBytes.sum());
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+}
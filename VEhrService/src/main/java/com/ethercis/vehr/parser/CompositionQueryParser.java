@@ -30,7 +30,13 @@ public class CompositionQueryParser {
 
     public CompositionQueryParser(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         this.parameters = parameters;
-        this.resourceToken = resourceToken;
+        this.resourceToken = resolve(methodName, resourceToken, tokens, parameters, headers);
+    }
+
+    /**
+     * stateless resolution of the resource, see {@link I_ResourceParser}
+     */
+    public static String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         String format;
         switch (methodName.getMethodName().toUpperCase()){
             case "GET":
@@ -46,6 +52,9 @@ public class CompositionQueryParser {
                 }
                 break;
             case "POST":
+                //batch commit: POST .../composition/batch
+                if (tokens != null && tokens.length == 1 && "batch".equals(tokens[0]))
+                    resourceToken = resourceToken + "/batch";
                 //check for the Accept header
                 format = parameters.getClientProperty("format", "ECISFLAT");
                 String contentType = headers.getClientProperty("Content-Type", "application/json");
@@ -63,6 +72,7 @@ public class CompositionQueryParser {
                     parameters.addClientProperty("uid", tokens[0]);
                 break;
         }
+        return resourceToken;
     }
 
     public I_SessionClientProperties getParameters(){
@@ -30,7 +30,13 @@ public class EhrQueryParser implements I_QueryParser {
 
     public EhrQueryParser(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         this.parameters = parameters;
-        this.resourceToken = resourceToken;
+        this.resourceToken = resolve(methodName, resourceToken, tokens, parameters, headers);
+    }
+
+    /**
+     * stateless resolution of the resource, see {@link I_ResourceParser}
+     */
+    public static String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         switch (methodName.getMethodName().toUpperCase()){
             case "GET":
                 //add the ehrId in parameters
@@ -38,11 +44,11 @@ public class EhrQueryParser implements I_QueryParser {
                     if (!parameters.getClientProperties().containsKey("ehrId")) {
                         parameters.addClientProperty("ehrId", tokens[0]);
                     }
-                    this.resourceToken = this.resourceToken + "/status";
+                    resourceToken = resourceToken + "/status";
 
                 }
                 else { //get status for subject
-                    this.resourceToken = this.resourceToken+"/status";
+                    resourceToken = resourceToken+"/status";
                 }
                 break;
             case "POST":
@@ -51,14 +57,14 @@ public class EhrQueryParser implements I_QueryParser {
                     if (!parameters.getClientProperties().containsKey("ehrId")) {
                         parameters.addClientProperty("ehrId", tokens[0]);
                     }
-                    this.resourceToken = this.resourceToken + "/status";
+                    resourceToken = resourceToken + "/status";
 
                 }
                 break;
             case "DELETE":
                 break;
             case "PUT": //update status
-                this.resourceToken = this.resourceToken+"/"+tokens[0];
+                resourceToken = resourceToken+"/"+tokens[0];
                 parameters.addClientProperty("ehrId", tokens[1]);
                 if (tokens.length > 2) {
                     if (tokens[2].equals("other_details"))
@@ -66,6 +72,7 @@ public class EhrQueryParser implements I_QueryParser {
                 }
                 break;
         }
+        return resourceToken;
     }
 
     public I_SessionClientProperties getParameters(){
@@ -22,6 +22,7 @@ import com.ethercis.servicemanager.annotation.Service;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.HttpParameters;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
+import com.ethercis.servicemanager.common.SessionClientProperties;
 import com.ethercis.servicemanager.common.def.MethodName;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
@@ -34,8 +35,6 @@ import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  * ETHERCIS Project VirtualEhr
@@ -53,7 +52,9 @@ public class EhrScapeURIParser extends URIParser {
     final private String Version = "1.0";
     private Logger log = LogManager.getLogger(EhrScapeURIParser.class);
 
-//    private Map<String, String> parameters;
+    //routes under the dialect root, compiled once
+    private volatile RouteTrie routes;
+    private volatile String rootPath;
 
     /**
      * create a new parser for path, check format
@@ -63,48 +64,90 @@ public class EhrScapeURIParser extends URIParser {
      */
     public EhrScapeURIParser(RunTimeSingleton global)  {
         super(global);
+        compileRoutes();
      }
 
     public EhrScapeURIParser(){}
 
-
-    private String[] subarray(String[] array, int from, int to){
-        if (from > array.length)
-            return null;
-        if (to > array.length)
-            to = array.length;
-        if (from == array.length)
-            return array;
-
-        return Arrays.copyOfRange(array, from, to);
+    /**
+     * build the route tree for the current dialect root
+     */
+    private void compileRoutes(){
+        RouteTrie trie = new RouteTrie(queryRoot)
+                .add("ehr", EhrQueryParser::resolve)
+                .add("composition", CompositionQueryParser::resolve)
+                .add("template", TemplateQueryParser::resolve)
+                .add("graphql", GraphQLQueryParser::resolve)
+                .add("query", QueryJobParser::resolve);
+
+        for (String resource: new String[]{"session", "demographics", "guide", "smart", "import"})
+            trie.add(resource, RouteTrie.RESOURCE_ONLY);
+
+        rootPath = queryRoot.substring(1) + delimiter;
+        routes = trie;
     }
 
-    private String[] subarray(String[] array, int from){
-        int to = array.length;
-        if (from > array.length - 1)
+    /**
+     * split the path tokens following the resource
+     * @return the tokens or null if none (trailing empty tokens are ignored)
+     */
+    private String[] pathTokens(String uri, int from, int end){
+        while (end > from && uri.charAt(end - 1) == '/')
+            end--;
+        if (from >= end)
             return null;
 
-        return Arrays.copyOfRange(array, from, to);
+        int count = 1;
+        for (int i = from; i < end; i++)
+            if (uri.charAt(i) == '/')
+                count++;
+
+        String[] tokens = new String[count];
+        int index = 0;
+        int position = from;
+        while (index < count - 1){
+            int next = uri.indexOf('/', position);
+            tokens[index++] = uri.substring(position, next);
+            position = next + 1;
+        }
+        tokens[index] = uri.substring(position, end);
+        return tokens;
     }
 
     @Override
-    public void parse(HttpServletRequest servletRequest) throws ServiceManagerException {
-        String requestURI;
-        try {
-            requestURI = URLDecoder.decode(servletRequest.getRequestURI(), "UTF-8");
-        }catch (UnsupportedEncodingException e){
-            throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "URI could not be parsed:"+servletRequest.getRequestURI());
+    public ParsedRequest parseRequest(HttpServletRequest servletRequest) throws ServiceManagerException {
+        String requestURI = servletRequest.getRequestURI();
+        //decode only if needed
+        if (requestURI.indexOf('%') >= 0 || requestURI.indexOf('+') >= 0) {
+            try {
+                requestURI = URLDecoder.decode(requestURI, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                throw new ServiceManagerException(global, SysErrorCode.USER_ILLEGALARGUMENT, "URI could not be parsed:" + servletRequest.getRequestURI());
+            }
         }
 
-        //tokenize the URI
-        String[] tokens = requestURI.split(queryRoot);
-        if (tokens.length < 2)
+        if (requestURI.isEmpty() || requestURI.charAt(0) != delimiter.charAt(0))
+            throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, ME, "Badly formed query, invalid format, first char in path should be '/' in path:["+requestURI+"]");
+
+        //strip parameters
+        int end = requestURI.indexOf('?');
+        if (end < 0)
+            end = requestURI.length();
+
+        RouteTrie trie = routes;
+        int resourceStart = trie.matchRoot(requestURI, 0, end);
+        if (resourceStart < 0) { //root is not at the beginning of the path
+            int rootIndex = requestURI.indexOf(queryRoot);
+            resourceStart = rootIndex < 0 ? -1 : trie.matchRoot(requestURI, rootIndex, end);
+        }
+        if (resourceStart < 0 || resourceStart >= end)
             throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, ME, "Badly formed query, could not identify resources:"+requestURI);
 
-        if (requestURI.charAt(0) != delimiter.toCharArray()[0])
-            throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, ME, "Badly formed query, invalid format, first char in path should be '/' in path:["+path+"]");
+        int resourceEnd = requestURI.indexOf('/', resourceStart);
+        if (resourceEnd < 0 || resourceEnd > end)
+            resourceEnd = end;
 
-        queryMethod = MethodName.toMethodName(servletRequest.getMethod());
+        MethodName queryMethod = MethodName.toMethodName(servletRequest.getMethod());
 
         HttpParameters httpParameters = null;
         try {
@@ -113,101 +156,18 @@ public class EhrScapeURIParser extends URIParser {
             throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, ME, "Could not retrieve parameters in query:"+e);
 
         }
-        parameters = httpParameters.getProperties();
-
-        headers = HttpParameters.getInstanceFromHeader(global, servletRequest);
-
-        //strip parameters
-        if (tokens[1].contains("?"))
-            tokens[1] = tokens[1].substring(0, tokens[1].indexOf("?"));
-
-        tokens = tokens[1].split("/");
-
-        resourceToken = tokens[1];
-
-        tokens = subarray(tokens, 2);
-
-        switch (resourceToken.toUpperCase()){
-            case "SESSION":
-                break;
-            case "EHR":
-                EhrQueryParser ehrQueryParser = new EhrQueryParser(queryMethod, resourceToken, tokens, parameters, headers);
-                resourceToken = ehrQueryParser.getResource();
-                parameters = ehrQueryParser.getParameters();
-                break;
-            case "COMPOSITION":
-                CompositionQueryParser compositionQueryParser = new CompositionQueryParser(queryMethod, resourceToken, tokens, parameters, headers);
-                resourceToken = compositionQueryParser.getResource();
-                parameters = compositionQueryParser.getParameters();
-                break;
-            case "TEMPLATE":
-                TemplateQueryParser templateQueryParser = new TemplateQueryParser(queryMethod, resourceToken, tokens, parameters, headers);
-                resourceToken = templateQueryParser.getResource();
-                parameters = templateQueryParser.getParameters();
-                break;
-            case "GRAPHQL":
-                GraphQLQueryParser graphQLQueryParser = new GraphQLQueryParser(queryMethod, resourceToken, tokens, parameters, headers);
-                resourceToken = graphQLQueryParser.getResource();
-                parameters = graphQLQueryParser.getParameters();
-                break;
-            case "QUERY":
-                break;
-            case "DEMOGRAPHICS":
-                break;
-            case "GUIDE":
-                break;
-            case "SMART":
-                break;
-            case "IMPORT":
-                break;
-            default:
-                //collate tokens
-                if (tokens != null) {
-                    List<String> remainder = Arrays.asList(tokens);
-                    if (!remainder.isEmpty())
-                        resourceToken = resourceToken + "/" + String.join("/", remainder);
-                }
-                break;
-
-
-        }
+        I_SessionClientProperties parameters = httpParameters == null ? new SessionClientProperties(global) : httpParameters.getProperties();
+        I_SessionClientProperties headers = HttpParameters.getInstanceFromHeader(global, servletRequest);
 
-        requestURI = requestURI.substring(1);
+        String resourceToken = requestURI.substring(resourceStart, resourceEnd);
+        String[] tokens = pathTokens(requestURI, resourceEnd + 1, end);
 
-        this.pathitems = requestURI.split(delimiter);
-        this.path = requestURI;
+        resourceToken = trie.parserFor(requestURI, resourceStart, resourceEnd).resolve(queryMethod, resourceToken, tokens, parameters, headers);
 
-        if (pathitems.length < 2)
-            throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, ME, "Badly formed query, invalid format, this should be at least /service/method in path:["+path+"]");
-    }
+        int serviceEnd = requestURI.indexOf('/', 1);
+        String service = requestURI.substring(1, serviceEnd < 0 || serviceEnd > end ? end : serviceEnd);
 
-    @Override
-    public String identifyPath(){
-//        if (pathitems.length > 1){
-//            StringBuffer res = new StringBuffer();
-//            for (int i = 0; i < pathitems.length; i++) {
-//                res.append(pathitems[i]+"/");
-//            }
-//            //remove trailing '/'
-//            String ret = res.substring(0, res.length() - 1);
-//            return ret;
-//        }
-//        else if (pathitems.length == 1)
-//            return pathitems[0];
-//
-//        return null; //no resource defined
-
-        return queryRoot.substring(1)+"/"+ resourceToken;
-    }
-
-    @Override
-    public String identifyMethod() throws ServiceManagerException {
-        return queryMethod.getMethodName();
-    }
-
-    @Override
-    public I_SessionClientProperties identifyParametersAsProperties() {
-        return parameters;
+        return new ParsedRequest(service, resourceToken, rootPath + resourceToken, queryMethod.getMethodName(), parameters, headers);
     }
 
     @Override
@@ -216,6 +176,7 @@ public class EhrScapeURIParser extends URIParser {
         String compatibilityValue = global.getProperty().get(I_ServiceRunMode.SERVER_DIALECT_PARAMETER, I_ServiceRunMode.DialectSpace.STANDARD.toString());
         dialectSpace =  I_ServiceRunMode.DialectSpace.valueOf(compatibilityValue);
         queryRoot = global.getProperty().get(I_ServiceRunMode.SERVER_DIALECT_ROOT, "/");
+        compileRoutes();
         log.info("EhrScape URI parser service started...");
     }
 }
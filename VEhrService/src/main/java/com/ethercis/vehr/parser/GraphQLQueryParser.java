@@ -30,21 +30,26 @@ public class GraphQLQueryParser {
 
     public GraphQLQueryParser(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         this.parameters = parameters;
-        this.resourceToken = resourceToken;
-        String format;
+        this.resourceToken = resolve(methodName, resourceToken, tokens, parameters, headers);
+    }
+
+    /**
+     * stateless resolution of the resource, see {@link I_ResourceParser}
+     */
+    public static String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         switch (methodName.getMethodName().toUpperCase()){
             case "GET":
                 if (tokens != null && tokens.length == 2){
                     // GET template/{templateId}/example
                     parameters.addClientProperty("templateId", tokens[0]);
-                    this.resourceToken = this.resourceToken + "/" + tokens[1];
+                    resourceToken = resourceToken + "/" + tokens[1];
                 } else if (tokens != null && tokens.length == 1){
                     parameters.addClientProperty("templateId", tokens[0]);
                 }
                 break;
             case "POST":
 //                if (tokens != null && tokens.length == 1 && tokens[0].matches("reload|stats|errors")){
-//                    this.resourceToken = this.resourceToken + "/" + tokens[0];
+//                    resourceToken = resourceToken + "/" + tokens[0];
 //                }
                 break;
             case "DELETE":
@@ -55,6 +60,7 @@ public class GraphQLQueryParser {
             case "PUT":
                 break;
         }
+        return resourceToken;
     }
 
     public I_SessionClientProperties getParameters(){
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.vehr.parser;
+
+import com.ethercis.servicemanager.common.I_SessionClientProperties;
+import com.ethercis.servicemanager.common.def.MethodName;
+
+/**
+ * Stateless resolution of a resource path<p>
+ * Identifies the mapped resource from the path tokens following the resource name and adds the identifiers
+ * found in the path (f.ex. ehrId, uid) to the query parameters.
+ */
+public interface I_ResourceParser {
+
+    /**
+     * @param methodName the HTTP method
+     * @param resourceToken the resource name (f.ex. 'ehr')
+     * @param tokens the path tokens following the resource, null if none
+     * @param parameters the query parameters, updated with path identifiers
+     * @param headers the request headers
+     * @return the resource to map (f.ex. 'ehr/status')
+     */
+    String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers);
+}
@@ -20,13 +20,26 @@ import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Map;
 
 /**
  * ETHERCIS Project VirtualEhr
  * Created by Christian Chevalley on 7/7/2015.
  */
 public interface I_URIParser {
+
+    /**
+     * parse a request without keeping any state in the parser
+     * @param servletRequest
+     * @return the parsed request
+     * @throws ServiceManagerException if the request URI is badly formed
+     */
+    ParsedRequest parseRequest(HttpServletRequest servletRequest) throws ServiceManagerException;
+
+    /**
+     * @deprecated use {@link #parseRequest(HttpServletRequest)}, the identifyXXX() methods return the result
+     * of the last parse in the calling thread
+     */
+    @Deprecated
     void parse(HttpServletRequest servletRequest) throws ServiceManagerException;
 
     String identifyService() throws ServiceManagerException;
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.vehr.parser;
+
+import com.ethercis.servicemanager.common.I_SessionClientProperties;
+
+/**
+ * Result of parsing a request URI<p>
+ * A new instance is returned for each request by {@link I_URIParser#parseRequest(javax.servlet.http.HttpServletRequest)},
+ * hence the parser does not keep any request state and can be used concurrently.
+ */
+public final class ParsedRequest {
+
+    private final String service;
+    private final String resource;
+    private final String path;
+    private final String method;
+    private final I_SessionClientProperties parameters;
+    private final I_SessionClientProperties headers;
+
+    public ParsedRequest(String service, String resource, String path, String method, I_SessionClientProperties parameters, I_SessionClientProperties headers) {
+        this.service = service;
+        this.resource = resource;
+        this.path = path;
+        this.method = method;
+        this.parameters = parameters;
+        this.headers = headers;
+    }
+
+    /**
+     * @return the service part of the URI, null if not identified
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * @return the resource part of the URI, null if none
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the path used to map the request to a service method (f.ex. rest/v1/ehr/status)
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the method name used to map the request
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the query parameters, including those extracted from the path
+     */
+    public I_SessionClientProperties getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the request headers
+     */
+    public I_SessionClientProperties getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.parser;
+
+import com.ethercis.servicemanager.common.I_SessionClientProperties;
+import com.ethercis.servicemanager.common.def.MethodName;
+
+/**
+ * Resolves the asynchronous query job resources:
+ * <ul>
+ *     <li>POST query/job: submit a job</li>
+ *     <li>GET query/job/{jobId}: job status</li>
+ *     <li>GET query/job/{jobId}/result: page of the job result</li>
+ *     <li>DELETE query/job/{jobId}: cancel or remove a job</li>
+ * </ul>
+ * Other query paths are left unchanged.
+ */
+public class QueryJobParser {
+
+    public static final String JOB = "job";
+    public static final String RESULT = "result";
+    public static final String JOB_ID = "jobId";
+
+    private I_SessionClientProperties parameters;
+    private String resourceToken = null;
+
+    public QueryJobParser(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
+        this.parameters = parameters;
+        this.resourceToken = resolve(methodName, resourceToken, tokens, parameters, headers);
+    }
+
+    /**
+     * stateless resolution of the resource, see {@link I_ResourceParser}
+     */
+    public static String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
+        if (tokens == null || !tokens[0].equals(JOB))
+            return resourceToken;
+
+        switch (methodName.getMethodName().toUpperCase()){
+            case "POST":
+                if (tokens.length == 1)
+                    resourceToken = resourceToken + "/" + JOB;
+                break;
+            case "GET":
+                if (tokens.length == 2){
+                    // GET query/job/{jobId}
+                    parameters.addClientProperty(JOB_ID, tokens[1]);
+                    resourceToken = resourceToken + "/" + JOB;
+                } else if (tokens.length == 3 && tokens[2].equals(RESULT)){
+                    // GET query/job/{jobId}/result
+                    parameters.addClientProperty(JOB_ID, tokens[1]);
+                    resourceToken = resourceToken + "/" + JOB + "/" + RESULT;
+                }
+                break;
+            case "DELETE":
+                if (tokens.length == 2){
+                    parameters.addClientProperty(JOB_ID, tokens[1]);
+                    resourceToken = resourceToken + "/" + JOB;
+                }
+                break;
+        }
+        return resourceToken;
+    }
+
+    public I_SessionClientProperties getParameters(){
+        return parameters;
+    }
+
+    public String getResource(){
+        return resourceToken;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ethercis.vehr.parser;
+
+import java.util.Arrays;
+
+/**
+ * Precompiled route tree for a dialect root (f.ex. /rest/v1)<p>
+ * The root segments are matched case sensitive, the resources under the root (ehr, composition...) are matched
+ * ignoring case and give the parser resolving the rest of the path. The tree is built once at init and is
+ * read only afterwards, matching is done on the URI string without splitting it.
+ */
+public final class RouteTrie {
+
+    /**
+     * resource not registered: the remaining path is appended to the resource
+     */
+    public static final I_ResourceParser COLLATE = (methodName, resourceToken, tokens, parameters, headers) ->
+            (tokens == null || tokens.length == 0) ? resourceToken : resourceToken + "/" + String.join("/", tokens);
+
+    /**
+     * the resource is used as is, the remaining path is ignored
+     */
+    public static final I_ResourceParser RESOURCE_ONLY = (methodName, resourceToken, tokens, parameters, headers) -> resourceToken;
+
+    private static final class Node {
+        private final String segment;
+        private final boolean ignoreCase;
+        private Node[] children = new Node[0];
+        private I_ResourceParser parser;
+
+        private Node(String segment, boolean ignoreCase) {
+            this.segment = segment;
+            this.ignoreCase = ignoreCase;
+        }
+
+        private Node child(String uri, int from, int to) {
+            int length = to - from;
+            for (Node child : children) {
+                if (child.segment.length() == length && uri.regionMatches(child.ignoreCase, from, child.segment, 0, length))
+                    return child;
+            }
+            return null;
+        }
+
+        private Node add(String segment, boolean ignoreCase) {
+            Node child = child(segment, 0, segment.length());
+            if (child == null) {
+                child = new Node(segment, ignoreCase);
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final Node root = new Node("", false);
+    private final Node resources;
+
+    /**
+     * @param queryRoot the dialect root, f.ex. /rest/v1
+     */
+    public RouteTrie(String queryRoot) {
+        Node node = root;
+        for (String segment : queryRoot.split("/")) {
+            if (!segment.isEmpty())
+                node = node.add(segment, false);
+        }
+        resources = node;
+    }
+
+    /**
+     * register a resource under the root
+     * @param resource the resource name (f.ex. 'ehr')
+     * @param parser the parser resolving the remaining of the path
+     * @return this
+     */
+    public RouteTrie add(String resource, I_ResourceParser parser) {
+        resources.add(resource, true).parser = parser;
+        return this;
+    }
+
+    /**
+     * match the dialect root at a given position
+     * @param uri the request URI
+     * @param from index of the '/' starting the root in the URI
+     * @param end end of the path in the URI (f.ex. index of '?')
+     * @return the index of the first char following the root, -1 if the root does not match
+     */
+    public int matchRoot(String uri, int from, int end) {
+        Node node = root;
+        int position = from + 1;
+        while (node != resources) {
+            if (position > end)
+                return -1;
+            int next = uri.indexOf('/', position);
+            if (next < 0 || next > end)
+                next = end;
+            node = node.child(uri, position, next);
+            if (node == null)
+                return -1;
+            position = next + 1;
+        }
+        return position;
+    }
+
+    /**
+     * get the parser for a resource
+     * @param uri the request URI
+     * @param from start of the resource in the URI
+     * @param to end of the resource in the URI
+     * @return the registered parser or {@link #COLLATE} if the resource is not registered
+     */
+    public I_ResourceParser parserFor(String uri, int from, int to) {
+        Node node = resources.child(uri, from, to);
+        return (node == null || node.parser == null) ? COLLATE : node.parser;
+    }
+}
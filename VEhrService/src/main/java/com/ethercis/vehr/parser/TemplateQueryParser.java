@@ -20,31 +20,40 @@ package com.ethercis.vehr.parser;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.def.MethodName;
 
+import java.util.regex.Pattern;
+
 /**
  * Created by christian on 12/9/2015.
  */
 public class TemplateQueryParser {
 
+    private static final Pattern ACTIONS = Pattern.compile("reload|stats|errors");
+
     private I_SessionClientProperties parameters;
     private String resourceToken = null;
 
     public TemplateQueryParser(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         this.parameters = parameters;
-        this.resourceToken = resourceToken;
-        String format;
+        this.resourceToken = resolve(methodName, resourceToken, tokens, parameters, headers);
+    }
+
+    /**
+     * stateless resolution of the resource, see {@link I_ResourceParser}
+     */
+    public static String resolve(MethodName methodName, String resourceToken, String[] tokens, I_SessionClientProperties parameters, I_SessionClientProperties headers){
         switch (methodName.getMethodName().toUpperCase()){
             case "GET":
                 if (tokens != null && tokens.length == 2){
                     // GET template/{templateId}/example
                     parameters.addClientProperty("templateId", tokens[0]);
-                    this.resourceToken = this.resourceToken + "/" + tokens[1];
+                    resourceToken = resourceToken + "/" + tokens[1];
                 } else if (tokens != null && tokens.length == 1){
                     parameters.addClientProperty("templateId", tokens[0]);
                 }
                 break;
             case "POST":
-                if (tokens != null && tokens.length == 1 && tokens[0].matches("reload|stats|errors")){
-                    this.resourceToken = this.resourceToken + "/" + tokens[0];
+                if (tokens != null && tokens.length == 1 && ACTIONS.matcher(tokens[0]).matches()){
+                    resourceToken = resourceToken + "/" + tokens[0];
                 }
                 break;
             case "DELETE":
@@ -55,6 +64,7 @@ public class TemplateQueryParser {
             case "PUT":
                 break;
         }
+        return resourceToken;
     }
 
     public I_SessionClientProperties getParameters(){
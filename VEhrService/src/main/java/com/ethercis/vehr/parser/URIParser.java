@@ -20,13 +20,14 @@ import com.ethercis.servicemanager.cluster.ClusterInfo;
 import com.ethercis.servicemanager.cluster.RunTimeSingleton;
 import com.ethercis.servicemanager.common.HttpParameters;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
-import com.ethercis.servicemanager.common.def.MethodName;
+import com.ethercis.servicemanager.common.SessionClientProperties;
 import com.ethercis.servicemanager.common.def.SysErrorCode;
 import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 import com.ethercis.servicemanager.runlevel.I_ServiceRunMode;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * utility class to perform various handling on http request URI
@@ -42,14 +43,13 @@ import java.io.IOException;
 public abstract class URIParser extends ClusterInfo implements I_URIParser {
     protected I_ServiceRunMode.DialectSpace dialectSpace = null;
     String delimiter = "/"; //simple forward slash delimiter
-    protected String[] pathitems; //array for the split
-    protected String path;
     protected RunTimeSingleton global;
 	protected String queryRoot;
-	protected I_SessionClientProperties parameters;
-	protected I_SessionClientProperties headers;
-	protected MethodName queryMethod;
-	protected String resourceToken;
+
+	/**
+	 * result of the last parse(), kept per thread for the legacy identifyXXX() calls
+	 */
+	private final ThreadLocal<ParsedRequest> lastParsed = new ThreadLocal<>();
 	
 	/**
 	 * create a new parser for path, check format
@@ -67,17 +67,20 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 
 	public URIParser(){}
 
-    @Override
-    public void parse(HttpServletRequest servletRequest) throws ServiceManagerException {
-        String requestURI = servletRequest.getRequestURI();
-
-        requestURI = requestURI.substring(1);
+	/**
+	 * parse a request URI of the form <code>/service[/resource....]/method</code>
+	 * @param servletRequest
+	 * @return the parsed request
+	 * @throws ServiceManagerException if the path is badly formed
+	 */
+	@Override
+	public ParsedRequest parseRequest(HttpServletRequest servletRequest) throws ServiceManagerException {
+		String requestURI = servletRequest.getRequestURI().substring(1);
 
-        this.pathitems = requestURI.split(delimiter);
-        this.path = requestURI;
+		String[] pathitems = requestURI.split(delimiter);
 
-        if (pathitems.length < 2)
-            throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "URIParser", "Badly formed query, invalid format, this should be at least /service/method in path:["+path+"]");
+		if (pathitems.length < 2)
+			throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "URIParser", "Badly formed query, invalid format, this should be at least /service/method in path:["+requestURI+"]");
 
 		HttpParameters httpParameters = null;
 		try {
@@ -86,9 +89,39 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 			throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "URIParser", "Could not retrieve parameters in query:"+e);
 
 		}
-		parameters = httpParameters.getProperties();
+		I_SessionClientProperties parameters = httpParameters == null ? new SessionClientProperties(global) : httpParameters.getProperties();
+		I_SessionClientProperties headers = HttpParameters.getInstanceFromHeader(global, servletRequest);
+
+		String method = pathitems[pathitems.length - 1];
+
+		if (method == null){
+			if (dialectSpace.equals(I_ServiceRunMode.DialectSpace.EHRSCAPE))
+				method = "unknown";
+			else
+				throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "PathParser", "No method in query, invalid format for::["+requestURI+"]");
+		}
+
+		String resource = pathitems.length > 2 ? String.join(delimiter, Arrays.copyOfRange(pathitems, 1, pathitems.length - 1)) : null;
+		String path = String.join(delimiter, Arrays.copyOfRange(pathitems, 0, pathitems.length - 1));
 
+		return new ParsedRequest(pathitems[0], resource, path, method, parameters, headers);
+	}
+
+	/**
+	 * @deprecated the parser is shared by all requests, use {@link #parseRequest(HttpServletRequest)}
+	 */
+	@Deprecated
+    @Override
+    public void parse(HttpServletRequest servletRequest) throws ServiceManagerException {
+		lastParsed.set(parseRequest(servletRequest));
     }
+
+	private ParsedRequest current(){
+		ParsedRequest parsedRequest = lastParsed.get();
+		if (parsedRequest == null)
+			throw new IllegalStateException("No request has been parsed in this thread");
+		return parsedRequest;
+	}
 	
 	/**
 	 * return the mandatory service
@@ -96,11 +129,12 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 	 */
     @Override
 	public String identifyService() throws ServiceManagerException {
-		if (pathitems.length > 1)
-			return pathitems[0];
+		String service = current().getService();
+		if (service != null)
+			return service;
 		
 		//throws an exception if no service
-		throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "URIParser", "No service in query, invalid format in :["+path+"]");
+		throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "URIParser", "No service in query, invalid format in :["+current().getPath()+"]");
 	}
 	
 	
@@ -110,17 +144,7 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 	 */
     @Override
 	public String identifyResource(){
-		if (pathitems.length > 2){
-			StringBuffer res = new StringBuffer();
-			for (int i = 1; i < pathitems.length - 1; i++) {
-				res.append(pathitems[i]+"/");
-			}
-			//remove trailing '/'
-			String ret = res.substring(0, res.length() - 1);
-			return ret;
-		}
-		
-		return null; //no resource defined
+		return current().getResource();
 	}
 	
 	/**
@@ -129,19 +153,7 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 	 */
     @Override
 	public String identifyPath(){
-		if (pathitems.length > 1){
-			StringBuffer res = new StringBuffer();
-			for (int i = 0; i < pathitems.length - 1; i++) {
-				res.append(pathitems[i]+"/");
-			}
-			//remove trailing '/'
-			String ret = res.substring(0, res.length() - 1);
-			return ret;
-		}
-		else if (pathitems.length == 1)
-			return pathitems[0];
-		
-		return null; //no resource defined
+		return current().getPath();
 	}	
 	
 	/**
@@ -152,17 +164,11 @@ public abstract class URIParser extends ClusterInfo implements I_URIParser {
 	 */
     @Override
 	public String identifyMethod() throws ServiceManagerException {
-		
-		String method = pathitems[pathitems.length - 1];
-		
-		if (method == null){
-            if (dialectSpace.equals(I_ServiceRunMode.DialectSpace.EHRSCAPE))
-                method = "unknown";
-            else
-			    throw new ServiceManagerException(global, SysErrorCode.USER_QUERY_INVALID, "PathParser", "No method in query, invalid format for::["+path+"]");
-		}
-		
-		return method;
-		
+		return current().getMethod();
+	}
+
+	@Override
+	public I_SessionClientProperties identifyParametersAsProperties() {
+		return current().getParameters();
 	}
 }
@@ -23,6 +23,7 @@ import org.eclipse.jetty.server.Response;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 /**
@@ -40,22 +41,45 @@ public abstract class GenericHttpResponse {
 	protected Object response;
 	
 	public GenericHttpResponse(String contenttype, Object response) throws IOException{
+		this(contenttype, response, false);
+	}
+
+	/**
+	 * @param contenttype the response MIME type
+	 * @param response the servlet response
+	 * @param streamed if true, the writer is not acquired, the content is written with getOutputStream()
+	 * @throws IOException
+	 */
+	protected GenericHttpResponse(String contenttype, Object response, boolean streamed) throws IOException{
 		this.contentType = contenttype;
 		this.response = response; //for additional settings if needed...
 		
 		if (response instanceof HttpServletResponse){
 			((HttpServletResponse)response).setContentType(contentType);
-			this.writer = ((HttpServletResponse)response).getWriter();
+			if (!streamed)
+				this.writer = ((HttpServletResponse)response).getWriter();
 
 		}
 		else if (response instanceof ServletResponse){
 			((ServletResponse)response).setContentType(contentType);
-			this.writer = ((ServletResponse)response).getWriter();
+			if (!streamed)
+				this.writer = ((ServletResponse)response).getWriter();
 		}
         else if (response instanceof Response){
             log.info("Jetty server response...");
         }
 	}
+
+	/**
+	 * get the raw output stream of the response, to be used only by streamed responses (no writer)
+	 * @return the response OutputStream
+	 * @throws IOException
+	 */
+	protected OutputStream getOutputStream() throws IOException{
+		if (writer != null)
+			throw new IllegalStateException("Writer already acquired for this response");
+		return ((ServletResponse)response).getOutputStream();
+	}
 	
 	/**
 	 * sets an entry into the HTTP header<p>
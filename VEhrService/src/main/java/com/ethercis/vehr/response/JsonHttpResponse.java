@@ -19,12 +19,9 @@ package com.ethercis.vehr.response;
 import com.ethercis.servicemanager.common.I_SessionClientProperties;
 import com.ethercis.servicemanager.common.MetaBuilder;
 import com.ethercis.servicemanager.common.def.Constants;
-import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
-import com.fasterxml.jackson.datatype.joda.JodaModule;
-import org.codehaus.jackson.map.ObjectMapper;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 /**
@@ -33,11 +30,28 @@ import java.util.Map;
  *
  */
 public class JsonHttpResponse extends GenericHttpResponse {
-	
+
+	/**
+	 * query parameter used to request a pretty printed output (pretty=true)
+	 */
+	public static final String PRETTY_PARAMETER = "pretty";
+
+	private final Boolean pretty;
+
 	public JsonHttpResponse(Object response) throws IOException{
-		super("application/json;charset=UTF-8", response);
+		this(response, null);
+	}
+
+	/**
+	 * @param response the servlet response
+	 * @param pretty pretty print flag from the query, null to use the server default
+	 * @throws IOException
+	 */
+	public JsonHttpResponse(Object response, Boolean pretty) throws IOException{
+		super("application/json;charset=UTF-8", response, true);
+		this.pretty = pretty;
 	}
-	
+
 	public void respond(Object data, String path) throws IOException {
 
 		//do some substitutions
@@ -55,13 +69,8 @@ public class JsonHttpResponse extends GenericHttpResponse {
 			}
 		}
 
-		ObjectMapper objectMapper = new ObjectMapper();
-		objectMapper.setDateFormat(new ISO8601DateFormat());
-
-
-		String bodyContent = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data);
-        setContentLength(bodyContent.getBytes().length);
-		writer.println(bodyContent);
-		writer.close();
+		//serialize straight into the response (UTF-8), the stream is closed by the writer
+		OutputStream outputStream = getOutputStream();
+		JsonWriters.writer(pretty).writeValue(outputStream, data);
 	}
 }
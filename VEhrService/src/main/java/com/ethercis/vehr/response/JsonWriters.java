@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.response;
+
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+
+/**
+ * Holds the JSON writers shared by all responses<p>
+ * The mapper is configured once (at servlet init) and the resulting ObjectWriter instances are immutable
+ * and thread safe, hence can be used concurrently by all request threads. The date format is cloned by
+ * Jackson for each serialization.
+ */
+public final class JsonWriters {
+
+	private static volatile JsonWriters instance = new JsonWriters(false);
+
+	private final ObjectWriter compact;
+	private final ObjectWriter pretty;
+	private final boolean prettyByDefault;
+
+	private JsonWriters(boolean prettyByDefault) {
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.setDateFormat(new ISO8601DateFormat());
+		this.compact = objectMapper.writer();
+		this.pretty = objectMapper.writerWithDefaultPrettyPrinter();
+		this.prettyByDefault = prettyByDefault;
+	}
+
+	/**
+	 * (re)configure the shared writers, should be called once at init
+	 * @param prettyByDefault if true, pretty print unless the request says otherwise
+	 */
+	public static void configure(boolean prettyByDefault) {
+		instance = new JsonWriters(prettyByDefault);
+	}
+
+	/**
+	 * get the writer to use for a request
+	 * @param pretty the pretty print flag passed in the query, null if not specified
+	 * @return a shared writer
+	 */
+	public static ObjectWriter writer(Boolean pretty) {
+		JsonWriters current = instance;
+		boolean usePretty = pretty == null ? current.prettyByDefault : pretty;
+		return usePretty ? current.pretty : current.compact;
+	}
+}
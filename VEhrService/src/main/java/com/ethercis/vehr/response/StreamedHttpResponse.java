@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.response;
+
+import com.ethercis.servicemanager.common.I_StreamedResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * send a response written by the service while it is produced
+ * @see I_StreamedResponse
+ */
+public class StreamedHttpResponse extends GenericHttpResponse {
+
+	private final I_StreamedResponse content;
+
+	public StreamedHttpResponse(Object response, I_StreamedResponse content) throws IOException {
+		super(content.getContentType(), response, true);
+		this.content = content;
+	}
+
+	/**
+	 * write the content, the content is released in all cases
+	 * @throws IOException
+	 */
+	public void respond() throws IOException {
+		try (I_StreamedResponse streamed = content; OutputStream outputStream = getOutputStream()) {
+			streamed.writeTo(outputStream);
+		}
+	}
+}
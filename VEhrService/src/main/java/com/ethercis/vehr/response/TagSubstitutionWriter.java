@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.response;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer substituting a tag with a value on the fly (f.ex. Constants.URI_TAG with the query path)<p>
+ * The content is scanned once while being written: characters that may start the tag are held back until the
+ * match is complete or fails, everything else is passed through in bulk. A tag split across write calls is
+ * substituted as well.
+ */
+public class TagSubstitutionWriter extends FilterWriter {
+
+    private final char[] tag;
+    private final int[] failure;
+    private final String replacement;
+    private int matched = 0;
+
+    /**
+     * @param out the underlying writer
+     * @param tag the tag to substitute
+     * @param replacement the substituted value, null is substituted by an empty string
+     */
+    public TagSubstitutionWriter(Writer out, String tag, String replacement) {
+        super(out);
+        if (tag == null || tag.isEmpty())
+            throw new IllegalArgumentException("tag cannot be empty");
+        this.tag = tag.toCharArray();
+        this.replacement = replacement == null ? "" : replacement;
+
+        //longest proper prefix of the tag which is also a suffix, for each tag prefix
+        failure = new int[this.tag.length];
+        for (int i = 1, k = 0; i < this.tag.length; i++) {
+            while (k > 0 && this.tag[i] != this.tag[k])
+                k = failure[k - 1];
+            if (this.tag[i] == this.tag[k])
+                k++;
+            failure[i] = k;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[]{(char) c}, 0, 1);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        char[] chars = new char[len];
+        str.getChars(off, off + len, chars, 0);
+        write(chars, 0, len);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        int runStart = off;
+
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            if (matched == 0) {
+                if (c != tag[0])
+                    continue;
+                //a tag may start here, write what precedes it
+                out.write(cbuf, runStart, i - runStart);
+                matched = 1;
+            } else {
+                //release the held characters which cannot be part of the tag anymore
+                while (matched > 0 && c != tag[matched]) {
+                    int fallback = failure[matched - 1];
+                    out.write(tag, 0, matched - fallback);
+                    matched = fallback;
+                }
+                if (c == tag[matched])
+                    matched++;
+                else {
+                    runStart = i;
+                    continue;
+                }
+            }
+
+            if (matched == tag.length) {
+                out.write(replacement);
+                matched = 0;
+            }
+            runStart = i + 1;
+        }
+
+        if (matched == 0)
+            out.write(cbuf, runStart, end - runStart);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (matched > 0) {
+            out.write(tag, 0, matched);
+            matched = 0;
+        }
+        out.close();
+    }
+}
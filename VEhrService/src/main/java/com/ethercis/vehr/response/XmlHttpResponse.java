@@ -17,48 +17,55 @@
 package com.ethercis.vehr.response;
 
 import com.ethercis.servicemanager.common.def.Constants;
-import com.ethercis.servicemanager.common.def.SysErrorCode;
-import com.ethercis.servicemanager.exceptions.ServiceManagerException;
 import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * format an xml response
+ * format an xml response<p>
+ * Documents are serialized in a single pass straight to the response stream, the URI tag being substituted
+ * while writing (see {@link TagSubstitutionWriter}).
  * @author Christian Chevalley
  *
  */
 public class XmlHttpResponse extends GenericHttpResponse {
-	
+
+	private final boolean pretty;
+
 	public XmlHttpResponse(Object response) throws IOException{
-		super("application/xml;charset=UTF-8", response);
+		this(response, null);
+	}
+
+	/**
+	 * @param response the servlet response
+	 * @param pretty pretty print flag from the query, null to pretty print (default)
+	 * @throws IOException
+	 */
+	public XmlHttpResponse(Object response, Boolean pretty) throws IOException{
+		super("application/xml;charset=UTF-8", response, true);
+		this.pretty = pretty == null || pretty;
 	}
 	
-	public void respond(Object data, String path){
+	public void respond(Object data, String path) throws IOException {
 
 		if (data instanceof String) {
-			writer.println((String)data);
-			writer.close();
+			Writer out = new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8);
+			out.write((String) data);
+			out.write(System.lineSeparator());
+			out.close();
 		}
 		else if (data instanceof Document){
-			Document document = (Document)data;
-			String xml = document.asXML().replaceAll(Constants.URI_TAG, path);
-			//massaging...
-			OutputFormat outputFormat = OutputFormat.createPrettyPrint();
-			StringWriter stringWriter = new StringWriter();
-			XMLWriter xmlWriter = new XMLWriter(stringWriter, outputFormat);
-			try {
-				Document document1 = DocumentHelper.parseText(xml);
-				xmlWriter.write(document1);
-			} catch (Exception e){
-				throw new IllegalArgumentException("Could not encode content:"+e);
-			}
-			writer.println(stringWriter.toString());
-			writer.close();
+			Writer out = new TagSubstitutionWriter(new BufferedWriter(new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8)), Constants.URI_TAG, path);
+			OutputFormat outputFormat = pretty ? OutputFormat.createPrettyPrint() : OutputFormat.createCompactFormat();
+			XMLWriter xmlWriter = new XMLWriter(out, outputFormat);
+			xmlWriter.write((Document) data);
+			xmlWriter.close();
 		}
 	}
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.executor;
+
+import com.ethercis.servicemanager.common.def.MethodName;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+public class RouteClassTest extends TestCase {
+
+    public void testClassify() {
+        assertEquals(RouteClass.QUERY, RouteClass.classify("rest/v1/query", MethodName.toMethodName("POST")));
+        assertEquals(RouteClass.COMPOSITION_WRITE, RouteClass.classify("rest/v1/composition", MethodName.toMethodName("PUT")));
+        assertEquals(RouteClass.DEFAULT, RouteClass.classify("rest/v1/composition", MethodName.toMethodName("GET")));
+        assertEquals(RouteClass.TEMPLATE, RouteClass.classify("rest/v1/template/example", MethodName.toMethodName("GET")));
+        assertEquals(RouteClass.DEFAULT, RouteClass.classify("rest/v1/ehr/status", MethodName.toMethodName("GET")));
+    }
+
+    public void testPoolRejectsWhenSaturated() throws InterruptedException {
+        RequestPool pool = RequestPool.platform(RouteClass.QUERY, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        pool.execute(blocking); //running
+        pool.execute(blocking); //queued
+        try {
+            pool.execute(blocking);
+            fail("pool should be saturated");
+        } catch (RejectedExecutionException e) {
+            //expected
+        }
+        release.countDown();
+        pool.shutdown();
+    }
+}
@@ -363,4 +363,71 @@ public class EhrScapeURIParserTest extends TestCase {
     }
 
 
+    @Test
+    public void testParseRequestIsStateless() throws ServiceManagerException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/rest/v1/composition/8fd2bea0-9e0e-11e5-8994-feff819cdc9f");
+        when(request.getParameterMap()).thenReturn(new HashMap<String, String[]>());
+        when(request.getMethod()).thenReturn("GET");
+        ParsedRequest composition = uriParser.parseRequest(request);
+
+        request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/rest/v1/Query");
+        when(request.getParameterMap()).thenReturn(new HashMap<String, String[]>());
+        when(request.getMethod()).thenReturn("POST");
+        ParsedRequest query = uriParser.parseRequest(request);
+
+        //the first result is not altered by the second parse
+        assertEquals("rest/v1/composition", composition.getPath());
+        assertEquals("GET", composition.getMethod().toUpperCase());
+        assertEquals("8fd2bea0-9e0e-11e5-8994-feff819cdc9f", composition.getParameters().getClientProperty("uid").toString());
+
+        assertEquals("rest/v1/Query", query.getPath());
+        assertEquals("POST", query.getMethod().toUpperCase());
+        assertNull(query.getParameters().getClientProperty("uid"));
+    }
+
+    @Test
+    public void testParseCompositionBatch() throws ServiceManagerException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/rest/v1/composition/batch");
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("format", new String[]{"FLAT"});
+        parameters.put("templateId", new String[]{"MY TEMPLATE ID"});
+        when(request.getParameterMap()).thenReturn(parameters);
+        when(request.getMethod()).thenReturn("POST");
+        ParsedRequest batch = uriParser.parseRequest(request);
+
+        assertEquals("rest/v1/composition/batch", batch.getPath());
+        assertEquals("POST", batch.getMethod().toUpperCase());
+        assertEquals("FLAT", batch.getParameters().getClientProperty("format").toString());
+    }
+
+    @Test
+    public void testParseQueryJob() throws ServiceManagerException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameterMap()).thenReturn(new HashMap<>());
+
+        when(request.getRequestURI()).thenReturn("/rest/v1/query/job");
+        when(request.getMethod()).thenReturn("POST");
+        assertEquals("rest/v1/query/job", uriParser.parseRequest(request).getPath());
+
+        when(request.getRequestURI()).thenReturn("/rest/v1/query/job/1234/result");
+        when(request.getMethod()).thenReturn("GET");
+        ParsedRequest result = uriParser.parseRequest(request);
+        assertEquals("rest/v1/query/job/result", result.getPath());
+        assertEquals("1234", result.getParameters().getClientProperty("jobId").toString());
+
+        when(request.getRequestURI()).thenReturn("/rest/v1/query/job/1234");
+        when(request.getMethod()).thenReturn("DELETE");
+        ParsedRequest delete = uriParser.parseRequest(request);
+        assertEquals("rest/v1/query/job", delete.getPath());
+        assertEquals("1234", delete.getParameters().getClientProperty("jobId").toString());
+
+        when(request.getRequestURI()).thenReturn("/rest/v1/query");
+        when(request.getMethod()).thenReturn("POST");
+        assertEquals("rest/v1/query", uriParser.parseRequest(request).getPath());
+    }
+
+
 }
\ No newline at end of file
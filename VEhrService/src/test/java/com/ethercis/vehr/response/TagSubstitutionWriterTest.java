@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015 Christian Chevalley
+ * This file is part of Project Ethercis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ethercis.vehr.response;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class TagSubstitutionWriterTest extends TestCase {
+
+    private static final String TAG = "__URI__";
+
+    public void testSubstitution() throws IOException {
+        String[] contents = {"<a>__URI__?uid=1</a>", "___URI__", "__URI", "x_y__U__URI__z__URI__", "__URI____URI__"};
+
+        for (String content : contents) {
+            //write in chunks of all sizes to check tags split across writes
+            for (int chunk = 1; chunk <= content.length(); chunk++) {
+                StringWriter result = new StringWriter();
+                TagSubstitutionWriter writer = new TagSubstitutionWriter(result, TAG, "rest/v1/composition");
+                for (int i = 0; i < content.length(); i += chunk)
+                    writer.write(content, i, Math.min(chunk, content.length() - i));
+                writer.close();
+                assertEquals(content.replace(TAG, "rest/v1/composition"), result.toString());
+            }
+        }
+    }
+}